@@ -1,9 +1,12 @@
 package ru.kapyrin;
 
+import com.zaxxer.hikari.HikariDataSource;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.prometheusmetrics.PrometheusConfig;
 import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.config.DatabaseConfig;
 import ru.kapyrin.config.PropertiesLoader;
@@ -14,30 +17,50 @@ import ru.kapyrin.config.impl.FacadePropertiesLoader;
 import ru.kapyrin.config.impl.FilePropertiesLoader;
 import ru.kapyrin.controller.PriceApiVerticle;
 import ru.kapyrin.repository.PriceRepository;
+import ru.kapyrin.repository.impl.LimitedPriceRepository;
 import ru.kapyrin.repository.impl.PriceRepositoryImpl;
 import ru.kapyrin.service.MetricsService;
 import ru.kapyrin.service.PriceAverageCalculator;
 import ru.kapyrin.service.PriceCalculationService;
 import ru.kapyrin.service.PriceUpdateValidator;
-import ru.kapyrin.service.RawPriceUpdatePublisher;
 import ru.kapyrin.service.impl.MetricsServiceImpl;
 import ru.kapyrin.service.impl.PriceAverageCalculatorImpl;
 import ru.kapyrin.service.impl.PriceCalculationServiceImpl;
 import ru.kapyrin.service.impl.PriceUpdateValidatorImpl;
 import ru.kapyrin.service.impl.RawPriceUpdatePublisherImpl;
+import ru.kapyrin.util.AdaptiveConcurrencyLimiter;
+import ru.kapyrin.util.AggregateReconciler;
+import ru.kapyrin.util.AggregateStripingManager;
+import ru.kapyrin.util.AggregateWriteBehindBuffer;
 import ru.kapyrin.util.ApplicationShutdownHandler;
+import ru.kapyrin.util.AveragePriceChangeBroadcaster;
+import ru.kapyrin.util.AveragePriceOutboxRelay;
+import ru.kapyrin.util.BulkPriceImporter;
+import ru.kapyrin.util.CacheLayoutBenchmark;
 import ru.kapyrin.util.ConnectionMonitor;
 import ru.kapyrin.util.ConsumerInitializer;
 import ru.kapyrin.util.ConsumerScaler;
 import ru.kapyrin.util.DlqProcessor;
+import ru.kapyrin.util.ManufacturerDictionary;
+import ru.kapyrin.util.ManufacturerMigrator;
+import ru.kapyrin.util.PartitionMigrator;
+import ru.kapyrin.util.ProductIdBloomFilter;
+import ru.kapyrin.util.SpillJournal;
+import ru.kapyrin.util.SpillJournalDrainer;
+import ru.kapyrin.util.ProductPartitioner;
+import ru.kapyrin.util.ReplicaLagMonitor;
+import ru.kapyrin.util.VendorPriceMemo;
 
 import javax.sql.DataSource;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class Main {
@@ -49,10 +72,41 @@ public class Main {
         PropertiesLoader envLoader = new EnvironmentPropertiesLoader();
         PropertiesLoader propertiesLoader = new FacadePropertiesLoader(envLoader, fileLoader);
 
+        if (args.length > 0 && "cache-benchmark".equals(args[0])) {
+            benchmarkCacheLayouts(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000, propertiesLoader);
+            return;
+        }
+
         DatabaseConfig databaseConfig = new DatabaseConfig(propertiesLoader);
         DataSource dataSource = databaseConfig.createDataSource();
         log.info("HikariCP DataSource initialized");
 
+        ManufacturerMigrator manufacturerMigrator = new ManufacturerMigrator(dataSource, propertiesLoader);
+        if (args.length > 0 && "migrate-manufacturers".equals(args[0])) {
+            manufacturerMigrator.migrate();
+            closeDataSource(dataSource);
+            return;
+        }
+        manufacturerMigrator.backfill();
+
+        PartitionMigrator partitionMigrator = new PartitionMigrator(dataSource, propertiesLoader);
+        if (args.length > 0 && "migrate-partitions".equals(args[0])) {
+            partitionMigrator.migrate();
+            closeDataSource(dataSource);
+            return;
+        }
+
+        if (args.length > 1 && "import".equals(args[0])) {
+            importPriceFile(Path.of(args[1]), dataSource, propertiesLoader, meterRegistry);
+            closeDataSource(dataSource);
+            return;
+        }
+
+        Optional<DataSource> readDataSource = databaseConfig.createReadDataSource();
+        ReplicaLagMonitor replicaLagMonitor = new ReplicaLagMonitor(readDataSource.orElse(null), propertiesLoader);
+        replicaLagMonitor.start();
+        partitionMigrator.startMonitor();
+
         RabbitMQConfig rabbitMQConfig = new RabbitMQConfig(propertiesLoader);
         log.info("RabbitMQConfig initialized");
 
@@ -63,7 +117,14 @@ public class Main {
         connectionMonitor.registerMetrics();
         connectionMonitor.checkRedisConnection();
 
-        PriceRepository priceRepository = new PriceRepositoryImpl(dataSource);
+        PriceRepository jdbcPriceRepository = new PriceRepositoryImpl(dataSource, readDataSource.orElse(null), replicaLagMonitor,
+                propertiesLoader.getBooleanProperty("outbox.relay.enabled", true));
+        AdaptiveConcurrencyLimiter readLimiter = propertiesLoader.getBooleanProperty("db.limiter.enabled", true)
+                ? new AdaptiveConcurrencyLimiter("read", propertiesLoader)
+                : null;
+        PriceRepository priceRepository = readLimiter != null
+                ? new LimitedPriceRepository(jdbcPriceRepository, new AdaptiveConcurrencyLimiter("write", propertiesLoader), readLimiter)
+                : jdbcPriceRepository;
         log.info("PriceRepository initialized");
 
         MetricsService metricsService = new MetricsServiceImpl(meterRegistry);
@@ -72,26 +133,43 @@ public class Main {
         ExecutorService dbExecutorVirtual = Executors.newVirtualThreadPerTaskExecutor();
         log.info("DB Executor (Virtual Threads) initialized");
 
+        ProductIdBloomFilter productIdBloomFilter = new ProductIdBloomFilter(priceRepository, redisConfig, propertiesLoader);
+        productIdBloomFilter.start();
+        log.info("ProductIdBloomFilter initialized");
+
         PriceAverageCalculator priceAverageCalculator = new PriceAverageCalculatorImpl(
-                priceRepository, redisConfig, metricsService, dbExecutorVirtual);
+                priceRepository, redisConfig, metricsService, dbExecutorVirtual, productIdBloomFilter);
         log.info("PriceAverageCalculator initialized");
 
-        PriceCalculationService priceCalculationService = new PriceCalculationServiceImpl(priceRepository, priceAverageCalculator);
+        AveragePriceChangeBroadcaster averagePriceChangeBroadcaster = new AveragePriceChangeBroadcaster(redisConfig, propertiesLoader);
+
+        AggregateWriteBehindBuffer aggregateWriteBehindBuffer = new AggregateWriteBehindBuffer(
+                priceRepository, priceAverageCalculator, propertiesLoader, averagePriceChangeBroadcaster);
+        aggregateWriteBehindBuffer.start();
+
+        AggregateStripingManager aggregateStripingManager = new AggregateStripingManager(priceRepository, propertiesLoader);
+        aggregateStripingManager.start();
+
+        PriceCalculationService priceCalculationService = new PriceCalculationServiceImpl(
+                priceRepository, priceAverageCalculator, new ManufacturerDictionary(priceRepository, propertiesLoader),
+                aggregateWriteBehindBuffer, aggregateStripingManager,
+                new VendorPriceMemo(propertiesLoader), averagePriceChangeBroadcaster, productIdBloomFilter);
         log.info("PriceCalculationService initialized");
 
+        ProductPartitioner productPartitioner = new ProductPartitioner(propertiesLoader);
+        productPartitioner.initialize(dataSource);
+        log.info("ProductPartitioner initialized");
+
         PriceUpdateValidator priceUpdateValidator = new PriceUpdateValidatorImpl();
         log.info("PriceUpdateValidator initialized");
 
-        RawPriceUpdatePublisher rawPriceUpdatePublisher = new RawPriceUpdatePublisherImpl(rabbitMQConfig, metricsService, propertiesLoader);
-        log.info("RawPriceUpdatePublisher initialized");
-
         ExecutorService validationExecutor = Executors.newWorkStealingPool();
         log.info("Validation/Deserialization Executor (WorkStealingPool) initialized");
 
         List<Thread> consumerThreads = new ArrayList<>();
         ConsumerInitializer consumerInitializer = new ConsumerInitializer(
                 propertiesLoader, rabbitMQConfig, validationExecutor, dbExecutorVirtual,
-                priceCalculationService, priceUpdateValidator, consumerThreads);
+                priceCalculationService, priceUpdateValidator, consumerThreads, productPartitioner);
         consumerInitializer.initialize();
 
         ScheduledExecutorService scalingExecutor = Executors.newSingleThreadScheduledExecutor();
@@ -101,24 +179,89 @@ public class Main {
                 consumerInitializer.getMaxConsumerCount(),
                 consumerInitializer.getQueueSizeThreshold(),
                 rabbitMQConfig, validationExecutor, dbExecutorVirtual,
-                priceCalculationService, priceUpdateValidator, propertiesLoader);
+                priceCalculationService, priceUpdateValidator, propertiesLoader, productPartitioner);
         scalingExecutor.scheduleAtFixedRate(scaler::scale, 0, 30, TimeUnit.SECONDS);
 
         ExecutorService dlqProcessor = Executors.newVirtualThreadPerTaskExecutor();
         DlqProcessor dlqProcessorTask = new DlqProcessor(rabbitMQConfig, propertiesLoader);
         dlqProcessor.submit(dlqProcessorTask::process);
 
+        AggregateReconciler aggregateReconciler = new AggregateReconciler(
+                priceRepository, priceAverageCalculator, aggregateWriteBehindBuffer, dataSource, dbExecutorVirtual, propertiesLoader);
+        aggregateReconciler.start();
+
+        SpillJournal spillJournal = new SpillJournal(propertiesLoader);
+        SpillJournalDrainer spillJournalDrainer = new SpillJournalDrainer(spillJournal, rabbitMQConfig, propertiesLoader);
+        spillJournalDrainer.start();
+
+        AveragePriceOutboxRelay averagePriceOutboxRelay = new AveragePriceOutboxRelay(dataSource, rabbitMQConfig, propertiesLoader);
+        averagePriceOutboxRelay.start();
+
         ScheduledExecutorService monitorExecutor = Executors.newSingleThreadScheduledExecutor();
         monitorExecutor.scheduleAtFixedRate(connectionMonitor::checkRedisConnection, 0, 60, TimeUnit.SECONDS);
 
-        Vertx vertx = Vertx.vertx();
-        vertx.deployVerticle(new PriceApiVerticle(rawPriceUpdatePublisher, priceAverageCalculator, propertiesLoader, metricsService, meterRegistry))
-                .onSuccess(id -> log.info("PriceApiVerticle deployed with ID: {}", id))
+        Vertx vertx = Vertx.vertx(new VertxOptions()
+                .setPreferNativeTransport(propertiesLoader.getBooleanProperty("vertx.prefer.native.transport", true)));
+        log.info("Vert.x native transport enabled: {}", vertx.isNativeTransportEnabled());
+        averagePriceChangeBroadcaster.start(vertx);
+        int httpInstances = propertiesLoader.getIntProperty("http.verticle.instances", 0);
+        if (httpInstances <= 0) {
+            httpInstances = Runtime.getRuntime().availableProcessors();
+        }
+        AtomicInteger verticleInstances = new AtomicInteger();
+        vertx.deployVerticle(() -> new PriceApiVerticle(verticleInstances.getAndIncrement(),
+                                new RawPriceUpdatePublisherImpl(rabbitMQConfig, metricsService, propertiesLoader, priceUpdateValidator, spillJournal),
+                                priceAverageCalculator, propertiesLoader, metricsService, meterRegistry,
+                                priceUpdateValidator, priceRepository, dbExecutorVirtual, redisConfig, productIdBloomFilter,
+                                replicaLagMonitor, readLimiter),
+                        new DeploymentOptions().setInstances(httpInstances))
+                .onSuccess(id -> log.info("PriceApiVerticle deployed with ID: {} ({} instances)", id, verticleInstances.get()))
                 .onFailure(err -> log.error("Failed to deploy PriceApiVerticle: {}", err.getMessage()));
 
         ApplicationShutdownHandler shutdownHandler = new ApplicationShutdownHandler(
-                rawPriceUpdatePublisher, consumerThreads, dlqProcessor, rabbitMQConfig, redisConfig,
-                dataSource, validationExecutor, dbExecutorVirtual, scalingExecutor, consumerInitializer, dlqProcessorTask);
+                vertx, consumerThreads, dlqProcessor, rabbitMQConfig, redisConfig,
+                dataSource, readDataSource, replicaLagMonitor, validationExecutor, dbExecutorVirtual, scalingExecutor, consumerInitializer, dlqProcessorTask,
+                aggregateReconciler, productIdBloomFilter, aggregateWriteBehindBuffer, aggregateStripingManager, spillJournalDrainer,
+                averagePriceChangeBroadcaster, averagePriceOutboxRelay, partitionMigrator);
         Runtime.getRuntime().addShutdownHook(new Thread(shutdownHandler::shutdown));
     }
+
+    private static void importPriceFile(Path path, DataSource dataSource, PropertiesLoader propertiesLoader,
+                                        PrometheusMeterRegistry meterRegistry) {
+        RedisConfig redisConfig = new RedisConfig(propertiesLoader);
+        new ConnectionMonitor(null, redisConfig).checkRedisConnection();
+        if (!redisConfig.isRedisAvailable()) {
+            log.warn("Redis is unavailable, cached averages of imported products will only refresh on expiry");
+        }
+        ExecutorService dbExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            PriceRepository priceRepository = new PriceRepositoryImpl(dataSource, null, null,
+                    propertiesLoader.getBooleanProperty("outbox.relay.enabled", true));
+            PriceAverageCalculator priceAverageCalculator = new PriceAverageCalculatorImpl(
+                    priceRepository, redisConfig, new MetricsServiceImpl(meterRegistry), dbExecutor);
+            new BulkPriceImporter(dataSource, priceRepository, new PriceUpdateValidatorImpl(), priceAverageCalculator, propertiesLoader)
+                    .importFile(path);
+            ProductIdBloomFilter.requestRebuild(redisConfig);
+        } finally {
+            dbExecutor.shutdown();
+            redisConfig.close();
+        }
+    }
+
+    private static void benchmarkCacheLayouts(int products, PropertiesLoader propertiesLoader) {
+        RedisConfig redisConfig = new RedisConfig(propertiesLoader);
+        try {
+            new CacheLayoutBenchmark(redisConfig, propertiesLoader, products).run();
+        } catch (Exception e) {
+            log.error("Cache layout benchmark failed: {}", e.getMessage(), e);
+        } finally {
+            redisConfig.close();
+        }
+    }
+
+    private static void closeDataSource(DataSource dataSource) {
+        if (dataSource instanceof HikariDataSource hikariDataSource) {
+            hikariDataSource.close();
+        }
+    }
 }
\ No newline at end of file
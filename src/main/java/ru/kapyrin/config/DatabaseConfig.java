@@ -2,11 +2,14 @@ package ru.kapyrin.config;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.slf4j.Slf4j;
 import org.flywaydb.core.Flyway;
 import ru.kapyrin.exception.DatabaseInitializeException;
 
 import javax.sql.DataSource;
+import java.util.Map;
+import java.util.Optional;
 
 @Slf4j
 public class DatabaseConfig {
@@ -18,6 +21,7 @@ public class DatabaseConfig {
 
     public DataSource createDataSource() {
         HikariConfig config = new HikariConfig();
+        config.setPoolName("primary");
         config.setJdbcUrl(propertiesLoader.getProperty("db.url"));
         config.setUsername(propertiesLoader.getProperty("db.username"));
         config.setPassword(propertiesLoader.getProperty("db.password"));
@@ -27,6 +31,7 @@ public class DatabaseConfig {
         config.setIdleTimeout(propertiesLoader.getLongProperty("db.idleTimeout", 600000));
         config.setMaxLifetime(propertiesLoader.getLongProperty("db.maxLifetime", 1800000));
         config.setAutoCommit(true);
+        config.setMetricRegistry(Metrics.globalRegistry);
         log.info("Attempting to create HikariDataSource for URL: {}", config.getJdbcUrl());
         HikariDataSource dataSource = new HikariDataSource(config);
         log.info("HikariDataSource created successfully. Pool size: {}", config.getMaximumPoolSize());
@@ -34,12 +39,43 @@ public class DatabaseConfig {
         return dataSource;
     }
 
+    public Optional<DataSource> createReadDataSource() {
+        String readUrl = propertiesLoader.getProperty("db.read.url");
+        if (readUrl == null || readUrl.isBlank()) {
+            log.info("No read replica configured, read-only queries will use the primary pool");
+            return Optional.empty();
+        }
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("replica");
+        config.setJdbcUrl(readUrl);
+        config.setUsername(propertiesLoader.getProperty("db.read.username", propertiesLoader.getProperty("db.username")));
+        config.setPassword(propertiesLoader.getProperty("db.read.password", propertiesLoader.getProperty("db.password")));
+        config.setMaximumPoolSize(propertiesLoader.getIntProperty("db.read.pool.size", 10));
+        config.setMinimumIdle(propertiesLoader.getIntProperty("db.read.pool.min.idle", 2));
+        config.setConnectionTimeout(propertiesLoader.getLongProperty("db.read.connection.timeout", 2000));
+        config.setIdleTimeout(propertiesLoader.getLongProperty("db.idleTimeout", 600000));
+        config.setMaxLifetime(propertiesLoader.getLongProperty("db.maxLifetime", 1800000));
+        config.setInitializationFailTimeout(-1);
+        config.setReadOnly(true);
+        config.setAutoCommit(true);
+        config.setMetricRegistry(Metrics.globalRegistry);
+        log.info("Attempting to create read-only HikariDataSource for URL: {}", config.getJdbcUrl());
+        HikariDataSource dataSource = new HikariDataSource(config);
+        log.info("Read-only HikariDataSource created successfully. Pool size: {}", config.getMaximumPoolSize());
+        return Optional.of(dataSource);
+    }
+
+    public int getPartitionCount() {
+        return Math.max(1, propertiesLoader.getIntProperty("db.partition.count", 16));
+    }
+
     private void initializeDatabaseSchema(DataSource dataSource) {
         try {
             Flyway flyway = Flyway.configure(ClassLoader.getSystemClassLoader())
                     .dataSource(dataSource)
                     .locations("classpath:db/migration")
                     .baselineOnMigrate(true)
+                    .placeholders(Map.of("partitionCount", String.valueOf(getPartitionCount())))
                     .load();
             flyway.migrate();
             log.info("Database schema initialized successfully with Flyway.");
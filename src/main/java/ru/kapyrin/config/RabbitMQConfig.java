@@ -3,22 +3,40 @@ package ru.kapyrin.config;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.impl.MicrometerMetricsCollector;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Getter
 public class RabbitMQConfig {
-    private final Connection connection;
+    public enum Role { PUBLISH, CONSUME, DLQ }
+
+    private final Map<Role, List<Connection>> connections = new EnumMap<>(Role.class);
+    @Getter(AccessLevel.NONE)
+    private final Map<Role, AtomicInteger> nextConnection = new EnumMap<>(Role.class);
     private final String rawQueueName;
     private final String dlqName;
     private final String exchangeName;
     private final String rawRoutingKey;
+    private final String eventsExchangeName;
+    private final String averageChangedRoutingKey;
 
     public RabbitMQConfig(PropertiesLoader propertiesLoader) {
         ConnectionFactory factory = new ConnectionFactory();
@@ -26,14 +44,28 @@ public class RabbitMQConfig {
         factory.setPort(propertiesLoader.getIntProperty("rabbitmq.port", 5672));
         factory.setUsername(propertiesLoader.getProperty("rabbitmq.username", "guest"));
         factory.setPassword(propertiesLoader.getProperty("rabbitmq.password", "guest"));
+        factory.setAutomaticRecoveryEnabled(true);
+        factory.setTopologyRecoveryEnabled(true);
+        factory.setNetworkRecoveryInterval(propertiesLoader.getLongProperty("rabbitmq.recovery.interval.ms", 5_000L));
         this.rawQueueName = propertiesLoader.getProperty("rabbitmq.raw.queue.name", "raw_price_updates_queue");
         this.dlqName = propertiesLoader.getProperty("rabbitmq.dlq.name", "price_updates_dlq");
         this.exchangeName = propertiesLoader.getProperty("rabbitmq.exchange.name", "price_updates_exchange");
         this.rawRoutingKey = propertiesLoader.getProperty("rabbitmq.raw.routing.key", "price.update");
+        this.eventsExchangeName = propertiesLoader.getProperty("rabbitmq.events.exchange.name", "price_events_exchange");
+        this.averageChangedRoutingKey = propertiesLoader.getProperty("rabbitmq.events.average.changed.routing.key", "average.changed");
 
         try {
-            this.connection = factory.newConnection();
-            Channel channel = connection.createChannel();
+            for (Role role : Role.values()) {
+                String roleName = role.name().toLowerCase(Locale.ROOT);
+                int count = Math.max(1, propertiesLoader.getIntProperty("rabbitmq.connections." + roleName, role == Role.CONSUME ? 2 : 1));
+                List<Connection> roleConnections = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    roleConnections.add(openConnection(factory, roleName, roleName + "-" + i));
+                }
+                connections.put(role, List.copyOf(roleConnections));
+                nextConnection.put(role, new AtomicInteger());
+            }
+            Channel channel = getConnection(Role.PUBLISH).createChannel();
             channel.exchangeDeclare(exchangeName, "topic", true);
             Map<String, Object> args = new HashMap<>();
             long ttlMs = Duration.ofHours(
@@ -48,6 +80,8 @@ public class RabbitMQConfig {
             channel.queueDeclare(dlqName, true, false, false, null);
             channel.queueBind(dlqName, exchangeName, "price.update.dlq");
             log.info("RabbitMQ DLQ '{}' bound to exchange '{}' with routing key 'price.update.dlq'", dlqName, exchangeName);
+            channel.exchangeDeclare(eventsExchangeName, "topic", true);
+            log.info("RabbitMQ events exchange '{}' declared", eventsExchangeName);
             channel.close();
         } catch (IOException | TimeoutException e) {
             log.error("Failed to connect to RabbitMQ or declare queues/exchange", e);
@@ -55,14 +89,44 @@ public class RabbitMQConfig {
         }
     }
 
+    private static Connection openConnection(ConnectionFactory factory, String role, String name) throws IOException, TimeoutException {
+        factory.setMetricsCollector(new MicrometerMetricsCollector(Metrics.globalRegistry, "rabbitmq.client",
+                Tags.of("role", role, "connection", name)));
+        Connection connection = factory.newConnection("price-service-" + name);
+        Counter recoveries = Metrics.counter("rabbitmq_connection_recoveries_total", "role", role, "connection", name);
+        if (connection instanceof Recoverable recoverable) {
+            recoverable.addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recovered) {
+                    recoveries.increment();
+                    log.info("RabbitMQ connection {} recovered, consumers and channel state re-registered", name);
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recovering) {
+                    log.warn("RabbitMQ connection {} lost, recovering", name);
+                }
+            });
+        }
+        log.info("RabbitMQ connection {} opened", name);
+        return connection;
+    }
+
+    public Connection getConnection(Role role) {
+        List<Connection> roleConnections = connections.get(role);
+        return roleConnections.get(Math.floorMod(nextConnection.get(role).getAndIncrement(), roleConnections.size()));
+    }
+
     public void close() {
-        try {
-            if (connection != null && connection.isOpen()) {
-                connection.close();
-                log.info("RabbitMQ connection closed");
+        connections.forEach((role, roleConnections) -> roleConnections.forEach(connection -> {
+            try {
+                if (connection.isOpen()) {
+                    connection.close();
+                    log.info("RabbitMQ connection {} closed", connection.getClientProvidedName());
+                }
+            } catch (IOException e) {
+                log.error("Error closing RabbitMQ connection {}", connection.getClientProvidedName(), e);
             }
-        } catch (IOException e) {
-            log.error("Error closing RabbitMQ connection", e);
-        }
+        }));
     }
 }
\ No newline at end of file
@@ -5,14 +5,23 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import ru.kapyrin.util.AveragePriceCacheLayout;
 
 import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Slf4j
 @Getter
 public class RedisConfig {
+    public static final String NOT_FOUND_MARKER = "none";
+
     private JedisPool jedisPool;
     private final int cacheExpireSeconds;
+    private final int cacheTtlJitterPercent;
+    private final double cacheRefreshBeta;
+    private final long cacheRefreshMinWindowMs;
+    private final int negativeCacheExpireSeconds;
+    private final AveragePriceCacheLayout cacheLayout;
     @Setter
     private boolean isRedisAvailable;
 
@@ -28,6 +37,17 @@ public class RedisConfig {
         poolConfig.setTimeBetweenEvictionRuns(Duration.ofMillis(propertiesLoader.getLongProperty("redis.pool.eviction.interval.ms", 30000L)));
         long expireSeconds = Duration.ofMinutes(propertiesLoader.getIntProperty("redis.cache.expire.minutes", 10)).getSeconds();
         this.cacheExpireSeconds = (int) Math.min(Integer.MAX_VALUE, expireSeconds);
+        this.cacheTtlJitterPercent = Math.max(0, Math.min(50, propertiesLoader.getIntProperty("redis.cache.ttl.jitter.percent", 10)));
+        this.cacheRefreshBeta = Math.max(0.0, Double.parseDouble(propertiesLoader.getProperty("redis.cache.refresh.beta", "1.0")));
+        this.cacheRefreshMinWindowMs = Math.max(0L, propertiesLoader.getLongProperty("redis.cache.refresh.min.window.ms", 1000L));
+        this.cacheLayout = AveragePriceCacheLayout.from(propertiesLoader);
+        int negativeExpireSeconds = Math.max(0, propertiesLoader.getIntProperty("redis.cache.negative.ttl.seconds", 60));
+        if (negativeExpireSeconds > 0 && cacheLayout.isBucketed()) {
+            log.warn("redis.cache.negative.ttl.seconds={} is ignored with redis.cache.layout=buckets: a bucket TTL is renewed on every write, so markers would outlive it",
+                    negativeExpireSeconds);
+            negativeExpireSeconds = 0;
+        }
+        this.negativeCacheExpireSeconds = negativeExpireSeconds;
         this.jedisPool = new JedisPool(
                 poolConfig,
                 propertiesLoader.getProperty("redis.host", "localhost"),
@@ -36,6 +56,14 @@ public class RedisConfig {
         this.isRedisAvailable = false;
     }
 
+    public int jitteredCacheExpireSeconds() {
+        int jitter = cacheExpireSeconds * cacheTtlJitterPercent / 100;
+        if (jitter == 0) {
+            return cacheExpireSeconds;
+        }
+        return Math.max(1, cacheExpireSeconds + ThreadLocalRandom.current().nextInt(-jitter, jitter + 1));
+    }
+
     public void close() {
         if (jedisPool != null && !jedisPool.isClosed()) {
             jedisPool.close();
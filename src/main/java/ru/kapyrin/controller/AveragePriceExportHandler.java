@@ -0,0 +1,191 @@
+package ru.kapyrin.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.model.ProductAveragePrice;
+import ru.kapyrin.repository.PriceRepository;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@Slf4j
+public class AveragePriceExportHandler implements Handler<RoutingContext> {
+    private static final String CSV_HEADER = "product_id,average_price,offer_count,updated_at\n";
+
+    private final PriceRepository priceRepository;
+    private final ExecutorService exportExecutor;
+    private final int fetchSize;
+    private final int chunkChars;
+    private final long writeTimeoutMs;
+    private final Counter exportedRows = Metrics.counter("average_price_export_rows_total");
+    private final Counter completedExports = Metrics.counter("average_price_exports_total", "result", "completed");
+    private final Counter abortedExports = Metrics.counter("average_price_exports_total", "result", "aborted");
+
+    public AveragePriceExportHandler(PriceRepository priceRepository, ExecutorService exportExecutor, PropertiesLoader propertiesLoader) {
+        this.priceRepository = priceRepository;
+        this.exportExecutor = exportExecutor;
+        this.fetchSize = Math.max(1, propertiesLoader.getIntProperty("export.fetch.size", 5000));
+        this.chunkChars = Math.max(1, propertiesLoader.getIntProperty("export.chunk.bytes", 65_536));
+        this.writeTimeoutMs = Math.max(1L, propertiesLoader.getLongProperty("export.write.timeout.ms", 60_000L));
+    }
+
+    @Override
+    public void handle(RoutingContext rc) {
+        Instant updatedSince;
+        try {
+            updatedSince = parseUpdatedSince(rc.queryParams().get("updated_since"));
+        } catch (DateTimeParseException e) {
+            rc.fail(400, new IllegalArgumentException("updated_since must be an ISO-8601 timestamp, e.g. 2025-01-31T00:00:00Z"));
+            return;
+        }
+        boolean csv = isCsv(rc);
+        ExportStream stream = new ExportStream(rc, csv);
+        exportExecutor.execute(() -> stream.run(updatedSince));
+    }
+
+    private static Instant parseUpdatedSince(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return OffsetDateTime.parse(value).toInstant();
+    }
+
+    private static boolean isCsv(RoutingContext rc) {
+        String format = rc.queryParams().get("format");
+        if (format != null) {
+            return "csv".equalsIgnoreCase(format);
+        }
+        String accept = rc.request().getHeader("accept");
+        return accept != null && accept.contains("text/csv");
+    }
+
+    private final class ExportStream {
+        private final RoutingContext rc;
+        private final HttpServerResponse response;
+        private final Context context;
+        private final boolean csv;
+        private final StringBuilder chunk = new StringBuilder(chunkChars + 128);
+        private volatile boolean closed;
+        private volatile CompletableFuture<Void> writable = CompletableFuture.completedFuture(null);
+        private boolean started;
+        private long rows;
+        private long flushedRows;
+
+        private ExportStream(RoutingContext rc, boolean csv) {
+            this.rc = rc;
+            this.response = rc.response();
+            this.context = rc.vertx().getOrCreateContext();
+            this.csv = csv;
+            response.closeHandler(v -> {
+                closed = true;
+                writable.complete(null);
+            });
+        }
+
+        private void run(Instant updatedSince) {
+            try {
+                if (csv) {
+                    chunk.append(CSV_HEADER);
+                }
+                priceRepository.streamAveragePrices(updatedSince, fetchSize, this::append);
+                flush();
+                context.runOnContext(v -> response.end());
+                completedExports.increment();
+                log.info("Exported {} average prices (updatedSince={}, format={})", rows, updatedSince, csv ? "csv" : "ndjson");
+            } catch (Exception e) {
+                abortedExports.increment();
+                log.warn("Average price export aborted after {} rows: {}", rows, e.getMessage());
+                context.runOnContext(v -> {
+                    if (!response.headWritten()) {
+                        rc.fail(e);
+                    } else if (!response.closed()) {
+                        response.reset();
+                    }
+                });
+            }
+        }
+
+        private void append(ProductAveragePrice price) {
+            String averagePrice = price.averagePrice() != null ? price.averagePrice().toPlainString() : null;
+            String updatedAt = price.updatedAt() != null ? price.updatedAt().toString() : null;
+            if (csv) {
+                chunk.append(price.productId()).append(',')
+                        .append(averagePrice != null ? averagePrice : "").append(',')
+                        .append(price.offerCount()).append(',')
+                        .append(updatedAt != null ? updatedAt : "").append('\n');
+            } else {
+                chunk.append("{\"product_id\":").append(price.productId())
+                        .append(",\"average_price\":").append(averagePrice)
+                        .append(",\"offer_count\":").append(price.offerCount())
+                        .append(",\"updated_at\":").append(updatedAt != null ? "\"" + updatedAt + "\"" : null)
+                        .append("}\n");
+            }
+            rows++;
+            if (chunk.length() >= chunkChars) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            awaitWritable();
+            if (chunk.isEmpty() && started) {
+                return;
+            }
+            Buffer buffer = Buffer.buffer(chunk.toString());
+            exportedRows.increment(rows - flushedRows);
+            flushedRows = rows;
+            chunk.setLength(0);
+            CompletableFuture<Void> next = new CompletableFuture<>();
+            writable = next;
+            boolean first = !started;
+            started = true;
+            context.runOnContext(v -> {
+                if (closed) {
+                    next.complete(null);
+                    return;
+                }
+                if (first) {
+                    response.setChunked(true)
+                            .setStatusCode(200)
+                            .putHeader("content-type", csv ? "text/csv; charset=utf-8" : "application/x-ndjson");
+                }
+                response.write(buffer);
+                if (response.writeQueueFull()) {
+                    response.drainHandler(d -> next.complete(null));
+                } else {
+                    next.complete(null);
+                }
+            });
+        }
+
+        private void awaitWritable() {
+            try {
+                writable.get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new CancellationException("Client did not read the export within " + writeTimeoutMs + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Export interrupted");
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            if (closed) {
+                throw new CancellationException("Client closed the export stream");
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.kapyrin.controller;
+
+import io.vertx.core.buffer.Buffer;
+import ru.kapyrin.util.PriceCents;
+
+import java.nio.charset.StandardCharsets;
+
+final class AveragePriceResponse {
+    private static final byte[] PRODUCT_ID_PREFIX = "{\"product_id\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AVERAGE_PRICE_PREFIX = ",\"average_price\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_LENGTH = PRODUCT_ID_PREFIX.length + 20 + AVERAGE_PRICE_PREFIX.length
+            + PriceCents.MAX_FORMATTED_LENGTH + SUFFIX.length;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_LENGTH]);
+
+    private AveragePriceResponse() {
+    }
+
+    static Buffer encode(long productId, long averagePriceCents) {
+        byte[] scratch = SCRATCH.get();
+        int position = put(scratch, 0, PRODUCT_ID_PREFIX);
+        position = putLong(scratch, position, productId);
+        position = put(scratch, position, AVERAGE_PRICE_PREFIX);
+        position += PriceCents.format(averagePriceCents, scratch, position);
+        position = put(scratch, position, SUFFIX);
+        return Buffer.buffer(position).appendBytes(scratch, 0, position);
+    }
+
+    private static int put(byte[] target, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, target, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static int putLong(byte[] target, int position, long value) {
+        if (value < 0) {
+            byte[] digits = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            return put(target, position, digits);
+        }
+        int length = 1;
+        for (long rest = value; rest >= 10; rest /= 10) {
+            length++;
+        }
+        for (int i = position + length - 1; i >= position; i--) {
+            target[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + length;
+    }
+}
@@ -0,0 +1,224 @@
+package ru.kapyrin.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.service.PriceAverageCalculator;
+import ru.kapyrin.util.AveragePriceChangeBroadcaster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code GET /average-prices/stream?product_ids=1,2,3} as Server-Sent Events. The stream starts with the
+ * current averages and then carries changes from the event bus. Changes for one connection are coalesced
+ * per product and written at most once per {@code push.coalesce.interval.ms}, and not while the socket's
+ * write queue is full.
+ */
+@Slf4j
+public class AveragePriceStreamHandler implements Handler<RoutingContext> {
+    private static final AtomicInteger OPEN_STREAMS = new AtomicInteger();
+    private static final byte[] EVENT_PREFIX = "event: average_price\ndata: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT_SUFFIX = "\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final Buffer HEARTBEAT = Buffer.buffer(":\n\n");
+
+    private final Vertx vertx;
+    private final PriceAverageCalculator priceAverageCalculator;
+    private final int maxProductIds;
+    private final int maxStreams;
+    private final long coalesceIntervalMs;
+    private final long heartbeatIntervalMs;
+    private final Map<Long, Set<Subscription>> subscriptions = new HashMap<>();
+    private final MessageConsumer<String> changes;
+    private final Counter eventsWritten = Metrics.counter("average_price_stream_events_total");
+    private final Counter streamsRejected = Metrics.counter("average_price_stream_rejected_total");
+
+    public AveragePriceStreamHandler(Vertx vertx, PriceAverageCalculator priceAverageCalculator, PropertiesLoader propertiesLoader) {
+        this.vertx = vertx;
+        this.priceAverageCalculator = priceAverageCalculator;
+        this.maxProductIds = propertiesLoader.getIntProperty("batch.max.product.ids", 500);
+        this.maxStreams = propertiesLoader.getIntProperty("push.max.streams.per.instance", 10_000);
+        this.coalesceIntervalMs = Math.max(1L, propertiesLoader.getLongProperty("push.coalesce.interval.ms", 250L));
+        this.heartbeatIntervalMs = Math.max(1_000L, propertiesLoader.getLongProperty("push.heartbeat.interval.ms", 15_000L));
+        this.changes = vertx.eventBus().localConsumer(AveragePriceChangeBroadcaster.ADDRESS, message -> onChanges(message.body()));
+        Gauge.builder("average_price_streams_open", OPEN_STREAMS::get)
+                .description("Open Server-Sent Events streams of average price changes")
+                .register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public void handle(RoutingContext rc) {
+        Set<Long> productIds;
+        try {
+            productIds = parseProductIds(rc.queryParams().get("product_ids"));
+        } catch (IllegalArgumentException e) {
+            rc.fail(400, e);
+            return;
+        }
+        if (productIds.size() > maxProductIds) {
+            rc.fail(400, new IllegalArgumentException("At most " + maxProductIds + " product ids per stream"));
+            return;
+        }
+        if (OPEN_STREAMS.get() >= maxStreams) {
+            streamsRejected.increment();
+            rc.response().putHeader("retry-after", "5").setStatusCode(503).end();
+            return;
+        }
+        HttpServerResponse response = rc.response()
+                .setChunked(true)
+                .putHeader("content-type", "text/event-stream")
+                .putHeader("cache-control", "no-cache")
+                .putHeader("content-encoding", "identity")
+                .putHeader("x-accel-buffering", "no");
+        Subscription subscription = new Subscription(response, productIds);
+        productIds.forEach(productId -> subscriptions.computeIfAbsent(productId, id -> new HashSet<>()).add(subscription));
+        OPEN_STREAMS.incrementAndGet();
+        response.closeHandler(v -> subscription.close());
+        response.exceptionHandler(e -> subscription.close());
+        response.write("retry: 3000\n\n");
+        subscription.heartbeatTimer = vertx.setPeriodic(heartbeatIntervalMs, id -> {
+            if (!response.writeQueueFull()) {
+                response.write(HEARTBEAT);
+            }
+        });
+        Future.fromCompletionStage(priceAverageCalculator.getAveragePricesAsync(new ArrayList<>(productIds)), vertx.getOrCreateContext())
+                .onSuccess(prices -> prices.forEach(subscription::offerInitial))
+                .onFailure(e -> log.warn("Failed to load initial averages for stream of {} products: {}", productIds.size(), e.getMessage()));
+    }
+
+    private void onChanges(String payload) {
+        Map<Long, Long> changed;
+        try {
+            changed = AveragePriceChangeBroadcaster.decode(payload);
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed average price change payload: {}", e.getMessage());
+            return;
+        }
+        changed.forEach((productId, averagePriceCents) -> {
+            Set<Subscription> subscribers = subscriptions.get(productId);
+            if (subscribers != null) {
+                subscribers.forEach(subscription -> subscription.offer(productId, averagePriceCents));
+            }
+        });
+    }
+
+    private static Set<Long> parseProductIds(String value) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("product_ids query parameter is required, e.g. ?product_ids=1,2,3");
+        }
+        Set<Long> productIds = new LinkedHashSet<>();
+        for (String part : value.split(",")) {
+            long productId;
+            try {
+                productId = Long.parseLong(part.strip());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid product id: " + part);
+            }
+            if (productId <= 0) {
+                throw new IllegalArgumentException("Invalid product id: " + productId);
+            }
+            productIds.add(productId);
+        }
+        return productIds;
+    }
+
+    public void close() {
+        changes.unregister();
+        List<Subscription> open = subscriptions.values().stream().flatMap(Set::stream).distinct().toList();
+        open.forEach(subscription -> {
+            subscription.close();
+            if (!subscription.response.ended() && !subscription.response.closed()) {
+                subscription.response.end();
+            }
+        });
+    }
+
+    private final class Subscription {
+        private final HttpServerResponse response;
+        private final Set<Long> productIds;
+        private final Map<Long, Long> pending = new LinkedHashMap<>();
+        private long heartbeatTimer = -1;
+        private long flushTimer = -1;
+        private long lastFlushMs;
+        private boolean closed;
+
+        private Subscription(HttpServerResponse response, Set<Long> productIds) {
+            this.response = response;
+            this.productIds = productIds;
+        }
+
+        private void offerInitial(Long productId, Long averagePriceCents) {
+            pending.putIfAbsent(productId, averagePriceCents);
+            scheduleFlush();
+        }
+
+        private void offer(Long productId, Long averagePriceCents) {
+            pending.put(productId, averagePriceCents);
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (closed || flushTimer != -1) {
+                return;
+            }
+            long delayMs = Math.max(1L, lastFlushMs + coalesceIntervalMs - System.currentTimeMillis());
+            flushTimer = vertx.setTimer(delayMs, id -> {
+                flushTimer = -1;
+                flush();
+            });
+        }
+
+        private void flush() {
+            if (closed || pending.isEmpty()) {
+                return;
+            }
+            if (response.writeQueueFull()) {
+                response.drainHandler(v -> scheduleFlush());
+                return;
+            }
+            Buffer events = Buffer.buffer(pending.size() * 64);
+            pending.forEach((productId, averagePriceCents) -> events.appendBytes(EVENT_PREFIX)
+                    .appendBuffer(averagePriceCents != null
+                            ? AveragePriceResponse.encode(productId, averagePriceCents)
+                            : Buffer.buffer("{\"product_id\":" + productId + ",\"average_price\":null}"))
+                    .appendBytes(EVENT_SUFFIX));
+            eventsWritten.increment(pending.size());
+            pending.clear();
+            lastFlushMs = System.currentTimeMillis();
+            response.write(events);
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            OPEN_STREAMS.decrementAndGet();
+            vertx.cancelTimer(heartbeatTimer);
+            vertx.cancelTimer(flushTimer);
+            productIds.forEach(productId -> {
+                Set<Subscription> subscribers = subscriptions.get(productId);
+                if (subscribers != null && subscribers.remove(this) && subscribers.isEmpty()) {
+                    subscriptions.remove(productId);
+                }
+            });
+        }
+    }
+}
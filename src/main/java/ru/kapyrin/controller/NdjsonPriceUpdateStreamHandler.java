@@ -0,0 +1,192 @@
+package ru.kapyrin.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
+import io.vertx.ext.web.RoutingContext;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.PriceUpdate;
+import ru.kapyrin.service.MetricsService;
+import ru.kapyrin.service.PriceUpdateValidator;
+import ru.kapyrin.service.RawPriceUpdatePublisher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+@Slf4j
+public class NdjsonPriceUpdateStreamHandler implements Handler<RoutingContext> {
+    private static final int PAUSED_CHUNK_HEADROOM_BYTES = 1_048_576;
+    private final RawPriceUpdatePublisher rawPriceUpdatePublisher;
+    private final PriceUpdateValidator validator;
+    private final MetricsService metricsService;
+    private final int batchSize;
+    private final long batchMaxBytes;
+    private final int maxLineBytes;
+    private final int maxErrorSamples;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Counter acceptedLines = Metrics.counter("price_updates_stream_lines_total", "result", "accepted");
+    private final Counter rejectedLines = Metrics.counter("price_updates_stream_lines_total", "result", "rejected");
+    private final Counter publishedBatches = Metrics.counter("price_updates_stream_batches_total");
+
+    public NdjsonPriceUpdateStreamHandler(RawPriceUpdatePublisher rawPriceUpdatePublisher, PriceUpdateValidator validator,
+                                          MetricsService metricsService, PropertiesLoader propertiesLoader) {
+        this.rawPriceUpdatePublisher = rawPriceUpdatePublisher;
+        this.validator = validator;
+        this.metricsService = metricsService;
+        this.batchSize = Math.max(1, propertiesLoader.getIntProperty("stream.batch.size", 5000));
+        this.batchMaxBytes = Math.max(1L, propertiesLoader.getLongProperty("stream.batch.max.bytes", 1_048_576L));
+        this.maxLineBytes = Math.max(1, propertiesLoader.getIntProperty("stream.max.line.bytes", 65_536));
+        this.maxErrorSamples = Math.max(0, propertiesLoader.getIntProperty("stream.max.error.samples", 20));
+    }
+
+    @Override
+    public void handle(RoutingContext rc) {
+        metricsService.recordPostRequest();
+        new StreamIngest(rc).start();
+    }
+
+    private final class StreamIngest {
+        private final RoutingContext rc;
+        private final Timer.Sample sample = metricsService.startPostTimer();
+        private final JsonArray errorSamples = new JsonArray();
+        private RecordParser parser;
+        private List<PriceUpdate> batch = new ArrayList<>();
+        private long batchBytes;
+        private long lines;
+        private long accepted;
+        private long rejected;
+        private long batches;
+        private boolean finished;
+
+        private StreamIngest(RoutingContext rc) {
+            this.rc = rc;
+        }
+
+        private void start() {
+            parser = RecordParser.newDelimited("\n", rc.request())
+                    .maxRecordSize(maxLineBytes + PAUSED_CHUNK_HEADROOM_BYTES)
+                    .exceptionHandler(this::onStreamError)
+                    .endHandler(v -> {
+                        if (!finished) {
+                            publish(this::respond);
+                        }
+                    });
+            parser.handler(this::onLine);
+        }
+
+        private void onLine(Buffer line) {
+            if (finished) {
+                return;
+            }
+            lines++;
+            if (line.length() > maxLineBytes) {
+                reject("Line exceeds " + maxLineBytes + " bytes");
+                return;
+            }
+            String json = line.toString(StandardCharsets.UTF_8).strip();
+            if (json.isEmpty()) {
+                return;
+            }
+            try {
+                PriceUpdate update = objectMapper.readValue(json, PriceUpdate.class);
+                validator.validatePriceUpdate(update);
+                batch.add(update);
+                batchBytes += line.length();
+                accepted++;
+            } catch (JsonProcessingException e) {
+                reject("Invalid JSON: " + e.getOriginalMessage());
+            } catch (PriceUpdateException | IllegalArgumentException e) {
+                reject(e.getMessage());
+            }
+            if (batch.size() >= batchSize || batchBytes >= batchMaxBytes) {
+                parser.pause();
+                publish(parser::resume);
+            }
+        }
+
+        private void reject(String message) {
+            rejected++;
+            rejectedLines.increment();
+            if (errorSamples.size() < maxErrorSamples) {
+                errorSamples.add(new JsonObject().put("line", lines).put("error", message));
+            }
+        }
+
+        private void publish(Runnable onPublished) {
+            if (batch.isEmpty()) {
+                onPublished.run();
+                return;
+            }
+            List<PriceUpdate> toPublish = batch;
+            batch = new ArrayList<>(Math.min(batchSize, toPublish.size()));
+            batchBytes = 0;
+            rc.vertx().executeBlocking(() -> {
+                rawPriceUpdatePublisher.publishPriceUpdates(toPublish);
+                return null;
+            }, false).onComplete(ar -> {
+                if (ar.succeeded()) {
+                    batches++;
+                    publishedBatches.increment();
+                    acceptedLines.increment(toPublish.size());
+                    onPublished.run();
+                } else {
+                    log.error("Failed to publish stream batch of {} updates after {} lines: {}", toPublish.size(), lines, ar.cause().getMessage());
+                    accepted -= toPublish.size();
+                    fail(503, "Failed to publish price updates: " + ar.cause().getMessage());
+                }
+            });
+        }
+
+        private void onStreamError(Throwable e) {
+            log.warn("NDJSON stream aborted after {} lines: {}", lines, e.getMessage());
+            metricsService.recordPostError();
+            int status = e instanceof IllegalStateException ? 413 : 400;
+            fail(status, status == 413 ? "No line delimiter within " + (maxLineBytes + PAUSED_CHUNK_HEADROOM_BYTES) + " bytes" : e.getMessage());
+        }
+
+        private void respond() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            metricsService.stopPostTimer(sample);
+            log.info("NDJSON stream ingested: lines={}, accepted={}, rejected={}, batches={}", lines, accepted, rejected, batches);
+            rc.response()
+                    .putHeader("content-type", "application/json")
+                    .setStatusCode(202)
+                    .end(summary().put("status", "ok").encode());
+        }
+
+        private void fail(int status, String message) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            metricsService.stopPostTimer(sample);
+            rc.response()
+                    .putHeader("content-type", "application/json")
+                    .setStatusCode(status)
+                    .end(summary().put("status", "error").put("message", message).encode());
+            parser.resume();
+        }
+
+        private JsonObject summary() {
+            return new JsonObject()
+                    .put("lines", lines)
+                    .put("accepted", accepted)
+                    .put("rejected", rejected)
+                    .put("batches", batches)
+                    .put("errors", errorSamples);
+        }
+    }
+}
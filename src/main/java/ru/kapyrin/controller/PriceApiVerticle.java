@@ -1,32 +1,69 @@
 package ru.kapyrin.controller;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.handler.BodyHandler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RedisConfig;
+import ru.kapyrin.exception.ProductNotFoundException;
 import ru.kapyrin.exception.ApiErrorHandlers;
+import ru.kapyrin.repository.PriceRepository;
 import ru.kapyrin.service.MetricsService;
 import ru.kapyrin.service.PriceAverageCalculator;
+import ru.kapyrin.service.PriceUpdateValidator;
 import ru.kapyrin.service.RawPriceUpdatePublisher;
+import ru.kapyrin.util.AdaptiveConcurrencyLimiter;
+import ru.kapyrin.util.PriceCents;
+import ru.kapyrin.util.ProductIdBloomFilter;
+import ru.kapyrin.util.ReplicaLagMonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 @Slf4j
 @RequiredArgsConstructor
 public class PriceApiVerticle extends AbstractVerticle {
+    private final int instanceIndex;
     private final RawPriceUpdatePublisher rawPriceUpdatePublisher;
     private final PriceAverageCalculator priceAverageCalculator;
     private final PropertiesLoader propertiesLoader;
     private final MetricsService metricsService;
     private final PrometheusMeterRegistry meterRegistry;
+    private final PriceUpdateValidator priceUpdateValidator;
+    private final PriceRepository priceRepository;
+    private final ExecutorService exportExecutor;
+    private final RedisConfig redisConfig;
+    private final ProductIdBloomFilter productIdBloomFilter;
+    private final ReplicaLagMonitor replicaLagMonitor;
+    private final AdaptiveConcurrencyLimiter readLimiter;
+    private ReactiveAveragePriceHandler reactiveAveragePriceHandler;
+    private AveragePriceStreamHandler averagePriceStreamHandler;
 
     @Override
-    public void start() {
+    public void start(Promise<Void> startPromise) {
         Router router = Router.router(vertx);
 
+        Counter instanceRequests = Metrics.counter("http_server_requests_by_instance_total", "instance", String.valueOf(instanceIndex));
+        router.route().handler(rc -> {
+            instanceRequests.increment();
+            rc.next();
+        });
+
         router.get("/health").handler(ctx -> {
             ctx.response().setStatusCode(200).end("{\"status\":\"UP\"}");
         });
@@ -42,6 +79,7 @@ public class PriceApiVerticle extends AbstractVerticle {
         router.errorHandler(400, ApiErrorHandlers::handleBadRequest);
         router.errorHandler(404, ApiErrorHandlers::handleNotFound);
         router.errorHandler(500, ApiErrorHandlers::handleInternalServerError);
+        router.errorHandler(503, ApiErrorHandlers::handleServiceUnavailable);
 
 
         router.post("/price-updates")
@@ -57,6 +95,8 @@ public class PriceApiVerticle extends AbstractVerticle {
                                 .putHeader("content-type", "application/json")
                                 .setStatusCode(202)
                                 .end("{\"status\":\"ok\", \"message\":\"Price updates submitted for processing\"}");
+                    } catch (IllegalArgumentException e) {
+                        rc.fail(400, e);
                     } catch (Exception e) {
                         rc.fail(e);
                     } finally {
@@ -64,49 +104,141 @@ public class PriceApiVerticle extends AbstractVerticle {
                     }
                 }, false);
 
-        router.get("/average-price/:productId")
+        router.post("/price-updates/stream")
+                .handler(new NdjsonPriceUpdateStreamHandler(rawPriceUpdatePublisher, priceUpdateValidator, metricsService, propertiesLoader));
+
+        if (propertiesLoader.getBooleanProperty("push.enabled", true)) {
+            averagePriceStreamHandler = new AveragePriceStreamHandler(vertx, priceAverageCalculator, propertiesLoader);
+            router.get("/average-prices/stream").handler(averagePriceStreamHandler);
+        }
+
+        router.get("/average-prices/export")
+                .handler(new AveragePriceExportHandler(priceRepository, exportExecutor, propertiesLoader));
+
+        int maxBatchProductIds = propertiesLoader.getIntProperty("batch.max.product.ids", 500);
+        router.routeWithRegex(HttpMethod.POST, "/average-prices:batch")
+                .handler(BodyHandler.create().setBodyLimit(64 * 1024L))
                 .handler(rc -> {
-                    Timer.Sample sample = metricsService.startGetTimer();
+                    List<Long> productIds;
                     try {
-                        long productId = Long.parseLong(rc.pathParam("productId"));
-                        log.debug("Received GET /average-price/{}", productId);
-                        priceAverageCalculator.getAveragePriceAsync(productId)
-                                .whenComplete((avgPrice, e) -> {
-                                    metricsService.stopGetTimer(sample);
-                                    if (e == null) {
-                                        JsonObject jsonResponse = new JsonObject()
-                                                .put("product_id", productId)
-                                                .put("average_price", String.format("%.2f", avgPrice));
-                                        rc.response()
-                                                .putHeader("content-type", "application/json")
-                                                .setStatusCode(200)
-                                                .end(jsonResponse.encode());
-                                    } else {
-                                        Throwable cause = e.getCause() != null ? e.getCause() : e;
-                                        if (cause instanceof IllegalStateException && cause.getMessage().contains("Product not found")) {
-                                            rc.fail(404, cause);
-                                        } else {
-                                            rc.fail(cause);
-                                        }
-                                    }
-                                });
-                    } catch (NumberFormatException e) {
-                        log.warn("Invalid product ID format: {}", rc.pathParam("productId"));
-                        metricsService.stopGetTimer(sample);
-                        rc.fail(400, e);
+                        productIds = parseProductIds(rc.body().asString());
+                    } catch (DecodeException | ClassCastException | IllegalArgumentException e) {
+                        rc.fail(400, new IllegalArgumentException("Expected a JSON array of product ids or {\"product_ids\": [...]}"));
+                        return;
                     }
+                    if (productIds.size() > maxBatchProductIds) {
+                        rc.fail(400, new IllegalArgumentException("At most " + maxBatchProductIds + " product ids per request"));
+                        return;
+                    }
+                    log.debug("Received POST /average-prices:batch for {} products", productIds.size());
+                    Future.fromCompletionStage(priceAverageCalculator.getAveragePricesAsync(productIds), context)
+                            .onSuccess(prices -> rc.response()
+                                    .putHeader("content-type", "application/json")
+                                    .setStatusCode(200)
+                                    .end(batchResponse(productIds, prices).encode()))
+                            .onFailure(e -> {
+                                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                                rc.fail(cause instanceof IllegalArgumentException ? 400 : 500, cause);
+                            });
                 });
 
+        if (propertiesLoader.getBooleanProperty("reactive.read.enabled", true)) {
+            reactiveAveragePriceHandler = new ReactiveAveragePriceHandler(vertx, redisConfig, productIdBloomFilter, metricsService,
+                    replicaLagMonitor, readLimiter, propertiesLoader);
+            router.get("/average-price/:productId").handler(reactiveAveragePriceHandler);
+        } else {
+            router.get("/average-price/:productId")
+                    .handler(rc -> {
+                        Timer.Sample sample = metricsService.startGetTimer();
+                        try {
+                            long productId = Long.parseLong(rc.pathParam("productId"));
+                            log.debug("Received GET /average-price/{}", productId);
+                            Future.fromCompletionStage(priceAverageCalculator.getAveragePriceAsync(productId), context)
+                                    .onComplete((avgPrice, e) -> {
+                                        metricsService.stopGetTimer(sample);
+                                        if (e == null) {
+                                            rc.response()
+                                                    .putHeader("content-type", "application/json")
+                                                    .setStatusCode(200)
+                                                    .end(AveragePriceResponse.encode(productId, avgPrice));
+                                        } else {
+                                            Throwable cause = e.getCause() != null ? e.getCause() : e;
+                                            if (cause instanceof ProductNotFoundException) {
+                                                rc.fail(404, cause);
+                                            } else {
+                                                rc.fail(cause);
+                                            }
+                                        }
+                                    });
+                        } catch (NumberFormatException e) {
+                            log.warn("Invalid product ID format: {}", rc.pathParam("productId"));
+                            metricsService.stopGetTimer(sample);
+                            rc.fail(400, e);
+                        }
+                    });
+        }
+
         int port = propertiesLoader.getIntProperty("server.port", 8080);
-        vertx.createHttpServer()
+        vertx.createHttpServer(new HttpServerOptions()
+                        .setDecompressionSupported(true)
+                        .setCompressionSupported(true))
                 .requestHandler(router)
                 .listen(port)
-                .onSuccess(server -> log.info("Vert.x HTTP server started on port {}", server.actualPort()))
-                .onFailure(err -> log.error("Failed to start Vert.x HTTP server: {}", err.getMessage()));
+                .onSuccess(server -> {
+                    log.info("Vert.x HTTP server instance {} started on port {} ({})", instanceIndex, server.actualPort(), Thread.currentThread().getName());
+                    startPromise.complete();
+                })
+                .onFailure(err -> {
+                    log.error("Failed to start Vert.x HTTP server instance {}: {}", instanceIndex, err.getMessage());
+                    startPromise.fail(err);
+                });
+    }
+
+    private static List<Long> parseProductIds(String body) {
+        if (body == null || body.isBlank()) {
+            throw new IllegalArgumentException("Request body cannot be empty");
+        }
+        String trimmed = body.strip();
+        JsonArray ids = trimmed.startsWith("[") ? new JsonArray(trimmed) : new JsonObject(trimmed).getJsonArray("product_ids");
+        if (ids == null) {
+            throw new IllegalArgumentException("product_ids is required");
+        }
+        List<Long> productIds = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Long productId = ids.getLong(i);
+            if (productId == null) {
+                throw new IllegalArgumentException("product_ids must not contain null");
+            }
+            productIds.add(productId);
+        }
+        return productIds;
+    }
+
+    private static JsonObject batchResponse(List<Long> productIds, Map<Long, Long> prices) {
+        JsonArray averagePrices = new JsonArray();
+        JsonArray notFound = new JsonArray();
+        productIds.stream().distinct().forEach(productId -> {
+            Long avgPrice = prices.get(productId);
+            if (avgPrice != null) {
+                averagePrices.add(new JsonObject()
+                        .put("product_id", productId)
+                        .put("average_price", PriceCents.format(avgPrice)));
+            } else {
+                notFound.add(productId);
+            }
+        });
+        return new JsonObject().put("average_prices", averagePrices).put("not_found", notFound);
     }
 
     @Override
     public void stop() {
-        log.info("PriceApiVerticle stopped");
+        if (reactiveAveragePriceHandler != null) {
+            reactiveAveragePriceHandler.close();
+        }
+        if (averagePriceStreamHandler != null) {
+            averagePriceStreamHandler.close();
+        }
+        rawPriceUpdatePublisher.shutdown();
+        log.info("PriceApiVerticle instance {} stopped", instanceIndex);
     }
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+package ru.kapyrin.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.pgclient.PgBuilder;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.sqlclient.ClosedConnectionException;
+import io.vertx.sqlclient.DatabaseException;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowIterator;
+import io.vertx.sqlclient.Tuple;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RedisConfig;
+import ru.kapyrin.exception.DatabaseOverloadedException;
+import ru.kapyrin.exception.ProductNotFoundException;
+import ru.kapyrin.repository.SqlQueries;
+import ru.kapyrin.service.MetricsService;
+import ru.kapyrin.util.AdaptiveConcurrencyLimiter;
+import ru.kapyrin.util.AveragePriceCacheLayout;
+import ru.kapyrin.util.ProductIdBloomFilter;
+import ru.kapyrin.util.ReplicaLagMonitor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+@Slf4j
+public class ReactiveAveragePriceHandler implements Handler<RoutingContext> {
+    private final RedisConfig redisConfig;
+    private final ProductIdBloomFilter productIdBloomFilter;
+    private final MetricsService metricsService;
+    private final ReplicaLagMonitor replicaLagMonitor;
+    private final AdaptiveConcurrencyLimiter readLimiter;
+    private final Redis redis;
+    private final Pool pool;
+    private final Pool replicaPool;
+    private final Map<Long, Future<Long>> inFlightLoads = new HashMap<>();
+    private final Counter cacheHits = Metrics.counter("avg_price_reactive_lookups_total", "source", "cache");
+    private final Counter databaseLoads = Metrics.counter("avg_price_reactive_lookups_total", "source", "database");
+    private final Counter coalescedLoads = Metrics.counter("avg_price_reactive_lookups_total", "source", "coalesced");
+    private final Counter refreshAheadLoads = Metrics.counter("avg_price_cache_refresh_ahead_total");
+    private final Counter notFoundByNegativeCache = Metrics.counter("product_lookup_not_found_total", "source", "negative_cache");
+    private final Counter notFoundByBloomFilter = Metrics.counter("product_lookup_not_found_total", "source", "bloom");
+    private final Counter notFoundByDatabase = Metrics.counter("product_lookup_not_found_total", "source", "database");
+    private final Counter replicaReads = Metrics.counter("avg_price_reactive_db_reads_total", "target", "replica");
+    private final Counter primaryReads = Metrics.counter("avg_price_reactive_db_reads_total", "target", "primary");
+    private final Counter replicaFallbacks = Metrics.counter("avg_price_reactive_replica_fallbacks_total");
+    private double loadTimeEwmaMs;
+
+    public ReactiveAveragePriceHandler(Vertx vertx, RedisConfig redisConfig, ProductIdBloomFilter productIdBloomFilter,
+                                       MetricsService metricsService, ReplicaLagMonitor replicaLagMonitor,
+                                       AdaptiveConcurrencyLimiter readLimiter, PropertiesLoader propertiesLoader) {
+        this.redisConfig = redisConfig;
+        this.productIdBloomFilter = productIdBloomFilter;
+        this.metricsService = metricsService;
+        this.replicaLagMonitor = replicaLagMonitor;
+        this.readLimiter = readLimiter;
+        this.redis = Redis.createClient(vertx, new RedisOptions()
+                .setConnectionString("redis://" + propertiesLoader.getProperty("redis.host", "localhost")
+                        + ":" + propertiesLoader.getIntProperty("redis.port", 6379))
+                .setMaxPoolSize(propertiesLoader.getIntProperty("reactive.redis.pool.size", 8))
+                .setMaxPoolWaiting(propertiesLoader.getIntProperty("reactive.redis.pool.max.waiting", 1024)));
+        PoolOptions poolOptions = new PoolOptions()
+                .setMaxSize(propertiesLoader.getIntProperty("reactive.db.pool.size", 4))
+                .setMaxWaitQueueSize(propertiesLoader.getIntProperty("reactive.db.pool.max.waiting", 1024));
+        this.pool = PgBuilder.pool()
+                .with(poolOptions)
+                .connectingTo(pgConnectOptions(propertiesLoader.getProperty("db.url"),
+                        propertiesLoader.getProperty("db.username"), propertiesLoader.getProperty("db.password")))
+                .using(vertx)
+                .build();
+        String readUrl = propertiesLoader.getProperty("db.read.url");
+        this.replicaPool = readUrl == null || readUrl.isBlank() || replicaLagMonitor == null ? null : PgBuilder.pool()
+                .with(poolOptions)
+                .connectingTo(pgConnectOptions(readUrl,
+                        propertiesLoader.getProperty("db.read.username", propertiesLoader.getProperty("db.username")),
+                        propertiesLoader.getProperty("db.read.password", propertiesLoader.getProperty("db.password"))))
+                .using(vertx)
+                .build();
+    }
+
+    static PgConnectOptions pgConnectOptions(String url, String user, String password) {
+        int query = url.indexOf('?');
+        return PgConnectOptions.fromUri((query >= 0 ? url.substring(0, query) : url).replaceFirst("^jdbc:", ""))
+                .setUser(user)
+                .setPassword(password)
+                .setCachePreparedStatements(true);
+    }
+
+    @Override
+    public void handle(RoutingContext rc) {
+        metricsService.recordGetRequest();
+        Timer.Sample sample = metricsService.startGetTimer();
+        long productId;
+        try {
+            productId = Long.parseLong(rc.pathParam("productId"));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid product ID format: {}", rc.pathParam("productId"));
+            metricsService.stopGetTimer(sample);
+            rc.fail(400, e);
+            return;
+        }
+        if (productId <= 0) {
+            metricsService.recordGetError();
+            metricsService.stopGetTimer(sample);
+            rc.fail(400, new IllegalArgumentException("Invalid product ID: " + productId));
+            return;
+        }
+        if (productIdBloomFilter != null && !productIdBloomFilter.mightContain(productId)) {
+            notFoundByBloomFilter.increment();
+            metricsService.stopGetTimer(sample);
+            rc.fail(404, new ProductNotFoundException("Product not found or no average price"));
+            return;
+        }
+        lookup(productId).onComplete(ar -> {
+            metricsService.stopGetTimer(sample);
+            if (ar.succeeded() && ar.result() != null) {
+                rc.response()
+                        .putHeader("content-type", "application/json")
+                        .setStatusCode(200)
+                        .end(AveragePriceResponse.encode(productId, ar.result()));
+            } else if (ar.succeeded()) {
+                rc.fail(404, new ProductNotFoundException("Product not found or no average price"));
+            } else {
+                log.error("Error getting average price for product_id={}: {}", productId, ar.cause().getMessage());
+                metricsService.recordGetError();
+                rc.fail(ar.cause());
+            }
+        });
+    }
+
+    private Future<Long> lookup(long productId) {
+        if (!redisConfig.isRedisAvailable()) {
+            return loadCoalesced(productId);
+        }
+        AveragePriceCacheLayout layout = redisConfig.getCacheLayout();
+        String key = layout.key(productId);
+        Request get = layout.isBucketed()
+                ? Request.cmd(Command.HGET).arg(key).arg(layout.field(productId))
+                : Request.cmd(Command.GET).arg(key);
+        return redis.batch(List.of(get, Request.cmd(Command.PTTL).arg(key)))
+                .recover(e -> {
+                    log.error("Error accessing Redis cache for product_id={}: {}", productId, e.getMessage());
+                    return Future.succeededFuture();
+                })
+                .compose(responses -> {
+                    Response cached = responses == null ? null : responses.get(0);
+                    if (cached == null) {
+                        return loadCoalesced(productId);
+                    }
+                    String value = cached.toString();
+                    if (layout.isNotFound(value)) {
+                        notFoundByNegativeCache.increment();
+                        return Future.succeededFuture();
+                    }
+                    cacheHits.increment();
+                    Response ttlMs = responses.get(1);
+                    if (ttlMs != null && shouldRefreshAhead(ttlMs.toLong())) {
+                        refreshAheadLoads.increment();
+                        loadCoalesced(productId).onFailure(e ->
+                                log.debug("Refresh ahead failed for product_id={}: {}", productId, e.getMessage()));
+                    }
+                    return Future.succeededFuture(layout.decode(value));
+                });
+    }
+
+    private boolean shouldRefreshAhead(long ttlMs) {
+        if (ttlMs < 0 || redisConfig.getCacheRefreshBeta() == 0.0) {
+            return false;
+        }
+        double recomputeMs = Math.max(loadTimeEwmaMs, redisConfig.getCacheRefreshMinWindowMs());
+        return -recomputeMs * redisConfig.getCacheRefreshBeta() * Math.log(ThreadLocalRandom.current().nextDouble()) >= ttlMs;
+    }
+
+    private Future<Long> loadCoalesced(long productId) {
+        Future<Long> existing = inFlightLoads.get(productId);
+        if (existing != null) {
+            coalescedLoads.increment();
+            return existing;
+        }
+        databaseLoads.increment();
+        long startedNanos = System.nanoTime();
+        Future<Long> load;
+        try {
+            load = readLimiter == null
+                    ? loadAveragePrice(productId)
+                    : Future.fromCompletionStage(readLimiter.executeAsync(
+                            () -> loadAveragePrice(productId).toCompletionStage(), ReactiveAveragePriceHandler::isConnectionFailure),
+                            Vertx.currentContext());
+        } catch (DatabaseOverloadedException e) {
+            return Future.failedFuture(e);
+        }
+        load = load
+                .andThen(ar -> {
+                    inFlightLoads.remove(productId);
+                    double loadMs = (System.nanoTime() - startedNanos) / 1_000_000.0;
+                    loadTimeEwmaMs = loadTimeEwmaMs == 0.0 ? loadMs : loadTimeEwmaMs * 0.9 + loadMs * 0.1;
+                    if (ar.succeeded()) {
+                        writeCache(productId, ar.result());
+                    }
+                });
+        if (!load.isComplete()) {
+            inFlightLoads.put(productId, load);
+        }
+        return load;
+    }
+
+    private Future<Long> loadAveragePrice(long productId) {
+        if (replicaPool == null || !replicaLagMonitor.isReplicaUsable()) {
+            primaryReads.increment();
+            return queryAveragePrice(pool, productId);
+        }
+        replicaReads.increment();
+        return queryAveragePrice(replicaPool, productId).recover(e -> {
+            if (!isConnectionFailure(e)) {
+                return Future.failedFuture(e);
+            }
+            log.warn("Reactive replica read failed, falling back to primary: {}", e.getMessage());
+            replicaLagMonitor.markUnavailable();
+            replicaFallbacks.increment();
+            primaryReads.increment();
+            return queryAveragePrice(pool, productId);
+        });
+    }
+
+    private static Future<Long> queryAveragePrice(Pool pool, long productId) {
+        return pool.preparedQuery(SqlQueries.GET_STORED_AVG_PRICE_PG)
+                .execute(Tuple.of(productId))
+                .map(rows -> {
+                    RowIterator<Row> iterator = rows.iterator();
+                    return iterator.hasNext() ? iterator.next().getLong("avg_price_cents") : null;
+                });
+    }
+
+    static boolean isConnectionFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof ClosedConnectionException || cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof DatabaseException databaseException && databaseException.getSqlState() != null) {
+                String sqlState = databaseException.getSqlState();
+                if (sqlState.startsWith("08") || sqlState.startsWith("53") || sqlState.startsWith("57P")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeCache(long productId, Long averagePriceCents) {
+        if (averagePriceCents == null) {
+            notFoundByDatabase.increment();
+        }
+        if (!redisConfig.isRedisAvailable()) {
+            return;
+        }
+        AveragePriceCacheLayout layout = redisConfig.getCacheLayout();
+        String key = layout.key(productId);
+        List<Request> requests;
+        if (averagePriceCents != null && layout.isBucketed()) {
+            requests = List.of(Request.cmd(Command.HSET).arg(key).arg(layout.field(productId)).arg(layout.encode(averagePriceCents)),
+                    Request.cmd(Command.EXPIRE).arg(key).arg(redisConfig.jitteredCacheExpireSeconds()));
+        } else if (averagePriceCents != null) {
+            requests = List.of(Request.cmd(Command.SETEX).arg(key)
+                    .arg(redisConfig.jitteredCacheExpireSeconds()).arg(layout.encode(averagePriceCents)));
+        } else if (redisConfig.getNegativeCacheExpireSeconds() <= 0 || layout.isBucketed()) {
+            return;
+        } else {
+            requests = List.of(Request.cmd(Command.SET).arg(key).arg(layout.notFoundMarker())
+                    .arg("NX").arg("EX").arg(redisConfig.getNegativeCacheExpireSeconds()));
+        }
+        redis.batch(requests).onFailure(e ->
+                log.error("Error updating Redis cache for product_id={}: {}", productId, e.getMessage()));
+    }
+
+    public Future<Void> close() {
+        return Future.all(pool.close(), replicaPool != null ? replicaPool.close() : Future.succeededFuture(), redis.close()).mapEmpty();
+    }
+}
@@ -29,8 +29,26 @@ public class ApiErrorHandlers {
                 .end(new JsonObject().put("status", "error").put("message", errorMessage).encode());
     }
 
+    public static void handleServiceUnavailable(RoutingContext rc) {
+        Throwable failure = rc.failure();
+        String errorMessage = "Service Unavailable: " + (failure != null ? failure.getMessage() : "Try again later.");
+        log.warn("Handling 503 Service Unavailable for path {}: {}", rc.request().path(), errorMessage);
+
+        rc.response()
+                .putHeader("content-type", "application/json")
+                .putHeader("retry-after", "1")
+                .setStatusCode(503)
+                .end(new JsonObject().put("status", "error").put("message", errorMessage).encode());
+    }
+
     public static void handleInternalServerError(RoutingContext rc) {
         Throwable failure = rc.failure();
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof DatabaseOverloadedException) {
+                handleServiceUnavailable(rc);
+                return;
+            }
+        }
         String errorMessage = "Internal Server Error: " + (failure != null ? failure.getMessage() : "An unexpected error occurred.");
         log.error("Handling 500 Internal Server Error for path {}: {}", rc.request().path(), errorMessage, failure);
 
@@ -0,0 +1,7 @@
+package ru.kapyrin.exception;
+
+public class DatabaseOverloadedException extends PriceUpdateException {
+    public DatabaseOverloadedException(String message) {
+        super(message);
+    }
+}
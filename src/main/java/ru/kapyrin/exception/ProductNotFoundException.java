@@ -0,0 +1,7 @@
+package ru.kapyrin.exception;
+
+public class ProductNotFoundException extends RuntimeException {
+    public ProductNotFoundException(String message) {
+        super(message);
+    }
+}
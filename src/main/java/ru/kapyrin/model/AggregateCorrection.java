@@ -0,0 +1,9 @@
+package ru.kapyrin.model;
+
+public record AggregateCorrection(
+        long productId,
+        Long averagePriceCents,
+        long sumDriftCents,
+        long countDrift
+) {
+}
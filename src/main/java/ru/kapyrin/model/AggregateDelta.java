@@ -0,0 +1,8 @@
+package ru.kapyrin.model;
+
+public record AggregateDelta(
+        long productId,
+        long deltaSumCents,
+        long deltaCount
+) {
+}
@@ -0,0 +1,9 @@
+package ru.kapyrin.model;
+
+public record AveragePriceChangedEvent(
+        long outboxId,
+        long productId,
+        long averagePriceCents,
+        long ageMs
+) {
+}
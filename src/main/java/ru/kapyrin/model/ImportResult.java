@@ -0,0 +1,10 @@
+package ru.kapyrin.model;
+
+public record ImportResult(
+        long rowsLoaded,
+        long rowsRejected,
+        long pricesMerged,
+        long productsMerged,
+        long elapsedMs
+) {
+}
@@ -1,9 +1,15 @@
 package ru.kapyrin.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import ru.kapyrin.util.PriceCents;
 
 public record PriceUpdate(
         @JsonProperty("product_id") long productId,
         @JsonProperty("manufacturer_name") String manufacturerName,
-        double price) {
-}
\ No newline at end of file
+        @JsonProperty("price")
+        @JsonSerialize(using = PriceCents.Serializer.class)
+        @JsonDeserialize(using = PriceCents.Deserializer.class)
+        long priceCents) {
+}
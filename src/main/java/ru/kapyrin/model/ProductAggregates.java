@@ -1,7 +1,7 @@
 package ru.kapyrin.model;
 
-public record ProductAggregates(Double totalSumPrices, Long offerCount) {
+public record ProductAggregates(Long totalSumCents, Long offerCount) {
     public static ProductAggregates empty() {
-        return new ProductAggregates(0.0, 0L);
+        return new ProductAggregates(0L, 0L);
     }
 }
@@ -2,11 +2,11 @@ package ru.kapyrin.model;
 
 public record ProductAggregatesData(
         Long productId,
-        Double averagePrice,
-        Double totalSumPrices,
+        Long averagePriceCents,
+        Long totalSumCents,
         Long offerCount
 ) {
     public static ProductAggregatesData empty(Long productId) {
-        return new ProductAggregatesData(productId, null, 0.0, 0L);
+        return new ProductAggregatesData(productId, null, 0L, 0L);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package ru.kapyrin.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+public record ProductAveragePrice(
+        long productId,
+        BigDecimal averagePrice,
+        long offerCount,
+        Instant updatedAt
+) {
+}
@@ -0,0 +1,4 @@
+package ru.kapyrin.model;
+
+public record ProductIdRange(long minProductId, long maxProductId) {
+}
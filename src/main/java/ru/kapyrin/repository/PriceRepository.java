@@ -1,26 +1,72 @@
 package ru.kapyrin.repository;
 
 import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.AggregateCorrection;
+import ru.kapyrin.model.AggregateDelta;
 import ru.kapyrin.model.PriceUpdate;
 import ru.kapyrin.model.ProductAggregatesData;
+import ru.kapyrin.model.ProductAveragePrice;
+import ru.kapyrin.model.ProductIdRange;
 
 import java.sql.Connection;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 public interface PriceRepository {
 
     <T> T executeInTransaction(Function<Connection, T> task) throws PriceUpdateException;
 
-    void upsertProduct(Connection connection, Long productId, String productName) throws PriceUpdateException;
+    boolean upsertProduct(Connection connection, Long productId, String productName) throws PriceUpdateException;
 
-    Double getOldPriceForVendorProduct(Connection connection, Long productId, String manufacturerName) throws PriceUpdateException;
+    Map<String, Integer> resolveManufacturerIds(Collection<String> manufacturerNames) throws PriceUpdateException;
 
-    void upsertPrice(Connection connection, PriceUpdate update) throws PriceUpdateException;
+    Long getOldPriceForVendorProduct(Connection connection, Long productId, int manufacturerId) throws PriceUpdateException;
+
+    void upsertPrice(Connection connection, PriceUpdate update, int manufacturerId) throws PriceUpdateException;
+
+    boolean updatePriceIfUnchanged(Connection connection, PriceUpdate update, int manufacturerId, long expectedOldPriceCents) throws PriceUpdateException;
 
     Optional<ProductAggregatesData> getAggregatesData(Connection connection, Long productId) throws PriceUpdateException;
 
-    Double updateAggregatesAtomically(Connection connection, long productId, double initialAvgPrice, double deltaSum, long deltaCount) throws PriceUpdateException;
+    Long updateAggregatesAtomically(Connection connection, long productId, long initialAvgPriceCents, long deltaSumCents, long deltaCount) throws PriceUpdateException;
+
+    Map<Long, Long> applyAggregateDeltas(Connection connection, List<AggregateDelta> deltas) throws PriceUpdateException;
+
+    Long updateAggregateStripe(Connection connection, long productId, int stripe, long deltaSumCents, long deltaCount) throws PriceUpdateException;
+
+    Map<Long, Long> markAggregatesDirty(Connection connection, Collection<Long> productIds) throws PriceUpdateException;
+
+    void clearAggregateDirtyMarks(Connection connection, Collection<Long> markIds) throws PriceUpdateException;
+
+    Map<Long, Long> getDirtyAggregateProducts(long minAgeSeconds, int limit) throws PriceUpdateException;
+
+    void clearDirtyAggregateProducts(Map<Long, Long> maxMarkIds) throws PriceUpdateException;
+
+    Map<Long, Integer> getStripedProducts() throws PriceUpdateException;
+
+    void markProductsStriped(Collection<Long> productIds, int stripes) throws PriceUpdateException;
+
+    List<Long> expireStripedProducts(long idleSeconds) throws PriceUpdateException;
+
+    List<Long> getProductsWithStripes() throws PriceUpdateException;
+
+    boolean compactAggregateStripes(long productId) throws PriceUpdateException;
+
+    Long getStoredAveragePrice(Long productId) throws PriceUpdateException;
+
+    Map<Long, Long> getStoredAveragePrices(Collection<Long> productIds) throws PriceUpdateException;
+
+    Optional<ProductIdRange> getProductIdRange() throws PriceUpdateException;
+
+    void streamProductIds(int fetchSize, LongConsumer consumer) throws PriceUpdateException;
+
+    List<AggregateCorrection> reconcileAggregates(long fromProductId, long toProductId) throws PriceUpdateException;
 
-    Double getStoredAveragePrice(Long productId) throws PriceUpdateException;
+    void streamAveragePrices(Instant updatedSince, int fetchSize, Consumer<ProductAveragePrice> consumer) throws PriceUpdateException;
 }
\ No newline at end of file
@@ -5,9 +5,9 @@ public class SqlQueries {
     }
 
     public static final String UPSERT_PRICE = """
-        INSERT INTO product_price (product_id, manufacturer_name, price, updated_at)
-        VALUES (?, ?, ?, CURRENT_TIMESTAMP)
-        ON CONFLICT (product_id, manufacturer_name)
+        INSERT INTO product_price (product_id, manufacturer_id, price, updated_at)
+        VALUES (?, ?, ? / 100.0, CURRENT_TIMESTAMP)
+        ON CONFLICT (product_id, manufacturer_id)
         DO UPDATE SET price = EXCLUDED.price, updated_at = CURRENT_TIMESTAMP
         """;
 
@@ -29,29 +29,556 @@ public class SqlQueries {
         """;
 
     public static final String GET_STORED_AVG_PRICE = """
-            SELECT avg_price FROM product_avg_price WHERE product_id = ?;
+            SELECT (avg_price * 100)::bigint AS avg_price_cents FROM product_avg_price_merged WHERE product_id = ?;
+            """;
+
+    public static final String GET_STORED_AVG_PRICE_PG = """
+            SELECT (avg_price * 100)::bigint AS avg_price_cents FROM product_avg_price_merged WHERE product_id = $1
+            """;
+
+    public static final String GET_STORED_AVG_PRICES = """
+            SELECT product_id, (avg_price * 100)::bigint AS avg_price_cents FROM product_avg_price_merged WHERE product_id = ANY(?)
+            """;
+
+    public static final String UPDATE_PRICE_IF_UNCHANGED = """
+            UPDATE product_price
+            SET price = ? / 100.0, updated_at = CURRENT_TIMESTAMP
+            WHERE product_id = ? AND manufacturer_id = ? AND price = ? / 100.0
+            """;
+
+    public static final String RESOLVE_MANUFACTURER_IDS = """
+            WITH input AS (
+                SELECT DISTINCT name FROM unnest(?::varchar[]) AS names(name)
+            ),
+            inserted AS (
+                INSERT INTO manufacturers (name)
+                SELECT name FROM input
+                WHERE NOT EXISTS (SELECT 1 FROM manufacturers m WHERE m.name = input.name)
+                ORDER BY name
+                ON CONFLICT (name) DO NOTHING
+                RETURNING manufacturer_id, name
+            )
+            SELECT manufacturer_id, name FROM inserted
+            UNION ALL
+            SELECT m.manufacturer_id, m.name FROM manufacturers m JOIN input ON input.name = m.name
             """;
 
     public static final String SELECT_OLD_PRICE_FOR_VENDOR_PRODUCT = """
-            SELECT price FROM product_price WHERE product_id = ? AND manufacturer_name = ?
+            SELECT (price * 100)::bigint AS price_cents FROM product_price WHERE product_id = ? AND manufacturer_id = ?
             """;
 
 
     public static final String SELECT_AGGREGATES_DATA = """
-            SELECT product_id, avg_price, total_sum_prices, offer_count FROM product_avg_price WHERE product_id = ?
+            SELECT product_id, (avg_price * 100)::bigint AS avg_price_cents, (total_sum_prices * 100)::bigint AS total_sum_cents, offer_count
+            FROM product_avg_price WHERE product_id = ?
             """;
     public static final String ATOMIC_UPDATE_AGGREGATES = """
-            INSERT INTO product_avg_price (product_id, avg_price, total_sum_prices, offer_count)
-            VALUES (?, ?, ?, ?)
-            ON CONFLICT (product_id)
+            WITH updated AS (
+                INSERT INTO product_avg_price (product_id, avg_price, total_sum_prices, offer_count)
+                VALUES (?, ? / 100.0, ? / 100.0, ?)
+                ON CONFLICT (product_id)
+                DO UPDATE SET
+                    total_sum_prices = product_avg_price.total_sum_prices + EXCLUDED.total_sum_prices,
+                    offer_count = product_avg_price.offer_count + EXCLUDED.offer_count,
+                    avg_price = CASE
+                                    WHEN (product_avg_price.offer_count + EXCLUDED.offer_count) = 0 THEN 0
+                                    ELSE (product_avg_price.total_sum_prices + EXCLUDED.total_sum_prices) / (product_avg_price.offer_count + EXCLUDED.offer_count)
+                                END,
+                    updated_at = CURRENT_TIMESTAMP
+                RETURNING product_id, avg_price, total_sum_prices, offer_count
+            ),
+            merged AS (
+                SELECT u.product_id,
+                       (CASE
+                            WHEN s.product_id IS NULL THEN u.avg_price
+                            WHEN u.offer_count + s.offer_count = 0 THEN 0
+                            ELSE ROUND((u.total_sum_prices + s.total_sum_prices) / (u.offer_count + s.offer_count), 2)
+                        END::DECIMAL(10,2) * 100)::bigint AS avg_price_cents
+                FROM updated u
+                LEFT JOIN (
+                    SELECT product_id, SUM(total_sum_prices) AS total_sum_prices, SUM(offer_count) AS offer_count
+                    FROM product_avg_price_stripe
+                    WHERE product_id IN (SELECT product_id FROM updated)
+                    GROUP BY product_id
+                ) s ON s.product_id = u.product_id
+            ),
+            outbox AS (
+                INSERT INTO average_price_outbox (product_id, avg_price_cents)
+                SELECT product_id, avg_price_cents FROM merged WHERE ?::boolean
+            )
+            SELECT avg_price_cents FROM merged
+            """;
+
+    public static final String APPLY_AGGREGATE_DELTAS = """
+            WITH updated AS (
+                INSERT INTO product_avg_price (product_id, avg_price, total_sum_prices, offer_count)
+                SELECT d.product_id,
+                       CASE WHEN d.offer_count > 0 THEN d.total_sum_cents / 100.0 / d.offer_count ELSE 0 END,
+                       d.total_sum_cents / 100.0,
+                       d.offer_count
+                FROM unnest(?::bigint[], ?::bigint[], ?::bigint[]) AS d(product_id, total_sum_cents, offer_count)
+                ORDER BY d.product_id
+                ON CONFLICT (product_id)
+                DO UPDATE SET
+                    total_sum_prices = product_avg_price.total_sum_prices + EXCLUDED.total_sum_prices,
+                    offer_count = product_avg_price.offer_count + EXCLUDED.offer_count,
+                    avg_price = CASE
+                                    WHEN (product_avg_price.offer_count + EXCLUDED.offer_count) = 0 THEN 0
+                                    ELSE (product_avg_price.total_sum_prices + EXCLUDED.total_sum_prices) / (product_avg_price.offer_count + EXCLUDED.offer_count)
+                                END,
+                    updated_at = CURRENT_TIMESTAMP
+                RETURNING product_id, avg_price, total_sum_prices, offer_count
+            ),
+            merged AS (
+                SELECT u.product_id,
+                       (CASE
+                            WHEN s.product_id IS NULL THEN u.avg_price
+                            WHEN u.offer_count + s.offer_count = 0 THEN 0
+                            ELSE ROUND((u.total_sum_prices + s.total_sum_prices) / (u.offer_count + s.offer_count), 2)
+                        END::DECIMAL(10,2) * 100)::bigint AS avg_price_cents
+                FROM updated u
+                LEFT JOIN (
+                    SELECT product_id, SUM(total_sum_prices) AS total_sum_prices, SUM(offer_count) AS offer_count
+                    FROM product_avg_price_stripe
+                    WHERE product_id IN (SELECT product_id FROM updated)
+                    GROUP BY product_id
+                ) s ON s.product_id = u.product_id
+            ),
+            outbox AS (
+                INSERT INTO average_price_outbox (product_id, avg_price_cents)
+                SELECT product_id, avg_price_cents FROM merged WHERE ?::boolean
+            )
+            SELECT product_id, avg_price_cents FROM merged
+            """;
+
+    public static final String UPSERT_AGGREGATE_STRIPE = """
+            WITH base AS (
+                INSERT INTO product_avg_price (product_id, avg_price, total_sum_prices, offer_count)
+                VALUES (?, 0, 0, 0)
+                ON CONFLICT (product_id) DO NOTHING
+            )
+            INSERT INTO product_avg_price_stripe (product_id, stripe, total_sum_prices, offer_count, updated_at)
+            VALUES (?, ?, ? / 100.0, ?, CURRENT_TIMESTAMP)
+            ON CONFLICT (product_id, stripe)
             DO UPDATE SET
-                total_sum_prices = product_avg_price.total_sum_prices + EXCLUDED.total_sum_prices,
-                offer_count = product_avg_price.offer_count + EXCLUDED.offer_count,
+                total_sum_prices = product_avg_price_stripe.total_sum_prices + EXCLUDED.total_sum_prices,
+                offer_count = product_avg_price_stripe.offer_count + EXCLUDED.offer_count,
+                updated_at = CURRENT_TIMESTAMP
+            """;
+
+    public static final String INSERT_AVERAGE_PRICE_OUTBOX = """
+            INSERT INTO average_price_outbox (product_id, avg_price_cents) VALUES (?, ?)
+            """;
+
+    public static final String CLAIM_AVERAGE_PRICE_OUTBOX = """
+            DELETE FROM average_price_outbox
+            WHERE id IN (SELECT id FROM average_price_outbox ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED)
+            RETURNING id, product_id, avg_price_cents,
+                      (EXTRACT(EPOCH FROM (CURRENT_TIMESTAMP - created_at)) * 1000)::bigint AS age_ms
+            """;
+
+    public static final String SELECT_AVERAGE_PRICE_OUTBOX_LAG_MS = """
+            SELECT COALESCE((SELECT (EXTRACT(EPOCH FROM (CURRENT_TIMESTAMP - created_at)) * 1000)::bigint
+                             FROM average_price_outbox ORDER BY id LIMIT 1), 0) AS lag_ms
+            """;
+
+    public static final String MARK_AGGREGATES_DIRTY = """
+            INSERT INTO aggregate_dirty_product (product_id)
+            SELECT product_id FROM unnest(?::bigint[]) AS d(product_id)
+            RETURNING id, product_id
+            """;
+
+    public static final String CLEAR_AGGREGATE_DIRTY_MARKS = """
+            DELETE FROM aggregate_dirty_product WHERE id = ANY(?::bigint[])
+            """;
+
+    public static final String SELECT_DIRTY_AGGREGATE_PRODUCTS = """
+            SELECT product_id, MAX(id) AS max_mark_id
+            FROM aggregate_dirty_product
+            WHERE marked_at < CURRENT_TIMESTAMP - make_interval(secs => ?)
+            GROUP BY product_id
+            ORDER BY product_id
+            LIMIT ?
+            """;
+
+    public static final String CLEAR_DIRTY_AGGREGATE_PRODUCTS = """
+            DELETE FROM aggregate_dirty_product d
+            USING unnest(?::bigint[], ?::bigint[]) AS c(product_id, max_mark_id)
+            WHERE d.product_id = c.product_id AND d.id <= c.max_mark_id
+            """;
+
+    public static final String SELECT_STRIPED_PRODUCTS = """
+            SELECT product_id, stripes FROM product_aggregate_striping
+            """;
+
+    public static final String MARK_PRODUCTS_STRIPED = """
+            INSERT INTO product_aggregate_striping (product_id, stripes, enabled_at, last_hot_at)
+            SELECT product_id, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+            FROM unnest(?::bigint[]) AS hot(product_id)
+            ORDER BY product_id
+            ON CONFLICT (product_id)
+            DO UPDATE SET last_hot_at = CURRENT_TIMESTAMP
+            """;
+
+    public static final String EXPIRE_STRIPED_PRODUCTS = """
+            DELETE FROM product_aggregate_striping
+            WHERE last_hot_at < CURRENT_TIMESTAMP - make_interval(secs => ?)
+            RETURNING product_id
+            """;
+
+    public static final String SELECT_PRODUCTS_WITH_STRIPES = """
+            SELECT DISTINCT product_id FROM product_avg_price_stripe
+            """;
+
+    public static final String COMPACT_AGGREGATE_STRIPES = """
+            WITH folded AS (
+                DELETE FROM product_avg_price_stripe
+                WHERE product_id = ?
+                RETURNING product_id, total_sum_prices, offer_count
+            ),
+            merged AS (
+                SELECT product_id, SUM(total_sum_prices) AS total_sum_prices, SUM(offer_count) AS offer_count
+                FROM folded
+                GROUP BY product_id
+            )
+            UPDATE product_avg_price a
+            SET total_sum_prices = a.total_sum_prices + m.total_sum_prices,
+                offer_count = a.offer_count + m.offer_count,
                 avg_price = CASE
-                                WHEN (product_avg_price.offer_count + EXCLUDED.offer_count) = 0 THEN 0
-                                ELSE (product_avg_price.total_sum_prices + EXCLUDED.total_sum_prices) / (product_avg_price.offer_count + EXCLUDED.offer_count)
-                            END
-            RETURNING avg_price
+                                WHEN (a.offer_count + m.offer_count) = 0 THEN 0
+                                ELSE (a.total_sum_prices + m.total_sum_prices) / (a.offer_count + m.offer_count)
+                            END,
+                updated_at = CURRENT_TIMESTAMP
+            FROM merged m
+            WHERE a.product_id = m.product_id
+            """;
+
+    public static final String SELECT_ALL_PRODUCT_IDS = """
+            SELECT product_id FROM products
+            """;
+
+    public static final String SELECT_PRODUCT_ID_RANGE = """
+            SELECT MIN(product_id) AS min_product_id, MAX(product_id) AS max_product_id FROM products
+            """;
+
+    public static final String RECONCILE_AGGREGATES_RANGE = """
+            WITH actual AS (
+                SELECT product_id, SUM(price) AS total_sum_prices, COUNT(*) AS offer_count
+                FROM product_price
+                WHERE product_id BETWEEN ? AND ?
+                GROUP BY product_id
+            ),
+            stripes AS (
+                SELECT product_id, SUM(total_sum_prices) AS total_sum_prices, SUM(offer_count) AS offer_count
+                FROM product_avg_price_stripe
+                WHERE product_id BETWEEN ? AND ?
+                GROUP BY product_id
+            ),
+            expected AS (
+                SELECT a.product_id,
+                       a.total_sum_prices AS stored_sum,
+                       a.offer_count AS stored_count,
+                       COALESCE(stripes.total_sum_prices, 0) AS stripe_sum,
+                       COALESCE(stripes.offer_count, 0) AS stripe_count,
+                       COALESCE(actual.total_sum_prices, 0) AS total_sum_prices,
+                       COALESCE(actual.offer_count, 0) AS offer_count
+                FROM product_avg_price a
+                LEFT JOIN actual ON actual.product_id = a.product_id
+                LEFT JOIN stripes ON stripes.product_id = a.product_id
+                WHERE a.product_id BETWEEN ? AND ?
+            )
+            UPDATE product_avg_price p
+            SET total_sum_prices = e.total_sum_prices - e.stripe_sum,
+                offer_count = e.offer_count - e.stripe_count,
+                avg_price = CASE
+                                WHEN e.offer_count = 0 THEN 0
+                                ELSE e.total_sum_prices / e.offer_count
+                            END,
+                updated_at = CURRENT_TIMESTAMP
+            FROM expected e
+            WHERE p.product_id = e.product_id
+              AND p.total_sum_prices IS NOT DISTINCT FROM e.stored_sum
+              AND p.offer_count IS NOT DISTINCT FROM e.stored_count
+              AND ((e.stored_sum + e.stripe_sum) IS DISTINCT FROM e.total_sum_prices
+                   OR (e.stored_count + e.stripe_count) IS DISTINCT FROM e.offer_count)
+            RETURNING p.product_id,
+                      (p.avg_price * 100)::bigint AS avg_price_cents,
+                      ((e.total_sum_prices - COALESCE(e.stored_sum, 0) - e.stripe_sum) * 100)::bigint AS sum_drift_cents,
+                      e.offer_count - COALESCE(e.stored_count, 0) - e.stripe_count AS count_drift
+            """;
+
+    public static final String INSERT_MISSING_AGGREGATES_RANGE = """
+            WITH actual AS (
+                SELECT p.product_id, SUM(p.price) AS total_sum_prices, COUNT(*) AS offer_count
+                FROM product_price p
+                WHERE p.product_id BETWEEN ? AND ?
+                  AND NOT EXISTS (SELECT 1 FROM product_avg_price a WHERE a.product_id = p.product_id)
+                GROUP BY p.product_id
+            )
+            INSERT INTO product_avg_price (product_id, avg_price, total_sum_prices, offer_count)
+            SELECT product_id, total_sum_prices / offer_count, total_sum_prices, offer_count
+            FROM actual
+            ORDER BY product_id
+            ON CONFLICT (product_id) DO NOTHING
+            RETURNING product_id,
+                      (avg_price * 100)::bigint AS avg_price_cents,
+                      (total_sum_prices * 100)::bigint AS sum_drift_cents,
+                      offer_count AS count_drift
+            """;
+
+    public static final String SELECT_REPLICA_LAG_MS = """
+            SELECT CASE
+                       WHEN NOT pg_is_in_recovery() THEN 0
+                       WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                       ELSE COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000, 0)
+                   END AS lag_ms
+            """;
+
+    public static final String SELECT_PRICE_PARTITION_PARENT = """
+            SELECT COALESCE(to_regclass('product_price_partitioned'), to_regclass('product_price'))::oid AS parent_oid,
+                   (SELECT COUNT(*) FROM pg_inherits
+                    WHERE inhparent = COALESCE(to_regclass('product_price_partitioned'), to_regclass('product_price'))) AS partition_count,
+                   EXISTS (SELECT 1 FROM pg_partitioned_table
+                           WHERE partrelid = COALESCE(to_regclass('product_price_partitioned'), to_regclass('product_price'))) AS partitioned
+            """;
+
+    public static final String CHECK_HASH_PARTITION = """
+            SELECT satisfies_hash_partition(?::oid, ?, ?, ?::bigint) AS matches
+            """;
+
+    public static final String SELECT_PARTITION_MIGRATION_PENDING = """
+            SELECT to_regclass('product_price_partitioned') IS NOT NULL
+               AND to_regclass('product_avg_price_partitioned') IS NOT NULL AS pending
+            """;
+
+    public static final String COPY_PRICE_CHUNK_TO_PARTITIONED = """
+            INSERT INTO product_price_partitioned (product_id, manufacturer_id, price, updated_at)
+            SELECT product_id, manufacturer_id, price, updated_at
+            FROM product_price
+            WHERE product_id BETWEEN ? AND ?
+            ON CONFLICT (product_id, manufacturer_id) DO NOTHING
+            """;
+
+    public static final String COPY_AVG_PRICE_CHUNK_TO_PARTITIONED = """
+            INSERT INTO product_avg_price_partitioned (product_id, avg_price, total_sum_prices, offer_count, updated_at)
+            SELECT product_id, avg_price, total_sum_prices, offer_count, updated_at
+            FROM product_avg_price
+            WHERE product_id BETWEEN ? AND ?
+            ON CONFLICT (product_id) DO NOTHING
+            """;
+
+    public static final String CREATE_AVG_PRICE_MERGED_VIEW = """
+            CREATE OR REPLACE VIEW product_avg_price_merged AS
+            SELECT a.product_id,
+                   CASE
+                       WHEN s.product_id IS NULL THEN a.avg_price
+                       WHEN a.offer_count + s.offer_count = 0 THEN 0
+                       ELSE ROUND((a.total_sum_prices + s.total_sum_prices) / (a.offer_count + s.offer_count), 2)
+                   END::DECIMAL(10,2) AS avg_price,
+                   a.total_sum_prices + COALESCE(s.total_sum_prices, 0) AS total_sum_prices,
+                   a.offer_count + COALESCE(s.offer_count, 0) AS offer_count,
+                   GREATEST(a.updated_at, s.updated_at) AS updated_at
+            FROM product_avg_price a
+            LEFT JOIN (
+                SELECT product_id, SUM(total_sum_prices) AS total_sum_prices, SUM(offer_count) AS offer_count, MAX(updated_at) AS updated_at
+                FROM product_avg_price_stripe
+                GROUP BY product_id
+            ) s ON s.product_id = a.product_id
+            """;
+
+    public static final String[] SWAP_PARTITIONED_TABLES = {
+            "SET LOCAL lock_timeout = '10s'",
+            "LOCK TABLE product_price, product_avg_price IN ACCESS EXCLUSIVE MODE",
+            "DROP TRIGGER IF EXISTS product_price_mirror ON product_price",
+            "DROP TRIGGER IF EXISTS product_avg_price_mirror ON product_avg_price",
+            "ALTER TABLE product_price RENAME TO product_price_legacy",
+            "ALTER TABLE product_avg_price RENAME TO product_avg_price_legacy",
+            "ALTER TABLE product_price_partitioned RENAME TO product_price",
+            "ALTER TABLE product_avg_price_partitioned RENAME TO product_avg_price",
+            "DROP FUNCTION IF EXISTS mirror_product_price()",
+            "DROP FUNCTION IF EXISTS mirror_product_avg_price()",
+            CREATE_AVG_PRICE_MERGED_VIEW
+    };
+
+    public static final String SELECT_MANUFACTURER_MIGRATION_PENDING = """
+            SELECT EXISTS (SELECT 1 FROM pg_attribute
+                           WHERE attrelid = to_regclass('product_price') AND attname = 'manufacturer_name' AND NOT attisdropped) AS pending
+            """;
+
+    public static final String LOCK_MANUFACTURER_MIGRATION = """
+            SELECT pg_advisory_lock(hashtext('product_price_manufacturer_migration'))
+            """;
+
+    public static final String UNLOCK_MANUFACTURER_MIGRATION = """
+            SELECT pg_advisory_unlock(hashtext('product_price_manufacturer_migration'))
+            """;
+
+    public static final String INSERT_MANUFACTURERS_CHUNK = """
+            INSERT INTO manufacturers (name)
+            SELECT DISTINCT manufacturer_name FROM product_price
+            WHERE product_id BETWEEN ? AND ? AND manufacturer_id IS NULL
+            ORDER BY 1
+            ON CONFLICT (name) DO NOTHING
+            """;
+
+    public static final String BACKFILL_MANUFACTURER_IDS_CHUNK = """
+            UPDATE product_price p
+            SET manufacturer_id = m.manufacturer_id
+            FROM manufacturers m
+            WHERE p.product_id BETWEEN ? AND ? AND p.manufacturer_id IS NULL AND m.name = p.manufacturer_name
+            """;
+
+    public static final String SELECT_CHILD_PARTITIONS = """
+            SELECT inhrelid::regclass::text AS partition_name FROM pg_inherits WHERE inhparent = to_regclass(?) ORDER BY 1
+            """;
+
+    public static final String SELECT_INDEX_VALID = """
+            SELECT indisvalid AS valid FROM pg_index WHERE indexrelid = to_regclass(?)
+            """;
+
+    public static final String SELECT_CONSTRAINT_VALIDATED = """
+            SELECT convalidated AS validated FROM pg_constraint WHERE conrelid = to_regclass(?) AND conname = ?
+            """;
+
+    public static final String CREATE_MANUFACTURER_ID_INDEX_CONCURRENTLY =
+            "CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s (product_id, manufacturer_id)";
+
+    public static final String CREATE_MANUFACTURER_ID_INDEX_ON_PARENT =
+            "CREATE UNIQUE INDEX IF NOT EXISTS %s ON ONLY %s (product_id, manufacturer_id)";
+
+    public static final String ATTACH_INDEX_PARTITION = "ALTER INDEX %s ATTACH PARTITION %s";
+
+    public static final String DROP_INDEX_CONCURRENTLY = "DROP INDEX CONCURRENTLY IF EXISTS %s";
+
+    public static final String ADD_MANUFACTURER_ID_CHECK =
+            "ALTER TABLE %s ADD CONSTRAINT %s CHECK (manufacturer_id IS NOT NULL) NOT VALID";
+
+    public static final String VALIDATE_CONSTRAINT = "ALTER TABLE %s VALIDATE CONSTRAINT %s";
+
+    public static final String SET_SWITCH_LOCK_TIMEOUT = "SET LOCAL lock_timeout = '10s'";
+
+    public static final String LOCK_TABLES_FOR_SWITCH = "LOCK TABLE %s IN ACCESS EXCLUSIVE MODE";
+
+    public static final String[] SWITCH_TO_MANUFACTURER_IDS = {
+            "DROP TRIGGER IF EXISTS %1$s_manufacturer_sync ON %1$s",
+            "ALTER TABLE %s DROP COLUMN manufacturer_name",
+            "ALTER TABLE %s ALTER COLUMN manufacturer_id SET NOT NULL"
+    };
+
+    public static final String ADOPT_MANUFACTURER_ID_PRIMARY_KEY =
+            "ALTER TABLE %1$s ADD CONSTRAINT %1$s_pkey PRIMARY KEY USING INDEX %1$s_manufacturer_id_key";
+
+    public static final String ADD_MANUFACTURER_ID_FOREIGN_KEY =
+            "ALTER TABLE %1$s ADD CONSTRAINT %1$s_manufacturer_id_fkey FOREIGN KEY (manufacturer_id) REFERENCES manufacturers (manufacturer_id) NOT VALID";
+
+    public static final String DROP_CONSTRAINT = "ALTER TABLE %s DROP CONSTRAINT IF EXISTS %s";
+
+    public static final String MIRROR_PRODUCT_PRICE_BY_MANUFACTURER_ID = """
+            CREATE OR REPLACE FUNCTION mirror_product_price() RETURNS trigger AS $$
+            BEGIN
+                IF TG_OP = 'DELETE' THEN
+                    DELETE FROM product_price_partitioned
+                    WHERE product_id = OLD.product_id AND manufacturer_id = OLD.manufacturer_id;
+                    RETURN OLD;
+                END IF;
+                INSERT INTO product_price_partitioned (product_id, manufacturer_id, price, updated_at)
+                VALUES (NEW.product_id, NEW.manufacturer_id, NEW.price, NEW.updated_at)
+                ON CONFLICT (product_id, manufacturer_id)
+                DO UPDATE SET price = EXCLUDED.price, updated_at = EXCLUDED.updated_at;
+                RETURN NEW;
+            END;
+            $$ LANGUAGE plpgsql
+            """;
+
+    public static final String DROP_MANUFACTURER_SYNC_FUNCTION = "DROP FUNCTION IF EXISTS sync_product_price_manufacturer()";
+
+    public static final String TRY_LOCK_PRICE_IMPORT = """
+            SELECT pg_try_advisory_lock(hashtext('product_price_import')) AS locked
+            """;
+
+    public static final String UNLOCK_PRICE_IMPORT = """
+            SELECT pg_advisory_unlock(hashtext('product_price_import'))
+            """;
+
+    public static final String TRUNCATE_PRICE_IMPORT = """
+            TRUNCATE product_price_import
+            """;
+
+    public static final String COPY_PRICE_IMPORT = """
+            COPY product_price_import (product_id, manufacturer_name, price, source_offset) FROM STDIN
+            """;
+
+    public static final String ANALYZE_PRICE_IMPORT = """
+            ANALYZE product_price_import
+            """;
+
+    public static final String MERGE_IMPORTED_PRODUCTS = """
+            INSERT INTO products (product_id, name)
+            SELECT DISTINCT product_id, 'Unknown Product Name'
+            FROM product_price_import
+            ORDER BY product_id
+            ON CONFLICT (product_id) DO NOTHING
+            """;
+
+    public static final String MERGE_IMPORTED_MANUFACTURERS = """
+            INSERT INTO manufacturers (name)
+            SELECT DISTINCT i.manufacturer_name
+            FROM product_price_import i
+            WHERE NOT EXISTS (SELECT 1 FROM manufacturers m WHERE m.name = i.manufacturer_name)
+            ORDER BY i.manufacturer_name
+            ON CONFLICT (name) DO NOTHING
+            """;
+
+    public static final String LOCK_PRICES_FOR_IMPORT = """
+            LOCK TABLE product_price IN SHARE ROW EXCLUSIVE MODE
+            """;
+
+    public static final String STAGE_IMPORTED_PRICE_CHANGES = """
+            CREATE TEMP TABLE product_price_import_change ON COMMIT DROP AS
+            SELECT s.product_id, s.manufacturer_id, s.price, p.price AS old_price
+            FROM (
+                SELECT DISTINCT ON (i.product_id, m.manufacturer_id) i.product_id, m.manufacturer_id, i.price
+                FROM product_price_import i
+                JOIN manufacturers m ON m.name = i.manufacturer_name
+                ORDER BY i.product_id, m.manufacturer_id, i.source_offset DESC
+            ) s
+            LEFT JOIN product_price p ON p.product_id = s.product_id AND p.manufacturer_id = s.manufacturer_id
+            WHERE p.price IS DISTINCT FROM s.price
+            """;
+
+    public static final String MERGE_IMPORTED_PRICES = """
+            INSERT INTO product_price (product_id, manufacturer_id, price, updated_at)
+            SELECT product_id, manufacturer_id, price, CURRENT_TIMESTAMP
+            FROM product_price_import_change
+            ORDER BY product_id, manufacturer_id
+            ON CONFLICT (product_id, manufacturer_id)
+            DO UPDATE SET price = EXCLUDED.price, updated_at = CURRENT_TIMESTAMP
+            """;
+
+    public static final String SELECT_IMPORTED_AGGREGATE_DELTAS = """
+            SELECT product_id,
+                   SUM((price - COALESCE(old_price, 0)) * 100)::bigint AS delta_sum_cents,
+                   COUNT(*) FILTER (WHERE old_price IS NULL) AS delta_count
+            FROM product_price_import_change
+            GROUP BY product_id
+            ORDER BY product_id
+            """;
+
+    public static final String SELECT_IMPORTED_PRODUCT_IDS = """
+            SELECT DISTINCT product_id FROM product_price_import
+            """;
+
+    public static final String SELECT_AVERAGE_PRICES_EXPORT = """
+            SELECT product_id, avg_price, offer_count, updated_at
+            FROM product_avg_price_merged
+            ORDER BY product_id
+            """;
+
+    public static final String SELECT_AVERAGE_PRICES_EXPORT_SINCE = """
+            SELECT product_id, avg_price, offer_count, updated_at
+            FROM product_avg_price_merged
+            WHERE updated_at >= ?
+            ORDER BY product_id
             """;
 
-}
\ No newline at end of file
+}
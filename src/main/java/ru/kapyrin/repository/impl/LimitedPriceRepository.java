@@ -0,0 +1,180 @@
+package ru.kapyrin.repository.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.AggregateCorrection;
+import ru.kapyrin.model.AggregateDelta;
+import ru.kapyrin.model.PriceUpdate;
+import ru.kapyrin.model.ProductAggregatesData;
+import ru.kapyrin.model.ProductAveragePrice;
+import ru.kapyrin.model.ProductIdRange;
+import ru.kapyrin.repository.PriceRepository;
+import ru.kapyrin.util.AdaptiveConcurrencyLimiter;
+
+import java.sql.Connection;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+/**
+ * Puts every call that borrows its own connection behind the write or read {@link AdaptiveConcurrencyLimiter}.
+ * Methods that take a {@link Connection} run inside a transaction that already holds a permit, and the
+ * streaming exports hold their cursor for minutes, so both bypass the limiter.
+ */
+@Slf4j
+public class LimitedPriceRepository implements PriceRepository {
+    private final PriceRepository delegate;
+    private final AdaptiveConcurrencyLimiter writeLimiter;
+    private final AdaptiveConcurrencyLimiter readLimiter;
+
+    public LimitedPriceRepository(PriceRepository delegate, PropertiesLoader propertiesLoader) {
+        this(delegate, new AdaptiveConcurrencyLimiter("write", propertiesLoader), new AdaptiveConcurrencyLimiter("read", propertiesLoader));
+    }
+
+    public LimitedPriceRepository(PriceRepository delegate, AdaptiveConcurrencyLimiter writeLimiter, AdaptiveConcurrencyLimiter readLimiter) {
+        this.delegate = delegate;
+        this.writeLimiter = writeLimiter;
+        this.readLimiter = readLimiter;
+        log.info("Database calls limited adaptively: write limit={}, read limit={}", writeLimiter.getLimit(), readLimiter.getLimit());
+    }
+
+    @Override
+    public <T> T executeInTransaction(Function<Connection, T> task) throws PriceUpdateException {
+        return writeLimiter.execute(() -> delegate.executeInTransaction(task));
+    }
+
+    @Override
+    public boolean upsertProduct(Connection connection, Long productId, String productName) throws PriceUpdateException {
+        return delegate.upsertProduct(connection, productId, productName);
+    }
+
+    @Override
+    public Map<String, Integer> resolveManufacturerIds(Collection<String> manufacturerNames) throws PriceUpdateException {
+        return writeLimiter.execute(() -> delegate.resolveManufacturerIds(manufacturerNames));
+    }
+
+    @Override
+    public Long getOldPriceForVendorProduct(Connection connection, Long productId, int manufacturerId) throws PriceUpdateException {
+        return delegate.getOldPriceForVendorProduct(connection, productId, manufacturerId);
+    }
+
+    @Override
+    public void upsertPrice(Connection connection, PriceUpdate update, int manufacturerId) throws PriceUpdateException {
+        delegate.upsertPrice(connection, update, manufacturerId);
+    }
+
+    @Override
+    public boolean updatePriceIfUnchanged(Connection connection, PriceUpdate update, int manufacturerId, long expectedOldPriceCents)
+            throws PriceUpdateException {
+        return delegate.updatePriceIfUnchanged(connection, update, manufacturerId, expectedOldPriceCents);
+    }
+
+    @Override
+    public Optional<ProductAggregatesData> getAggregatesData(Connection connection, Long productId) throws PriceUpdateException {
+        return delegate.getAggregatesData(connection, productId);
+    }
+
+    @Override
+    public Long updateAggregatesAtomically(Connection connection, long productId, long initialAvgPriceCents, long deltaSumCents,
+                                           long deltaCount) throws PriceUpdateException {
+        return delegate.updateAggregatesAtomically(connection, productId, initialAvgPriceCents, deltaSumCents, deltaCount);
+    }
+
+    @Override
+    public Map<Long, Long> applyAggregateDeltas(Connection connection, List<AggregateDelta> deltas) throws PriceUpdateException {
+        return delegate.applyAggregateDeltas(connection, deltas);
+    }
+
+    @Override
+    public Long updateAggregateStripe(Connection connection, long productId, int stripe, long deltaSumCents, long deltaCount)
+            throws PriceUpdateException {
+        return delegate.updateAggregateStripe(connection, productId, stripe, deltaSumCents, deltaCount);
+    }
+
+    @Override
+    public Map<Long, Long> markAggregatesDirty(Connection connection, Collection<Long> productIds) throws PriceUpdateException {
+        return delegate.markAggregatesDirty(connection, productIds);
+    }
+
+    @Override
+    public void clearAggregateDirtyMarks(Connection connection, Collection<Long> markIds) throws PriceUpdateException {
+        delegate.clearAggregateDirtyMarks(connection, markIds);
+    }
+
+    @Override
+    public Map<Long, Long> getDirtyAggregateProducts(long minAgeSeconds, int limit) throws PriceUpdateException {
+        return readLimiter.execute(() -> delegate.getDirtyAggregateProducts(minAgeSeconds, limit));
+    }
+
+    @Override
+    public void clearDirtyAggregateProducts(Map<Long, Long> maxMarkIds) throws PriceUpdateException {
+        writeLimiter.execute(() -> {
+            delegate.clearDirtyAggregateProducts(maxMarkIds);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<Long, Integer> getStripedProducts() throws PriceUpdateException {
+        return readLimiter.execute(delegate::getStripedProducts);
+    }
+
+    @Override
+    public void markProductsStriped(Collection<Long> productIds, int stripes) throws PriceUpdateException {
+        writeLimiter.execute(() -> {
+            delegate.markProductsStriped(productIds, stripes);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Long> expireStripedProducts(long idleSeconds) throws PriceUpdateException {
+        return writeLimiter.execute(() -> delegate.expireStripedProducts(idleSeconds));
+    }
+
+    @Override
+    public List<Long> getProductsWithStripes() throws PriceUpdateException {
+        return readLimiter.execute(delegate::getProductsWithStripes);
+    }
+
+    @Override
+    public boolean compactAggregateStripes(long productId) throws PriceUpdateException {
+        return writeLimiter.execute(() -> delegate.compactAggregateStripes(productId));
+    }
+
+    @Override
+    public Long getStoredAveragePrice(Long productId) throws PriceUpdateException {
+        return readLimiter.execute(() -> delegate.getStoredAveragePrice(productId));
+    }
+
+    @Override
+    public Map<Long, Long> getStoredAveragePrices(Collection<Long> productIds) throws PriceUpdateException {
+        return readLimiter.execute(() -> delegate.getStoredAveragePrices(productIds));
+    }
+
+    @Override
+    public Optional<ProductIdRange> getProductIdRange() throws PriceUpdateException {
+        return readLimiter.execute(delegate::getProductIdRange);
+    }
+
+    @Override
+    public void streamProductIds(int fetchSize, LongConsumer consumer) throws PriceUpdateException {
+        delegate.streamProductIds(fetchSize, consumer);
+    }
+
+    @Override
+    public List<AggregateCorrection> reconcileAggregates(long fromProductId, long toProductId) throws PriceUpdateException {
+        return writeLimiter.execute(() -> delegate.reconcileAggregates(fromProductId, toProductId));
+    }
+
+    @Override
+    public void streamAveragePrices(Instant updatedSince, int fetchSize, Consumer<ProductAveragePrice> consumer) throws PriceUpdateException {
+        delegate.streamAveragePrices(updatedSince, fetchSize, consumer);
+    }
+}
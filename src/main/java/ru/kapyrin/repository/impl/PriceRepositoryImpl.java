@@ -1,12 +1,18 @@
 package ru.kapyrin.repository.impl;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.AggregateCorrection;
+import ru.kapyrin.model.AggregateDelta;
 import ru.kapyrin.model.PriceUpdate;
 import ru.kapyrin.model.ProductAggregatesData;
+import ru.kapyrin.model.ProductAveragePrice;
+import ru.kapyrin.model.ProductIdRange;
 import ru.kapyrin.repository.PriceRepository;
 import ru.kapyrin.repository.SqlQueries;
+import ru.kapyrin.util.ReplicaLagMonitor;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -14,13 +20,43 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 @Slf4j
-@RequiredArgsConstructor
 public class PriceRepositoryImpl implements PriceRepository {
     private final DataSource dataSource;
+    private final DataSource readDataSource;
+    private final ReplicaLagMonitor replicaLagMonitor;
+    private final boolean outboxEnabled;
+    private final Counter replicaReads = Metrics.counter("db_read_routing_total", "target", "replica");
+    private final Counter primaryReads = Metrics.counter("db_read_routing_total", "target", "primary");
+    private final Counter replicaFallbacks = Metrics.counter("db_read_replica_fallbacks_total");
+
+    public PriceRepositoryImpl(DataSource dataSource) {
+        this(dataSource, null, null);
+    }
+
+    public PriceRepositoryImpl(DataSource dataSource, DataSource readDataSource, ReplicaLagMonitor replicaLagMonitor) {
+        this(dataSource, readDataSource, replicaLagMonitor, true);
+    }
+
+    public PriceRepositoryImpl(DataSource dataSource, DataSource readDataSource, ReplicaLagMonitor replicaLagMonitor, boolean outboxEnabled) {
+        this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+        this.replicaLagMonitor = replicaLagMonitor;
+        this.outboxEnabled = outboxEnabled;
+    }
 
     @Override
     public <T> T executeInTransaction(Function<Connection, T> task) throws PriceUpdateException {
@@ -46,23 +82,43 @@ public class PriceRepositoryImpl implements PriceRepository {
 
 
     @Override
-    public void upsertProduct(Connection connection, Long productId, String productName) throws PriceUpdateException {
+    public boolean upsertProduct(Connection connection, Long productId, String productName) throws PriceUpdateException {
         try (PreparedStatement ps = connection.prepareStatement(SqlQueries.UPSERT_PRODUCT)) {
             ps.setLong(1, productId);
             ps.setString(2, productName);
-            ps.executeUpdate();
+            return ps.executeUpdate() > 0;
         } catch (SQLException e) {
             throw new PriceUpdateException("Failed to upsert product", e);
         }
     }
 
     @Override
-    public Double getOldPriceForVendorProduct(Connection connection, Long productId, String manufacturerName) throws PriceUpdateException {
+    public Map<String, Integer> resolveManufacturerIds(Collection<String> manufacturerNames) throws PriceUpdateException {
+        Map<String, Integer> ids = new HashMap<>(manufacturerNames.size() * 2);
+        if (manufacturerNames.isEmpty()) {
+            return ids;
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.RESOLVE_MANUFACTURER_IDS)) {
+            ps.setArray(1, connection.createArrayOf("varchar", manufacturerNames.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString("name"), rs.getInt("manufacturer_id"));
+                }
+            }
+            return ids;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to resolve manufacturer ids", e);
+        }
+    }
+
+    @Override
+    public Long getOldPriceForVendorProduct(Connection connection, Long productId, int manufacturerId) throws PriceUpdateException {
         try (PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_OLD_PRICE_FOR_VENDOR_PRODUCT)) {
             ps.setLong(1, productId);
-            ps.setString(2, manufacturerName);
+            ps.setInt(2, manufacturerId);
             try (ResultSet rs = ps.executeQuery()) {
-                return rs.next() ? rs.getDouble("price") : null;
+                return rs.next() ? rs.getLong("price_cents") : null;
             }
         } catch (SQLException e) {
             throw new PriceUpdateException("Failed to get old price for vendor product", e);
@@ -70,17 +126,30 @@ public class PriceRepositoryImpl implements PriceRepository {
     }
 
     @Override
-    public void upsertPrice(Connection connection, PriceUpdate update) throws PriceUpdateException {
+    public void upsertPrice(Connection connection, PriceUpdate update, int manufacturerId) throws PriceUpdateException {
         try (PreparedStatement ps = connection.prepareStatement(SqlQueries.UPSERT_PRICE)) {
             ps.setLong(1, update.productId());
-            ps.setString(2, update.manufacturerName());
-            ps.setDouble(3, update.price());
+            ps.setInt(2, manufacturerId);
+            ps.setLong(3, update.priceCents());
             ps.executeUpdate();
         } catch (SQLException e) {
             throw new PriceUpdateException("Failed to upsert price", e);
         }
     }
 
+    @Override
+    public boolean updatePriceIfUnchanged(Connection connection, PriceUpdate update, int manufacturerId, long expectedOldPriceCents) throws PriceUpdateException {
+        try (PreparedStatement ps = connection.prepareStatement(SqlQueries.UPDATE_PRICE_IF_UNCHANGED)) {
+            ps.setLong(1, update.priceCents());
+            ps.setLong(2, update.productId());
+            ps.setInt(3, manufacturerId);
+            ps.setLong(4, expectedOldPriceCents);
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to conditionally update price", e);
+        }
+    }
+
     @Override
     public Optional<ProductAggregatesData> getAggregatesData(Connection connection, Long productId) throws PriceUpdateException {
         try (PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_AGGREGATES_DATA)) {
@@ -89,8 +158,8 @@ public class PriceRepositoryImpl implements PriceRepository {
                 if (rs.next()) {
                     return Optional.of(new ProductAggregatesData(
                             rs.getLong("product_id"),
-                            rs.getDouble("avg_price"),
-                            rs.getDouble("total_sum_prices"),
+                            rs.getLong("avg_price_cents"),
+                            rs.getLong("total_sum_cents"),
                             rs.getLong("offer_count")
                     ));
                 }
@@ -102,15 +171,16 @@ public class PriceRepositoryImpl implements PriceRepository {
     }
 
     @Override
-    public Double updateAggregatesAtomically(Connection connection, long productId, double initialAvgPrice, double deltaSum, long deltaCount) throws PriceUpdateException {
+    public Long updateAggregatesAtomically(Connection connection, long productId, long initialAvgPriceCents, long deltaSumCents, long deltaCount) throws PriceUpdateException {
         try (PreparedStatement ps = connection.prepareStatement(SqlQueries.ATOMIC_UPDATE_AGGREGATES)) {
             ps.setLong(1, productId);
-            ps.setDouble(2, initialAvgPrice);
-            ps.setDouble(3, deltaSum);
+            ps.setLong(2, initialAvgPriceCents);
+            ps.setLong(3, deltaSumCents);
             ps.setLong(4, deltaCount);
+            ps.setBoolean(5, outboxEnabled);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getDouble("avg_price");
+                    return rs.getLong("avg_price_cents");
                 }
                 throw new PriceUpdateException("Atomic update did not return average price.");
             }
@@ -120,15 +190,339 @@ public class PriceRepositoryImpl implements PriceRepository {
     }
 
     @Override
-    public Double getStoredAveragePrice(Long productId) throws PriceUpdateException {
+    public Map<Long, Long> applyAggregateDeltas(Connection connection, List<AggregateDelta> deltas) throws PriceUpdateException {
+        Long[] productIds = new Long[deltas.size()];
+        Long[] deltaSums = new Long[deltas.size()];
+        Long[] deltaCounts = new Long[deltas.size()];
+        for (int i = 0; i < deltas.size(); i++) {
+            productIds[i] = deltas.get(i).productId();
+            deltaSums[i] = deltas.get(i).deltaSumCents();
+            deltaCounts[i] = deltas.get(i).deltaCount();
+        }
+        try (PreparedStatement ps = connection.prepareStatement(SqlQueries.APPLY_AGGREGATE_DELTAS)) {
+            ps.setArray(1, connection.createArrayOf("bigint", productIds));
+            ps.setArray(2, connection.createArrayOf("bigint", deltaSums));
+            ps.setArray(3, connection.createArrayOf("bigint", deltaCounts));
+            ps.setBoolean(4, outboxEnabled);
+            Map<Long, Long> averages = new HashMap<>(deltas.size() * 2);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    averages.put(rs.getLong("product_id"), rs.getLong("avg_price_cents"));
+                }
+            }
+            return averages;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to apply aggregate deltas", e);
+        }
+    }
+
+    @Override
+    public Long updateAggregateStripe(Connection connection, long productId, int stripe, long deltaSumCents, long deltaCount) throws PriceUpdateException {
+        try (PreparedStatement upsert = connection.prepareStatement(SqlQueries.UPSERT_AGGREGATE_STRIPE);
+             PreparedStatement merged = connection.prepareStatement(SqlQueries.GET_STORED_AVG_PRICE)) {
+            upsert.setLong(1, productId);
+            upsert.setLong(2, productId);
+            upsert.setInt(3, stripe);
+            upsert.setLong(4, deltaSumCents);
+            upsert.setLong(5, deltaCount);
+            upsert.executeUpdate();
+            merged.setLong(1, productId);
+            long averagePriceCents;
+            try (ResultSet rs = merged.executeQuery()) {
+                if (!rs.next()) {
+                    throw new PriceUpdateException("Striped update did not return average price.");
+                }
+                averagePriceCents = rs.getLong("avg_price_cents");
+            }
+            if (outboxEnabled) {
+                try (PreparedStatement outbox = connection.prepareStatement(SqlQueries.INSERT_AVERAGE_PRICE_OUTBOX)) {
+                    outbox.setLong(1, productId);
+                    outbox.setLong(2, averagePriceCents);
+                    outbox.executeUpdate();
+                }
+            }
+            return averagePriceCents;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to update aggregate stripe " + stripe + " for product_id=" + productId, e);
+        }
+    }
+
+    @Override
+    public Map<Long, Long> markAggregatesDirty(Connection connection, Collection<Long> productIds) throws PriceUpdateException {
+        try (PreparedStatement ps = connection.prepareStatement(SqlQueries.MARK_AGGREGATES_DIRTY)) {
+            ps.setArray(1, connection.createArrayOf("bigint", productIds.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                Map<Long, Long> markIds = new HashMap<>(productIds.size() * 2);
+                while (rs.next()) {
+                    markIds.put(rs.getLong("product_id"), rs.getLong("id"));
+                }
+                return markIds;
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to mark aggregates dirty", e);
+        }
+    }
+
+    @Override
+    public void clearAggregateDirtyMarks(Connection connection, Collection<Long> markIds) throws PriceUpdateException {
+        try (PreparedStatement ps = connection.prepareStatement(SqlQueries.CLEAR_AGGREGATE_DIRTY_MARKS)) {
+            ps.setArray(1, connection.createArrayOf("bigint", markIds.toArray()));
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to clear aggregate dirty marks", e);
+        }
+    }
+
+    @Override
+    public Map<Long, Long> getDirtyAggregateProducts(long minAgeSeconds, int limit) throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_DIRTY_AGGREGATE_PRODUCTS)) {
+            ps.setLong(1, minAgeSeconds);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                Map<Long, Long> maxMarkIds = new LinkedHashMap<>();
+                while (rs.next()) {
+                    maxMarkIds.put(rs.getLong("product_id"), rs.getLong("max_mark_id"));
+                }
+                return maxMarkIds;
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get dirty aggregate products", e);
+        }
+    }
+
+    @Override
+    public void clearDirtyAggregateProducts(Map<Long, Long> maxMarkIds) throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.CLEAR_DIRTY_AGGREGATE_PRODUCTS)) {
+            ps.setArray(1, connection.createArrayOf("bigint", maxMarkIds.keySet().toArray()));
+            ps.setArray(2, connection.createArrayOf("bigint", maxMarkIds.values().toArray()));
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to clear dirty aggregate products", e);
+        }
+    }
+
+    @Override
+    public Map<Long, Integer> getStripedProducts() throws PriceUpdateException {
         try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_STRIPED_PRODUCTS);
+             ResultSet rs = ps.executeQuery()) {
+            Map<Long, Integer> stripedProducts = new HashMap<>();
+            while (rs.next()) {
+                stripedProducts.put(rs.getLong("product_id"), rs.getInt("stripes"));
+            }
+            return stripedProducts;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get striped products", e);
+        }
+    }
+
+    @Override
+    public void markProductsStriped(Collection<Long> productIds, int stripes) throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.MARK_PRODUCTS_STRIPED)) {
+            ps.setInt(1, stripes);
+            ps.setArray(2, connection.createArrayOf("bigint", productIds.toArray()));
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to mark products as striped", e);
+        }
+    }
+
+    @Override
+    public List<Long> expireStripedProducts(long idleSeconds) throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.EXPIRE_STRIPED_PRODUCTS)) {
+            ps.setLong(1, idleSeconds);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Long> expired = new ArrayList<>();
+                while (rs.next()) {
+                    expired.add(rs.getLong("product_id"));
+                }
+                return expired;
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to expire striped products", e);
+        }
+    }
+
+    @Override
+    public List<Long> getProductsWithStripes() throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_PRODUCTS_WITH_STRIPES);
+             ResultSet rs = ps.executeQuery()) {
+            List<Long> productIds = new ArrayList<>();
+            while (rs.next()) {
+                productIds.add(rs.getLong("product_id"));
+            }
+            return productIds;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get products with aggregate stripes", e);
+        }
+    }
+
+    @Override
+    public boolean compactAggregateStripes(long productId) throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.COMPACT_AGGREGATE_STRIPES)) {
+            ps.setLong(1, productId);
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to compact aggregate stripes for product_id=" + productId, e);
+        }
+    }
+
+    @Override
+    public Long getStoredAveragePrice(Long productId) throws PriceUpdateException {
+        try (Connection connection = getReadConnection();
              PreparedStatement ps = connection.prepareStatement(SqlQueries.GET_STORED_AVG_PRICE)) {
             ps.setLong(1, productId);
             try (ResultSet rs = ps.executeQuery()) {
-                return rs.next() ? rs.getDouble("avg_price") : null;
+                return rs.next() ? rs.getLong("avg_price_cents") : null;
             }
         } catch (SQLException e) {
             throw new PriceUpdateException("Failed to get stored average price", e);
         }
     }
+
+    @Override
+    public Map<Long, Long> getStoredAveragePrices(Collection<Long> productIds) throws PriceUpdateException {
+        Map<Long, Long> prices = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return prices;
+        }
+        try (Connection connection = getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.GET_STORED_AVG_PRICES)) {
+            ps.setArray(1, connection.createArrayOf("bigint", productIds.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    prices.put(rs.getLong("product_id"), rs.getLong("avg_price_cents"));
+                }
+            }
+            return prices;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get stored average prices", e);
+        }
+    }
+
+    @Override
+    public Optional<ProductIdRange> getProductIdRange() throws PriceUpdateException {
+        try (Connection connection = getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_PRODUCT_ID_RANGE);
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                long min = rs.getLong("min_product_id");
+                if (rs.wasNull()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new ProductIdRange(min, rs.getLong("max_product_id")));
+            }
+            return Optional.empty();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get product id range", e);
+        }
+    }
+
+    @Override
+    public void streamProductIds(int fetchSize, LongConsumer consumer) throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_ALL_PRODUCT_IDS)) {
+                ps.setFetchSize(fetchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(rs.getLong("product_id"));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to stream product ids", e);
+        }
+    }
+
+    @Override
+    public List<AggregateCorrection> reconcileAggregates(long fromProductId, long toProductId) throws PriceUpdateException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement reconcile = connection.prepareStatement(SqlQueries.RECONCILE_AGGREGATES_RANGE);
+             PreparedStatement insertMissing = connection.prepareStatement(SqlQueries.INSERT_MISSING_AGGREGATES_RANGE)) {
+            reconcile.setLong(1, fromProductId);
+            reconcile.setLong(2, toProductId);
+            reconcile.setLong(3, fromProductId);
+            reconcile.setLong(4, toProductId);
+            reconcile.setLong(5, fromProductId);
+            reconcile.setLong(6, toProductId);
+            insertMissing.setLong(1, fromProductId);
+            insertMissing.setLong(2, toProductId);
+            List<AggregateCorrection> corrections = new ArrayList<>();
+            readCorrections(reconcile, corrections);
+            readCorrections(insertMissing, corrections);
+            return corrections;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to reconcile aggregates for product_id range " + fromProductId + ".." + toProductId, e);
+        }
+    }
+
+    private static void readCorrections(PreparedStatement ps, List<AggregateCorrection> corrections) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                corrections.add(new AggregateCorrection(
+                        rs.getLong("product_id"),
+                        rs.getLong("avg_price_cents"),
+                        rs.getLong("sum_drift_cents"),
+                        rs.getLong("count_drift")
+                ));
+            }
+        }
+    }
+
+    @Override
+    public void streamAveragePrices(Instant updatedSince, int fetchSize, Consumer<ProductAveragePrice> consumer) throws PriceUpdateException {
+        String sql = updatedSince == null ? SqlQueries.SELECT_AVERAGE_PRICES_EXPORT : SqlQueries.SELECT_AVERAGE_PRICES_EXPORT_SINCE;
+        try (Connection connection = getReadConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setFetchSize(fetchSize);
+                if (updatedSince != null) {
+                    ps.setTimestamp(1, Timestamp.from(updatedSince));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp updatedAt = rs.getTimestamp("updated_at");
+                        consumer.accept(new ProductAveragePrice(
+                                rs.getLong("product_id"),
+                                rs.getBigDecimal("avg_price"),
+                                rs.getLong("offer_count"),
+                                updatedAt != null ? updatedAt.toInstant() : null));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to stream average prices", e);
+        }
+    }
+
+    private Connection getReadConnection() throws SQLException {
+        if (readDataSource != null && replicaLagMonitor != null && replicaLagMonitor.isReplicaUsable()) {
+            try {
+                Connection connection = readDataSource.getConnection();
+                replicaReads.increment();
+                return connection;
+            } catch (SQLException e) {
+                log.warn("Failed to get replica connection, falling back to primary: {}", e.getMessage());
+                replicaLagMonitor.markUnavailable();
+                replicaFallbacks.increment();
+            }
+        }
+        primaryReads.increment();
+        return dataSource.getConnection();
+    }
 }
\ No newline at end of file
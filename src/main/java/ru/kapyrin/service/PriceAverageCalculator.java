@@ -1,8 +1,13 @@
 package ru.kapyrin.service;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public interface PriceAverageCalculator {
-    CompletableFuture<Double> getAveragePriceAsync(Long productId);
-    void updateAveragePriceCaches(Long productId, Double newAveragePrice);
+    CompletableFuture<Long> getAveragePriceAsync(Long productId);
+    CompletableFuture<Map<Long, Long>> getAveragePricesAsync(Collection<Long> productIds);
+    void updateAveragePriceCaches(Long productId, Long newAveragePriceCents);
+    void updateAveragePriceCaches(Map<Long, Long> newAveragePricesCents);
+    void invalidateAveragePriceCaches(Collection<Long> productIds);
 }
\ No newline at end of file
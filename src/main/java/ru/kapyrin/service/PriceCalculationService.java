@@ -3,6 +3,14 @@ package ru.kapyrin.service;
 import ru.kapyrin.exception.PriceUpdateException;
 import ru.kapyrin.model.PriceUpdate;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public interface PriceCalculationService {
-    Double calculateAndPersistAveragePrice(PriceUpdate priceUpdate) throws PriceUpdateException;
+    Long calculateAndPersistAveragePrice(PriceUpdate priceUpdate) throws PriceUpdateException;
+
+    Map<Long, Long> calculateAndPersistAveragePrices(List<PriceUpdate> priceUpdates) throws PriceUpdateException;
+
+    CompletableFuture<Void> persistPriceUpdates(List<PriceUpdate> priceUpdates) throws PriceUpdateException;
 }
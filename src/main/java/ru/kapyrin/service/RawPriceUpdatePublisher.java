@@ -1,7 +1,12 @@
 package ru.kapyrin.service;
 
+import ru.kapyrin.model.PriceUpdate;
+
+import java.util.List;
+
 public interface RawPriceUpdatePublisher {
     void publishRawPriceUpdate(String rawJsonBody);
+    void publishPriceUpdates(List<PriceUpdate> validatedUpdates);
     void validateRawPriceUpdate(String rawJsonBody);
     void shutdown();
 }
\ No newline at end of file
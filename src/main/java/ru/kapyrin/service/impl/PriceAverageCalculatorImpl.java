@@ -1,87 +1,273 @@
 package ru.kapyrin.service.impl;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 import ru.kapyrin.config.RedisConfig;
+import ru.kapyrin.exception.ProductNotFoundException;
 import ru.kapyrin.repository.PriceRepository;
 import ru.kapyrin.service.MetricsService;
 import ru.kapyrin.service.PriceAverageCalculator;
+import ru.kapyrin.util.AveragePriceCacheLayout;
+import ru.kapyrin.util.ProductIdBloomFilter;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Slf4j
-@RequiredArgsConstructor
 public class PriceAverageCalculatorImpl implements PriceAverageCalculator {
     private final PriceRepository priceRepository;
     private final RedisConfig redisConfig;
     private final MetricsService metricsService;
     private final ExecutorService dbExecutor;
-    private final int cacheExpireSeconds;
+    private final ProductIdBloomFilter productIdBloomFilter;
+    private final int negativeCacheExpireSeconds;
+    private final ConcurrentMap<Long, CompletableFuture<Long>> inFlightLoads = new ConcurrentHashMap<>();
+    private final Counter coalescedLoads = Metrics.counter("avg_price_cache_coalesced_loads_total");
+    private final Counter refreshAheadLoads = Metrics.counter("avg_price_cache_refresh_ahead_total");
+    private final Counter notFoundByNegativeCache = Metrics.counter("product_lookup_not_found_total", "source", "negative_cache");
+    private final Counter notFoundByBloomFilter = Metrics.counter("product_lookup_not_found_total", "source", "bloom");
+    private final Counter notFoundByDatabase = Metrics.counter("product_lookup_not_found_total", "source", "database");
+    private volatile double loadTimeEwmaMs;
+
+    private record CachedPrice(Long priceCents, long ttlMs) {
+    }
 
     public PriceAverageCalculatorImpl(PriceRepository priceRepository, RedisConfig redisConfig,
                                       MetricsService metricsService, ExecutorService dbExecutor) {
+        this(priceRepository, redisConfig, metricsService, dbExecutor, null);
+    }
+
+    public PriceAverageCalculatorImpl(PriceRepository priceRepository, RedisConfig redisConfig,
+                                      MetricsService metricsService, ExecutorService dbExecutor,
+                                      ProductIdBloomFilter productIdBloomFilter) {
         this.priceRepository = priceRepository;
         this.redisConfig = redisConfig;
         this.metricsService = metricsService;
         this.dbExecutor = dbExecutor;
-        this.cacheExpireSeconds = redisConfig.getCacheExpireSeconds();
+        this.productIdBloomFilter = productIdBloomFilter;
+        this.negativeCacheExpireSeconds = redisConfig.getNegativeCacheExpireSeconds();
+        Gauge.builder("avg_price_cache_inflight_loads", inFlightLoads, Map::size)
+                .description("Average price DB loads currently shared by concurrent cache misses")
+                .register(Metrics.globalRegistry);
     }
 
     @Override
-    public CompletableFuture<Double> getAveragePriceAsync(Long productId) {
+    public CompletableFuture<Long> getAveragePriceAsync(Long productId) {
         metricsService.recordGetRequest();
         if (productId == null || productId <= 0) {
             log.warn("Invalid product ID: {}", productId);
             metricsService.recordGetError();
             return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid product ID: " + productId));
         }
+        if (productIdBloomFilter != null && !productIdBloomFilter.mightContain(productId)) {
+            notFoundByBloomFilter.increment();
+            return CompletableFuture.failedFuture(new ProductNotFoundException("Product not found or no average price"));
+        }
         return CompletableFuture.supplyAsync(() -> {
             Timer.Sample sample = metricsService.startGetTimer();
             try {
-                if (redisConfig.isRedisAvailable()) {
+                CachedPrice cached = readCachedPrice(productId);
+                if (cached != null && cached.priceCents() == null) {
+                    notFoundByNegativeCache.increment();
+                    throw new ProductNotFoundException("Product not found or no average price");
+                }
+                if (cached != null) {
+                    if (shouldRefreshAhead(cached.ttlMs())) {
+                        refreshAheadLoads.increment();
+                        dbExecutor.execute(() -> loadCoalesced(productId));
+                    }
+                    return cached.priceCents();
+                }
+                Long price = loadCoalesced(productId).join();
+                if (price != null) {
+                    return price;
+                }
+                throw new ProductNotFoundException("Product not found or no average price");
+            } catch (ProductNotFoundException e) {
+                log.debug("No average price for product_id={}", productId);
+                throw e;
+            } catch (Exception e) {
+                log.error("Error getting average price for product_id={}: {}", productId, e.getMessage());
+                metricsService.recordGetError();
+                throw new IllegalStateException("Product not found or no average price", e);
+            } finally {
+                metricsService.stopGetTimer(sample);
+            }
+        }, dbExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, Long>> getAveragePricesAsync(Collection<Long> productIds) {
+        metricsService.recordGetRequest();
+        for (Long productId : productIds) {
+            if (productId == null || productId <= 0) {
+                log.warn("Invalid product ID in batch: {}", productId);
+                metricsService.recordGetError();
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid product ID: " + productId));
+            }
+        }
+        List<Long> ids = productIds.stream().distinct().toList();
+        return CompletableFuture.supplyAsync(() -> {
+            Timer.Sample sample = metricsService.startGetTimer();
+            try {
+                Map<Long, Long> prices = new LinkedHashMap<>();
+                List<Long> misses = new ArrayList<>(ids);
+                if (!ids.isEmpty() && redisConfig.isRedisAvailable()) {
                     try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
-                        String cachedPrice = jedis.get("avg_price:" + productId);
-                        if (cachedPrice != null) {
-                            return Double.parseDouble(cachedPrice);
+                        AveragePriceCacheLayout layout = redisConfig.getCacheLayout();
+                        List<String> cached = layout.getAll(jedis, ids);
+                        misses.clear();
+                        for (int i = 0; i < ids.size(); i++) {
+                            if (layout.isNotFound(cached.get(i))) {
+                                notFoundByNegativeCache.increment();
+                            } else if (cached.get(i) != null) {
+                                prices.put(ids.get(i), layout.decode(cached.get(i)));
+                            } else {
+                                misses.add(ids.get(i));
+                            }
                         }
                     } catch (JedisConnectionException e) {
-                        log.error("Redis connection lost for product_id={}: {}", productId, e.getMessage());
+                        log.error("Redis connection lost during batch lookup of {} products: {}", ids.size(), e.getMessage());
                         redisConfig.setRedisAvailable(false);
                     } catch (Exception e) {
-                        log.error("Error accessing Redis cache for product_id={}: {}", productId, e.getMessage());
+                        log.error("Error accessing Redis cache for batch of {} products: {}", ids.size(), e.getMessage());
                     }
                 }
-                Double price = priceRepository.getStoredAveragePrice(productId);
-                if (price != null) {
-                    updateAveragePriceCaches(productId, price);
-                    return price;
+                if (productIdBloomFilter != null) {
+                    int before = misses.size();
+                    misses.removeIf(id -> !productIdBloomFilter.mightContain(id));
+                    notFoundByBloomFilter.increment(before - misses.size());
+                }
+                if (!misses.isEmpty()) {
+                    Map<Long, Long> stored = priceRepository.getStoredAveragePrices(misses);
+                    prices.putAll(stored);
+                    List<Long> notFound = misses.stream().filter(id -> !stored.containsKey(id)).toList();
+                    notFoundByDatabase.increment(notFound.size());
+                    backfillAveragePriceCaches(stored, notFound);
                 }
-                throw new IllegalStateException("Product not found or no average price");
+                log.debug("Batch lookup of {} products: {} from cache, {} from database", ids.size(), ids.size() - misses.size(), misses.size());
+                return prices;
             } catch (Exception e) {
-                log.error("Error getting average price for product_id={}: {}", productId, e.getMessage());
+                log.error("Error getting average prices for batch of {} products: {}", ids.size(), e.getMessage());
                 metricsService.recordGetError();
-                throw new IllegalStateException("Product not found or no average price", e);
+                throw new IllegalStateException("Failed to get average prices", e);
             } finally {
                 metricsService.stopGetTimer(sample);
             }
         }, dbExecutor);
     }
 
+    private CachedPrice readCachedPrice(Long productId) {
+        if (!redisConfig.isRedisAvailable()) {
+            return null;
+        }
+        try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+            AveragePriceCacheLayout layout = redisConfig.getCacheLayout();
+            Pipeline pipeline = jedis.pipelined();
+            Response<String> cachedPrice = layout.get(pipeline, productId);
+            Response<Long> ttlMs = pipeline.pttl(layout.key(productId));
+            pipeline.sync();
+            if (layout.isNotFound(cachedPrice.get())) {
+                return new CachedPrice(null, ttlMs.get());
+            }
+            if (cachedPrice.get() != null) {
+                return new CachedPrice(layout.decode(cachedPrice.get()), ttlMs.get());
+            }
+        } catch (JedisConnectionException e) {
+            log.error("Redis connection lost for product_id={}: {}", productId, e.getMessage());
+            redisConfig.setRedisAvailable(false);
+        } catch (Exception e) {
+            log.error("Error accessing Redis cache for product_id={}: {}", productId, e.getMessage());
+        }
+        return null;
+    }
+
+    private boolean shouldRefreshAhead(long ttlMs) {
+        if (ttlMs < 0 || redisConfig.getCacheRefreshBeta() == 0.0) {
+            return false;
+        }
+        double recomputeMs = Math.max(loadTimeEwmaMs, redisConfig.getCacheRefreshMinWindowMs());
+        return -recomputeMs * redisConfig.getCacheRefreshBeta() * Math.log(ThreadLocalRandom.current().nextDouble()) >= ttlMs;
+    }
+
+    private CompletableFuture<Long> loadCoalesced(Long productId) {
+        CompletableFuture<Long> load = new CompletableFuture<>();
+        CompletableFuture<Long> existing = inFlightLoads.putIfAbsent(productId, load);
+        if (existing != null) {
+            coalescedLoads.increment();
+            return existing;
+        }
+        long startedNanos = System.nanoTime();
+        try {
+            Long price = priceRepository.getStoredAveragePrice(productId);
+            if (price != null) {
+                updateAveragePriceCaches(productId, price);
+            } else {
+                notFoundByDatabase.increment();
+                backfillAveragePriceCaches(Map.of(), List.of(productId));
+            }
+            load.complete(price);
+        } catch (Exception e) {
+            load.completeExceptionally(e);
+        } finally {
+            inFlightLoads.remove(productId, load);
+            double loadMs = (System.nanoTime() - startedNanos) / 1_000_000.0;
+            loadTimeEwmaMs = loadTimeEwmaMs == 0.0 ? loadMs : loadTimeEwmaMs * 0.9 + loadMs * 0.1;
+        }
+        return load;
+    }
+
+    private void backfillAveragePriceCaches(Map<Long, Long> averagePrices, Collection<Long> notFound) {
+        boolean negativeCaching = negativeCacheExpireSeconds > 0 && !notFound.isEmpty();
+        if ((averagePrices.isEmpty() && !negativeCaching) || !redisConfig.isRedisAvailable() || redisConfig.getJedisPool() == null) {
+            return;
+        }
+        try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            redisConfig.getCacheLayout().put(pipeline, averagePrices, redisConfig::jitteredCacheExpireSeconds);
+            if (negativeCaching) {
+                redisConfig.getCacheLayout().putNotFound(pipeline, notFound, negativeCacheExpireSeconds);
+            }
+            pipeline.sync();
+        } catch (JedisConnectionException e) {
+            log.error("Redis connection lost while backfilling {} products: {}", averagePrices.size(), e.getMessage());
+            redisConfig.setRedisAvailable(false);
+        } catch (Exception e) {
+            log.error("Error backfilling Redis cache for {} products: {}", averagePrices.size(), e.getMessage());
+        }
+    }
+
     @Override
-    public void updateAveragePriceCaches(Long productId, Double newAveragePrice) {
+    public void updateAveragePriceCaches(Long productId, Long newAveragePrice) {
+        if (productIdBloomFilter != null && newAveragePrice != null) {
+            productIdBloomFilter.add(productId);
+        }
         if (redisConfig.isRedisAvailable() && redisConfig.getJedisPool() != null) {
             try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+                Pipeline pipeline = jedis.pipelined();
                 if (newAveragePrice != null) {
-                    jedis.setex("avg_price:" + productId, cacheExpireSeconds, String.valueOf(newAveragePrice));
+                    redisConfig.getCacheLayout().put(pipeline, Map.of(productId, newAveragePrice), redisConfig::jitteredCacheExpireSeconds);
                     log.debug("Updated Redis cache for product_id={}: {}", productId, newAveragePrice);
                 } else {
-                    jedis.del("avg_price:" + productId);
+                    redisConfig.getCacheLayout().evict(pipeline, productId);
                     log.debug("Invalidated Redis cache for product_id={}", productId);
                 }
+                pipeline.sync();
             } catch (JedisConnectionException e) {
                 log.error("Redis connection lost for product_id={}: {}", productId, e.getMessage());
                 redisConfig.setRedisAvailable(false);
@@ -90,4 +276,33 @@ public class PriceAverageCalculatorImpl implements PriceAverageCalculator {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void updateAveragePriceCaches(Map<Long, Long> newAveragePrices) {
+        if (productIdBloomFilter != null) {
+            newAveragePrices.keySet().forEach(productIdBloomFilter::add);
+        }
+        backfillAveragePriceCaches(newAveragePrices, List.of());
+        log.debug("Updated Redis cache for {} products", newAveragePrices.size());
+    }
+
+    @Override
+    public void invalidateAveragePriceCaches(Collection<Long> productIds) {
+        if (productIds.isEmpty() || !redisConfig.isRedisAvailable() || redisConfig.getJedisPool() == null) {
+            return;
+        }
+        try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Long productId : productIds) {
+                redisConfig.getCacheLayout().evict(pipeline, productId);
+            }
+            pipeline.sync();
+            log.debug("Invalidated Redis cache for {} products", productIds.size());
+        } catch (JedisConnectionException e) {
+            log.error("Redis connection lost while invalidating {} products: {}", productIds.size(), e.getMessage());
+            redisConfig.setRedisAvailable(false);
+        } catch (Exception e) {
+            log.error("Error invalidating Redis cache for {} products: {}", productIds.size(), e.getMessage());
+        }
+    }
+}
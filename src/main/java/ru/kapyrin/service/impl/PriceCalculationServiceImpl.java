@@ -3,10 +3,26 @@ package ru.kapyrin.service.impl;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.AggregateDelta;
 import ru.kapyrin.model.PriceUpdate;
 import ru.kapyrin.repository.PriceRepository;
 import ru.kapyrin.service.PriceAverageCalculator;
 import ru.kapyrin.service.PriceCalculationService;
+import ru.kapyrin.util.AggregateStripingManager;
+import ru.kapyrin.util.AveragePriceChangeBroadcaster;
+import ru.kapyrin.util.AggregateWriteBehindBuffer;
+import ru.kapyrin.util.ManufacturerDictionary;
+import ru.kapyrin.util.ProductIdBloomFilter;
+import ru.kapyrin.util.VendorPriceMemo;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -14,32 +30,178 @@ public class PriceCalculationServiceImpl implements PriceCalculationService {
 
     private final PriceRepository repository;
     private final PriceAverageCalculator priceAverageCalculator;
+    private final ManufacturerDictionary manufacturerDictionary;
+    private final AggregateWriteBehindBuffer aggregateWriteBehindBuffer;
+    private final AggregateStripingManager aggregateStripingManager;
+    private final VendorPriceMemo vendorPriceMemo;
+    private final AveragePriceChangeBroadcaster averagePriceChangeBroadcaster;
+    private final ProductIdBloomFilter productIdBloomFilter;
 
-    @Override
-    public Double calculateAndPersistAveragePrice(PriceUpdate priceUpdate) throws PriceUpdateException {
-        Double newCalculatedAverage = repository.executeInTransaction(connection -> {
-            repository.upsertProduct(connection, priceUpdate.productId(), "Unknown Product Name");
-            Double oldPriceForVendor = repository.getOldPriceForVendorProduct(connection, priceUpdate.productId(), priceUpdate.manufacturerName());
-            repository.upsertPrice(connection, priceUpdate);
-
-            final double deltaSum;
-            final long deltaCount;
-
-            if (oldPriceForVendor != null) {
-                deltaSum = priceUpdate.price() - oldPriceForVendor;
-                deltaCount = 0L;
-            } else {
-                deltaSum = priceUpdate.price();
-                deltaCount = 1L;
-            }
+    public PriceCalculationServiceImpl(PriceRepository repository, PriceAverageCalculator priceAverageCalculator,
+                                       ManufacturerDictionary manufacturerDictionary) {
+        this(repository, priceAverageCalculator, manufacturerDictionary, null, null, null, null, null);
+    }
 
-            double initialAvg = (deltaCount > 0) ? deltaSum : 0.0;
-            return repository.updateAggregatesAtomically(connection, priceUpdate.productId(), initialAvg, deltaSum, deltaCount);
-        });
+    @Override
+    public Long calculateAndPersistAveragePrice(PriceUpdate priceUpdate) throws PriceUpdateException {
+        int manufacturerId = manufacturerDictionary.resolve(List.of(priceUpdate.manufacturerName())).get(priceUpdate.manufacturerName());
+        Set<Long> createdProducts = new HashSet<>();
+        Long newCalculatedAverage = repository.executeInTransaction(connection -> applyPriceUpdate(connection, priceUpdate, manufacturerId, createdProducts));
+        recordPersisted(List.of(priceUpdate));
+        announceCreated(createdProducts);
 
         priceAverageCalculator.updateAveragePriceCaches(priceUpdate.productId(), newCalculatedAverage);
+        if (averagePriceChangeBroadcaster != null) {
+            averagePriceChangeBroadcaster.publish(priceUpdate.productId(), newCalculatedAverage);
+        }
         log.debug("PriceCalculationService: Updated Redis cache for product_id={} with new average={}", priceUpdate.productId(), newCalculatedAverage);
 
         return newCalculatedAverage;
     }
-}
\ No newline at end of file
+
+    @Override
+    public Map<Long, Long> calculateAndPersistAveragePrices(List<PriceUpdate> priceUpdates) throws PriceUpdateException {
+        if (priceUpdates.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Integer> manufacturerIds = resolveManufacturerIds(priceUpdates);
+        Set<Long> createdProducts = new HashSet<>();
+        Map<Long, Long> newAverages = repository.executeInTransaction(connection -> {
+            Map<Long, Long> averages = new LinkedHashMap<>();
+            for (PriceUpdate priceUpdate : priceUpdates) {
+                AggregateDelta delta = upsertPriceAndComputeDelta(connection, priceUpdate, manufacturerIds.get(priceUpdate.manufacturerName()),
+                        createdProducts);
+                if (!isUnchanged(delta)) {
+                    averages.put(priceUpdate.productId(), applyAggregateDelta(connection, priceUpdate, delta));
+                }
+            }
+            return averages;
+        });
+        recordPersisted(priceUpdates);
+        announceCreated(createdProducts);
+
+        newAverages.forEach(priceAverageCalculator::updateAveragePriceCaches);
+        if (averagePriceChangeBroadcaster != null) {
+            averagePriceChangeBroadcaster.publish(newAverages);
+        }
+        log.debug("PriceCalculationService: Persisted batch of {} updates, updated Redis cache for {} products", priceUpdates.size(), newAverages.size());
+
+        return newAverages;
+    }
+
+    @Override
+    public CompletableFuture<Void> persistPriceUpdates(List<PriceUpdate> priceUpdates) throws PriceUpdateException {
+        if (aggregateWriteBehindBuffer == null || !aggregateWriteBehindBuffer.isEnabled()) {
+            calculateAndPersistAveragePrices(priceUpdates);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (priceUpdates.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, Integer> manufacturerIds = resolveManufacturerIds(priceUpdates);
+        return aggregateWriteBehindBuffer.runShared(() -> {
+            Set<Long> createdProducts = new HashSet<>();
+            DeferredDeltas deferred = repository.executeInTransaction(connection -> {
+                List<AggregateDelta> pending = new ArrayList<>(priceUpdates.size());
+                Set<Long> productIds = new HashSet<>();
+                for (PriceUpdate priceUpdate : priceUpdates) {
+                    AggregateDelta delta = upsertPriceAndComputeDelta(connection, priceUpdate, manufacturerIds.get(priceUpdate.manufacturerName()),
+                            createdProducts);
+                    if (!isUnchanged(delta)) {
+                        pending.add(delta);
+                        productIds.add(priceUpdate.productId());
+                    }
+                }
+                return new DeferredDeltas(pending, productIds.isEmpty() ? Map.of() : repository.markAggregatesDirty(connection, productIds));
+            });
+            recordPersisted(priceUpdates);
+            announceCreated(createdProducts);
+            if (deferred.deltas().isEmpty()) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            log.debug("PriceCalculationService: Persisted batch of {} updates, aggregates deferred to write-behind", priceUpdates.size());
+            return aggregateWriteBehindBuffer.add(deferred.deltas(), deferred.dirtyMarks());
+        });
+    }
+
+    private record DeferredDeltas(List<AggregateDelta> deltas, Map<Long, Long> dirtyMarks) {
+    }
+
+    private Long applyPriceUpdate(Connection connection, PriceUpdate priceUpdate, int manufacturerId, Set<Long> createdProducts) {
+        return applyAggregateDelta(connection, priceUpdate, upsertPriceAndComputeDelta(connection, priceUpdate, manufacturerId, createdProducts));
+    }
+
+    private Long applyAggregateDelta(Connection connection, PriceUpdate priceUpdate, AggregateDelta delta) {
+        int stripe = aggregateStripingManager != null
+                ? aggregateStripingManager.stripeFor(priceUpdate.productId(), priceUpdate.manufacturerName())
+                : -1;
+        if (stripe >= 0) {
+            return repository.updateAggregateStripe(connection, priceUpdate.productId(), stripe, delta.deltaSumCents(), delta.deltaCount());
+        }
+        long initialAvgCents = (delta.deltaCount() > 0) ? delta.deltaSumCents() : 0L;
+        long startNanos = System.nanoTime();
+        Long average = repository.updateAggregatesAtomically(connection, priceUpdate.productId(), initialAvgCents, delta.deltaSumCents(), delta.deltaCount());
+        if (aggregateStripingManager != null) {
+            aggregateStripingManager.recordAggregateUpdate(priceUpdate.productId(), System.nanoTime() - startNanos);
+        }
+        return average;
+    }
+
+    private AggregateDelta upsertPriceAndComputeDelta(Connection connection, PriceUpdate priceUpdate, int manufacturerId,
+                                                      Set<Long> createdProducts) {
+        Long oldPriceForVendor = vendorPriceMemo != null
+                ? vendorPriceMemo.lastPersistedPrice(priceUpdate.productId(), priceUpdate.manufacturerName())
+                : null;
+        if (oldPriceForVendor != null) {
+            boolean applied = repository.updatePriceIfUnchanged(connection, priceUpdate, manufacturerId, oldPriceForVendor);
+            vendorPriceMemo.recordConditionalUpdate(applied, oldPriceForVendor == priceUpdate.priceCents());
+            if (!applied) {
+                oldPriceForVendor = null;
+            }
+        }
+        if (oldPriceForVendor == null) {
+            if (repository.upsertProduct(connection, priceUpdate.productId(), "Unknown Product Name")) {
+                createdProducts.add(priceUpdate.productId());
+            }
+            oldPriceForVendor = repository.getOldPriceForVendorProduct(connection, priceUpdate.productId(), manufacturerId);
+            repository.upsertPrice(connection, priceUpdate, manufacturerId);
+        }
+
+        final long deltaSumCents;
+        final long deltaCount;
+
+        if (oldPriceForVendor != null) {
+            deltaSumCents = priceUpdate.priceCents() - oldPriceForVendor;
+            deltaCount = 0L;
+        } else {
+            deltaSumCents = priceUpdate.priceCents();
+            deltaCount = 1L;
+        }
+
+        return new AggregateDelta(priceUpdate.productId(), deltaSumCents, deltaCount);
+    }
+
+    private Map<String, Integer> resolveManufacturerIds(List<PriceUpdate> priceUpdates) {
+        Set<String> manufacturerNames = new HashSet<>();
+        for (PriceUpdate priceUpdate : priceUpdates) {
+            manufacturerNames.add(priceUpdate.manufacturerName());
+        }
+        return manufacturerDictionary.resolve(manufacturerNames);
+    }
+
+    private static boolean isUnchanged(AggregateDelta delta) {
+        return delta.deltaSumCents() == 0 && delta.deltaCount() == 0;
+    }
+
+    private void announceCreated(Set<Long> createdProducts) {
+        if (productIdBloomFilter != null && !createdProducts.isEmpty()) {
+            productIdBloomFilter.announce(createdProducts);
+        }
+    }
+
+    private void recordPersisted(List<PriceUpdate> priceUpdates) {
+        if (vendorPriceMemo != null) {
+            vendorPriceMemo.recordPersisted(priceUpdates);
+        }
+    }
+}
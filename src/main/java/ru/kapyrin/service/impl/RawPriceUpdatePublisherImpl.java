@@ -1,38 +1,65 @@
 package ru.kapyrin.service.impl;
 
-import com.rabbitmq.client.AMQP;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rabbitmq.client.Channel;
-import io.vertx.core.json.DecodeException;
-import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
+import com.rabbitmq.client.ShutdownSignalException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.config.PropertiesLoader;
 import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.PriceUpdate;
 import ru.kapyrin.service.MetricsService;
+import ru.kapyrin.service.PriceUpdateValidator;
 import ru.kapyrin.service.RawPriceUpdatePublisher;
+import ru.kapyrin.util.PriceUpdateBinaryCodec;
+import ru.kapyrin.util.SpillJournal;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @RequiredArgsConstructor
 public class RawPriceUpdatePublisherImpl implements RawPriceUpdatePublisher {
+    private static final TypeReference<List<PriceUpdate>> PRICE_UPDATES_TYPE = new TypeReference<>() {};
     private final MetricsService metricsService;
     private final Channel channel;
     private final String exchangeName;
     private final String rawRoutingKey;
+    private final String dlqName;
     private final PropertiesLoader propertiesLoader;
+    private final PriceUpdateValidator validator;
+    private final boolean binaryWireFormat;
+    private final int compressionThresholdBytes;
+    private final SpillJournal spillJournal;
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+    private final Counter rejectedAtIngest = Metrics.counter("price_updates_rejected_at_ingest_total");
+    private final Counter publishedBytes = Metrics.counter("rabbitmq_published_bytes_total");
+    private final Counter spilledMessages = Metrics.counter("ingest_spill_publish_fallbacks_total");
 
-    public RawPriceUpdatePublisherImpl(RabbitMQConfig rabbitMQConfig, MetricsService metricsService, PropertiesLoader propertiesLoader) {
+    public RawPriceUpdatePublisherImpl(RabbitMQConfig rabbitMQConfig, MetricsService metricsService, PropertiesLoader propertiesLoader,
+                                       PriceUpdateValidator validator, SpillJournal spillJournal) {
         this.metricsService = metricsService;
         this.exchangeName = rabbitMQConfig.getExchangeName();
         this.rawRoutingKey = rabbitMQConfig.getRawRoutingKey();
+        this.dlqName = rabbitMQConfig.getDlqName();
         this.propertiesLoader = propertiesLoader;
+        this.validator = validator;
+        this.binaryWireFormat = "binary".equalsIgnoreCase(propertiesLoader.getProperty("rabbitmq.wire.format", "binary"));
+        this.compressionThresholdBytes = propertiesLoader.getIntProperty("rabbitmq.wire.compression.threshold.bytes", 8192);
+        this.spillJournal = spillJournal;
         try {
-            this.channel = rabbitMQConfig.getConnection().createChannel();
+            this.channel = rabbitMQConfig.getConnection(RabbitMQConfig.Role.PUBLISH).createChannel();
             channel.confirmSelect();
-            log.info("RawPriceUpdatePublisherImpl initialized with Publisher Confirms");
+            log.info("RawPriceUpdatePublisherImpl initialized with Publisher Confirms, wireFormat={}", binaryWireFormat ? "binary" : "json");
         } catch (IOException e) {
             log.error("Failed to initialize RabbitMQ channel: {}", e.getMessage());
             throw new RuntimeException("Failed to initialize RawPriceUpdatePublisher", e);
@@ -41,17 +68,10 @@ public class RawPriceUpdatePublisherImpl implements RawPriceUpdatePublisher {
 
     @Override
     public void publishRawPriceUpdate(String rawJsonBody) {
-        int confirmTimeoutMs = propertiesLoader.getIntProperty("rabbitmq.confirm.timeout.ms", 5000);
         try {
             metricsService.recordPostRequest();
-            validateRawPriceUpdate(rawJsonBody);
-            channel.basicPublish(exchangeName, rawRoutingKey, new AMQP.BasicProperties.Builder().deliveryMode(2).build(), rawJsonBody.getBytes("UTF-8"));
-            if (channel.waitForConfirms(confirmTimeoutMs)) {
-                log.debug("Published message to RabbitMQ, size={} bytes", rawJsonBody.length());
-            } else {
-                log.warn("Message not confirmed by RabbitMQ within {}ms, size={} bytes", confirmTimeoutMs, rawJsonBody.length());
-                metricsService.recordPostError();
-            }
+            List<PriceUpdate> updates = parseRawPriceUpdate(rawJsonBody);
+            send(binaryWireFormat ? binaryMessages(updates) : List.of(jsonMessage(rawJsonBody.getBytes(StandardCharsets.UTF_8))));
         } catch (IOException | InterruptedException | TimeoutException e) {
             log.error("Failed to publish message to RabbitMQ: {}", e.getMessage());
             metricsService.recordPostError();
@@ -59,28 +79,135 @@ public class RawPriceUpdatePublisherImpl implements RawPriceUpdatePublisher {
         }
     }
 
+    @Override
+    public void publishPriceUpdates(List<PriceUpdate> validatedUpdates) {
+        if (validatedUpdates.isEmpty()) {
+            return;
+        }
+        try {
+            metricsService.recordBatchSize(validatedUpdates.size());
+            if (binaryWireFormat) {
+                send(List.of(binaryMessage(PriceUpdateBinaryCodec.encode(validatedUpdates, compressionThresholdBytes))));
+            } else {
+                send(List.of(jsonMessage(objectMapper.writeValueAsBytes(validatedUpdates))));
+            }
+        } catch (IOException | InterruptedException | TimeoutException e) {
+            log.error("Failed to publish batch of {} price updates to RabbitMQ: {}", validatedUpdates.size(), e.getMessage());
+            metricsService.recordPostError();
+            throw new RuntimeException("Failed to publish price updates", e);
+        }
+    }
+
+    private void send(List<SpillJournal.Entry> messages) throws IOException, InterruptedException, TimeoutException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (!spillJournal.isEnabled()) {
+            if (!publish(messages, propertiesLoader.getIntProperty("rabbitmq.confirm.timeout.ms", 5000))) {
+                throw new PriceUpdateException("RabbitMQ rejected " + messages.size() + " published messages");
+            }
+            return;
+        }
+        if (!spillJournal.isEmpty() || !channel.isOpen()) {
+            spill(messages);
+            return;
+        }
+        try {
+            if (!publish(messages, propertiesLoader.getIntProperty("ingest.spill.confirm.timeout.ms", 500))) {
+                spill(messages);
+            }
+        } catch (IOException | TimeoutException | ShutdownSignalException e) {
+            log.warn("RabbitMQ publish failed, spilling {} messages to the local journal: {}", messages.size(), e.getMessage());
+            spill(messages);
+        }
+    }
+
+    private boolean publish(List<SpillJournal.Entry> messages, int confirmTimeoutMs) throws IOException, InterruptedException, TimeoutException {
+        int publishedSize = 0;
+        for (SpillJournal.Entry message : messages) {
+            channel.basicPublish(message.deadLetter() ? "" : exchangeName, message.deadLetter() ? dlqName : rawRoutingKey,
+                    message.properties(), message.body());
+            publishedSize += message.body().length;
+        }
+        publishedBytes.increment(publishedSize);
+        if (channel.waitForConfirms(confirmTimeoutMs)) {
+            log.debug("Published message to RabbitMQ, size={} bytes", publishedSize);
+            return true;
+        }
+        log.warn("Message nacked by RabbitMQ, size={} bytes", publishedSize);
+        metricsService.recordPostError();
+        return false;
+    }
+
+    private void spill(List<SpillJournal.Entry> messages) throws IOException {
+        spillJournal.append(messages);
+        spilledMessages.increment(messages.size());
+    }
+
     @Override
     public void validateRawPriceUpdate(String rawJsonBody) {
+        parseRawPriceUpdate(rawJsonBody);
+    }
+
+    private List<PriceUpdate> parseRawPriceUpdate(String rawJsonBody) {
         if (rawJsonBody == null || rawJsonBody.isEmpty()) {
             log.warn("Received empty price update body");
             metricsService.recordPostError();
             throw new IllegalArgumentException("Request body cannot be empty");
         }
+        if (rawJsonBody.length() > propertiesLoader.getLongProperty("max.body.size", 3_000_000L)) {
+            log.warn("Batch size exceeds limit of 3 MB, size={} bytes", rawJsonBody.length());
+            metricsService.recordPostError();
+            throw new IllegalArgumentException("Batch size exceeds limit of 3 MB");
+        }
+        String trimmed = rawJsonBody.stripLeading();
+        if (trimmed.isEmpty()) {
+            metricsService.recordPostError();
+            throw new IllegalArgumentException("Request body cannot be empty");
+        }
+        if (trimmed.charAt(0) != '[' && trimmed.charAt(0) != '{') {
+            metricsService.recordPostError();
+            throw new IllegalArgumentException("Invalid JSON: expected array or object at top-level");
+        }
         try {
-            int batchCount = computeBatchSize(rawJsonBody);
-//            Json.decodeValue(rawJsonBody);
-            if (rawJsonBody.length() > propertiesLoader.getLongProperty("max.body.size", 3_000_000L)) {
-                log.warn("Batch size exceeds limit of 3 MB, size={} bytes", rawJsonBody.length());
-                metricsService.recordPostError();
-                throw new IllegalArgumentException("Batch size exceeds limit of 3 MB");
-            }
-            metricsService.recordBatchSize(batchCount);
-
-        } catch (DecodeException e) {
-            log.warn("Invalid JSON format, size={} bytes: {}", rawJsonBody.length(), e.getMessage());
+            List<PriceUpdate> updates = objectMapper.readValue(rawJsonBody, PRICE_UPDATES_TYPE);
+            metricsService.recordBatchSize(updates.size());
+            return updates;
+        } catch (JsonProcessingException e) {
+            log.warn("Invalid JSON format, size={} bytes: {}", rawJsonBody.length(), e.getOriginalMessage());
             metricsService.recordPostError();
-            throw new IllegalArgumentException("Invalid JSON format: " + e.getMessage());
+            throw new IllegalArgumentException("Invalid JSON format: " + e.getOriginalMessage());
+        }
+    }
+
+    private SpillJournal.Entry jsonMessage(byte[] body) {
+        return new SpillJournal.Entry(false, false, false, body);
+    }
+
+    private SpillJournal.Entry binaryMessage(PriceUpdateBinaryCodec.Encoded encoded) {
+        return new SpillJournal.Entry(false, true, encoded.contentEncoding() != null, encoded.body());
+    }
+
+    private List<SpillJournal.Entry> binaryMessages(List<PriceUpdate> updates) {
+        List<PriceUpdate> validUpdates = new ArrayList<>(updates.size());
+        List<PriceUpdate> invalidUpdates = new ArrayList<>();
+        for (PriceUpdate update : updates) {
+            try {
+                validator.validatePriceUpdate(update);
+                validUpdates.add(update);
+            } catch (PriceUpdateException e) {
+                invalidUpdates.add(update);
+            }
         }
+        List<SpillJournal.Entry> messages = new ArrayList<>(2);
+        if (!invalidUpdates.isEmpty()) {
+            rejectedAtIngest.increment(invalidUpdates.size());
+            messages.add(new SpillJournal.Entry(true, true, false, PriceUpdateBinaryCodec.encode(invalidUpdates)));
+        }
+        if (!validUpdates.isEmpty()) {
+            messages.add(binaryMessage(PriceUpdateBinaryCodec.encode(validUpdates, compressionThresholdBytes)));
+        }
+        return messages;
     }
 
     @Override
@@ -95,22 +222,4 @@ public class RawPriceUpdatePublisherImpl implements RawPriceUpdatePublisher {
         }
         log.info("RawPriceUpdatePublisher shutdown complete");
     }
-
-    private int computeBatchSize(String rawJsonBody) {
-        String s = rawJsonBody.stripLeading();
-        if (s.isEmpty()) {
-            throw new IllegalArgumentException("Request body cannot be empty");
-        }
-        char first = s.charAt(0);
-        if (first == '[') {
-            return new JsonArray(s).size();
-        } else if (first == '{') {
-
-            new JsonObject(s);
-            return 1;
-        } else {
-            throw new IllegalArgumentException("Invalid JSON: expected array or object at top-level");
-        }
-    }
-
 }
\ No newline at end of file
@@ -1,7 +1,9 @@
 package ru.kapyrin.task;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.DeliverCallback;
 import io.micrometer.core.instrument.Counter;
@@ -11,14 +13,23 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.config.PropertiesLoader;
 import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.exception.DatabaseOverloadedException;
 import ru.kapyrin.exception.PriceUpdateException;
 import ru.kapyrin.model.PriceUpdate;
 import ru.kapyrin.service.PriceCalculationService;
 import ru.kapyrin.service.PriceUpdateValidator;
+import ru.kapyrin.util.DlqPublisher;
+import ru.kapyrin.util.PrefetchTuner;
+import ru.kapyrin.util.PriceUpdateBinaryCodec;
+import ru.kapyrin.util.ProductPartitioner;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -26,13 +37,16 @@ import java.util.concurrent.Executors;
 @Slf4j
 @RequiredArgsConstructor
 public class PriceUpdateConsumerTask implements Runnable{
+    private static final String FAILURE_VALIDATION = "validation";
+    private static final String FAILURE_PERSISTENCE = "persistence";
     private final RabbitMQConfig rabbitMQConfig;
     private final ExecutorService validationExecutor;
     private final ExecutorService dbExecutor;
     private final PriceCalculationService priceCalculationService;
     private final PriceUpdateValidator validator;
     private final PropertiesLoader propertiesLoader;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ProductPartitioner productPartitioner;
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
     private final Timer validationTimer = Metrics.timer("price_update_validation_time");
     private final Timer dbTimer = Metrics.timer("price_update_db_time");
     private final Counter processedMessages = Metrics.counter("rabbitmq_messages_processed");
@@ -41,11 +55,14 @@ public class PriceUpdateConsumerTask implements Runnable{
     private final Counter updatesSucceeded = Metrics.counter("price_updates_succeeded_total");
     private final Counter updatesFailed = Metrics.counter("price_updates_failed_total");
     private final Counter dbRetriesTotal = Metrics.counter("db_retries_total");
+    private final Counter batchFallbacks = Metrics.counter("db_batch_fallbacks_total");
+    private final Counter requeuedOnOverload = Metrics.counter("rabbitmq_messages_requeued_on_db_overload_total");
     private final int maxRetries;
-    private final int prefetch;
+    private final PrefetchTuner prefetchTuner;
     private volatile Channel channel;
     private volatile String consumerTag;
     private final ExecutorService ackExecutor = Executors.newSingleThreadExecutor();
+    private final DlqPublisher dlqPublisher;
 
 
     public PriceUpdateConsumerTask(
@@ -54,33 +71,40 @@ public class PriceUpdateConsumerTask implements Runnable{
             ExecutorService dbExecutor,
             PriceCalculationService priceCalculationService,
             PriceUpdateValidator validator,
-            PropertiesLoader propertiesLoader) {
+            PropertiesLoader propertiesLoader,
+            ProductPartitioner productPartitioner) {
         this.rabbitMQConfig = rabbitMQConfig;
         this.validationExecutor = validationExecutor;
         this.dbExecutor = dbExecutor;
         this.priceCalculationService = priceCalculationService;
         this.validator = validator;
         this.propertiesLoader = propertiesLoader;
+        this.productPartitioner = productPartitioner;
         this.maxRetries = Math.max(1, propertiesLoader.getIntProperty("db.retry.max.attempts", 3));
-        this.prefetch = Math.max(1, propertiesLoader.getIntProperty("rabbitmq.prefetch", 50));
-        log.info("PriceUpdateConsumerTask initialized for queue '{}', prefetch={}, maxRetries={}", rabbitMQConfig.getRawQueueName(), prefetch, maxRetries);
+        this.prefetchTuner = new PrefetchTuner(propertiesLoader);
+        this.dlqPublisher = new DlqPublisher(rabbitMQConfig, propertiesLoader);
+        log.info("PriceUpdateConsumerTask initialized for queue '{}', prefetch={}, maxRetries={}", rabbitMQConfig.getRawQueueName(), prefetchTuner.prefetch(), maxRetries);
     }
 
     @Override
     public void run() {
-        log.info("PriceUpdateConsumerTask started, prefetch={}, maxRetries={}", prefetch, maxRetries);
+        log.info("PriceUpdateConsumerTask started, prefetch={}, maxRetries={}", prefetchTuner.prefetch(), maxRetries);
         configureConsumer();
     }
 
     private void configureConsumer() {
         try {
-            channel = rabbitMQConfig.getConnection().createChannel();
-            channel.basicQos(prefetch);
+            channel = rabbitMQConfig.getConnection(RabbitMQConfig.Role.CONSUME).createChannel();
+            prefetchTuner.apply(channel);
+            dlqPublisher.open();
             DeliverCallback deliverCallback = (consumerTag, delivery) -> {
                 this.consumerTag = consumerTag;
+                final long receivedNanos = System.nanoTime();
+                prefetchTuner.onDelivered();
                 final long deliveryTag = delivery.getEnvelope().getDeliveryTag();
                 final byte[] body = delivery.getBody();
-                validationExecutor.submit(() -> processMessage(deliveryTag, body));
+                final AMQP.BasicProperties properties = delivery.getProperties();
+                validationExecutor.submit(() -> processMessage(deliveryTag, body, properties, receivedNanos));
             };
             channel.basicConsume(rabbitMQConfig.getRawQueueName(), false, deliverCallback, tag -> {});
         } catch (IOException e) {
@@ -89,66 +113,142 @@ public class PriceUpdateConsumerTask implements Runnable{
         }
     }
 
-    private void processMessage(long deliveryTag, byte[] body) {
+    private void processMessage(long deliveryTag, byte[] body, AMQP.BasicProperties properties, long receivedNanos) {
         Timer.Sample sample = Timer.start();
+        long startedNanos = System.nanoTime();
         try {
-            String jsonBody = new String(body, StandardCharsets.UTF_8);
-            List<PriceUpdate> updates = objectMapper.readValue(jsonBody, new TypeReference<>() {});
+            boolean binary = properties != null && PriceUpdateBinaryCodec.isBinary(properties.getContentType());
+            List<PriceUpdate> updates = binary
+                    ? PriceUpdateBinaryCodec.decode(body, properties.getContentEncoding())
+                    : objectMapper.readValue(new String(body, StandardCharsets.UTF_8), new TypeReference<>() {});
             if (updates == null || updates.isEmpty()) {
                 log.warn("Empty or null price updates, rejecting, deliveryTag={}", deliveryTag);
                 errorMessages.increment();
-                ackExecutor.submit(() -> basicRejectNoRequeue(deliveryTag));
+                ackExecutor.submit(() -> {
+                    basicRejectNoRequeue(deliveryTag);
+                    settled(receivedNanos, startedNanos);
+                });
                 return;
             }
 
-            for (PriceUpdate update : updates) {
+            Map<DlqPublisher.Failure, List<PriceUpdate>> failures = new LinkedHashMap<>();
+            List<PriceUpdate> validUpdates = filterValid(updates, failures);
+            List<CompletableFuture<Void>> aggregateFlushes = new ArrayList<>();
+
+            for (List<PriceUpdate> batch : productPartitioner.groupByPartition(validUpdates)) {
                 try {
-                    validator.validatePriceUpdate(update);
-                    processDbWithRetry(update);
-                } catch (PriceUpdateException e) {
-                    log.warn("Validation failed for productId={}: {}", update.productId(), e.getMessage());
-                    invalidUpdates.increment();
-                    submitOnAckExecutor(() -> publishUpdateToDlq(update));
+                    aggregateFlushes.add(processDbWithRetry(batch));
                 } catch (Exception ex) {
-                    log.error("DB processing failed for productId={}: {}", update.productId(), ex.getMessage());
-                    updatesFailed.increment();
-                    submitOnAckExecutor(() -> publishUpdateToDlq(update));
+                    if (isOverloaded(ex)) {
+                        requeueOnOverload(deliveryTag, ex, receivedNanos, startedNanos);
+                        return;
+                    }
+                    if (batch.size() == 1) {
+                        PriceUpdate update = batch.get(0);
+                        log.error("DB processing failed for productId={}: {}", update.productId(), ex.getMessage());
+                        updatesFailed.increment();
+                        addFailure(failures, persistenceFailure(ex), update);
+                        continue;
+                    }
+                    log.warn("DB processing failed for batch of {} updates, retrying individually: {}", batch.size(), ex.getMessage());
+                    batchFallbacks.increment();
+                    for (PriceUpdate update : batch) {
+                        try {
+                            aggregateFlushes.add(processDbWithRetry(List.of(update)));
+                        } catch (Exception itemEx) {
+                            if (isOverloaded(itemEx)) {
+                                requeueOnOverload(deliveryTag, itemEx, receivedNanos, startedNanos);
+                                return;
+                            }
+                            log.error("DB processing failed for productId={}: {}", update.productId(), itemEx.getMessage());
+                            updatesFailed.increment();
+                            addFailure(failures, persistenceFailure(itemEx), update);
+                        }
+                    }
                 }
             }
 
-            submitOnAckExecutor(() -> {
-                try {
-                    processedMessages.increment();
-                    channel.basicAck(deliveryTag, false);
-                } catch (IOException ioe) {
-                    log.error("Failed to ack message, deliveryTag={}: {}", deliveryTag, ioe.getMessage());
+            CompletableFuture<Void> dlqWritten = dlqPublisher.publish(failures, consumerTag, deliveryTag, properties);
+            CompletableFuture.allOf(aggregateFlushes.toArray(CompletableFuture[]::new)).whenComplete((v, flushError) -> {
+                if (flushError != null) {
+                    log.warn("Aggregates not flushed, requeueing deliveryTag={}, dirty products are repaired by the reconciler: {}",
+                            deliveryTag, flushError.getMessage());
+                    submitOnAckExecutor(() -> {
+                        basicNackRequeue(deliveryTag);
+                        settled(receivedNanos, startedNanos);
+                    });
+                    return;
                 }
+                dlqWritten.whenComplete((written, dlqError) -> {
+                    if (dlqError != null) {
+                        log.warn("Failed items not confirmed by DLQ, requeueing deliveryTag={}: {}", deliveryTag, dlqError.getMessage());
+                        submitOnAckExecutor(() -> {
+                            basicNackRequeue(deliveryTag);
+                            settled(receivedNanos, startedNanos);
+                        });
+                        return;
+                    }
+                    submitOnAckExecutor(() -> {
+                        try {
+                            processedMessages.increment();
+                            channel.basicAck(deliveryTag, false);
+                        } catch (IOException ioe) {
+                            log.error("Failed to ack message, deliveryTag={}: {}", deliveryTag, ioe.getMessage());
+                        }
+                        settled(receivedNanos, startedNanos);
+                    });
+                });
             });
 
         } catch (IOException e) {
             log.error("Failed to deserialize message, deliveryTag={}: {}", deliveryTag, e.getMessage());
             errorMessages.increment();
-            ackExecutor.submit(() -> basicRejectNoRequeue(deliveryTag));
+            ackExecutor.submit(() -> {
+                basicRejectNoRequeue(deliveryTag);
+                settled(receivedNanos, startedNanos);
+            });
+        } catch (RuntimeException e) {
+            log.error("Unexpected failure processing message, rejecting deliveryTag={}", deliveryTag, e);
+            errorMessages.increment();
+            submitOnAckExecutor(() -> {
+                basicRejectNoRequeue(deliveryTag);
+                settled(receivedNanos, startedNanos);
+            });
         } finally {
             sample.stop(validationTimer);
         }
     }
 
-    private void processDbWithRetry(PriceUpdate update) {
+    private List<PriceUpdate> filterValid(List<PriceUpdate> updates, Map<DlqPublisher.Failure, List<PriceUpdate>> failures) {
+        List<PriceUpdate> validUpdates = new ArrayList<>(updates.size());
+        for (PriceUpdate update : updates) {
+            try {
+                validator.validatePriceUpdate(update);
+                validUpdates.add(update);
+            } catch (PriceUpdateException e) {
+                log.warn("Validation failed for productId={}: {}", update.productId(), e.getMessage());
+                invalidUpdates.increment();
+                addFailure(failures, new DlqPublisher.Failure(FAILURE_VALIDATION, e.getMessage(), 1), update);
+            }
+        }
+        return validUpdates;
+    }
+
+    private CompletableFuture<Void> processDbWithRetry(List<PriceUpdate> batch) {
         Timer.Sample dbSample = Timer.start();
         int attempt = 0;
         long backoffMs = 300L;
         while (true) {
             attempt++;
             try {
-                CompletableFuture.runAsync(() -> priceCalculationService.calculateAndPersistAveragePrice(update), dbExecutor).join();
+                CompletableFuture<Void> aggregatesFlushed = CompletableFuture
+                        .supplyAsync(() -> priceCalculationService.persistPriceUpdates(batch), dbExecutor).join();
                 dbSample.stop(dbTimer);
-                updatesSucceeded.increment();
-                return;
+                updatesSucceeded.increment(batch.size());
+                return aggregatesFlushed;
             } catch (Exception e) {
                 if (attempt >= maxRetries) {
-                    log.error("DB failed after {} attempts, product_id={}: {}", attempt, update.productId(), e.getMessage());
-                    updatesFailed.increment();
+                    log.error("DB failed after {} attempts, batch of {} starting at product_id={}: {}", attempt, batch.size(), batch.get(0).productId(), e.getMessage());
                     throw new PriceUpdateException("DB operation failed after max retries", e);
                 }
                 dbRetriesTotal.increment();
@@ -163,12 +263,49 @@ public class PriceUpdateConsumerTask implements Runnable{
         }
     }
 
-    private void publishUpdateToDlq(PriceUpdate update) {
+    private static void addFailure(Map<DlqPublisher.Failure, List<PriceUpdate>> failures, DlqPublisher.Failure failure, PriceUpdate update) {
+        failures.computeIfAbsent(failure, key -> new ArrayList<>()).add(update);
+    }
+
+    private DlqPublisher.Failure persistenceFailure(Exception e) {
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        String rule = cause instanceof SQLException sqlException && sqlException.getSQLState() != null
+                ? "SQLState " + sqlException.getSQLState()
+                : cause.getClass().getSimpleName();
+        return new DlqPublisher.Failure(FAILURE_PERSISTENCE, rule, maxRetries);
+    }
+
+    private static boolean isOverloaded(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof DatabaseOverloadedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void requeueOnOverload(long deliveryTag, Exception e, long receivedNanos, long startedNanos) {
+        log.warn("Database is shedding load, requeueing deliveryTag={}: {}", deliveryTag, e.getMessage());
+        requeuedOnOverload.increment();
+        submitOnAckExecutor(() -> {
+            basicNackRequeue(deliveryTag);
+            settled(receivedNanos, startedNanos);
+        });
+    }
+
+    private void settled(long receivedNanos, long startedNanos) {
+        prefetchTuner.onSettled(receivedNanos, startedNanos);
+        prefetchTuner.maybeRetune(channel);
+    }
+
+    private void basicNackRequeue(long deliveryTag) {
         try {
-            byte[] payload = objectMapper.writeValueAsBytes(update);
-            channel.basicPublish("", rabbitMQConfig.getDlqName(), null, payload);
-        } catch (Exception e) {
-            log.error("Failed to publish item to DLQ, product_id={}: {}", update.productId(), e.getMessage());
+            channel.basicNack(deliveryTag, false, true);
+        } catch (IOException e) {
+            log.error("Failed to nack message, deliveryTag={}: {}", deliveryTag, e.getMessage());
         }
     }
 
@@ -211,5 +348,7 @@ public class PriceUpdateConsumerTask implements Runnable{
             log.warn("Channel close failed: {}", e.getMessage());
         }
         ackExecutor.shutdownNow();
+        dlqPublisher.close();
+        prefetchTuner.close();
     }
 }
\ No newline at end of file
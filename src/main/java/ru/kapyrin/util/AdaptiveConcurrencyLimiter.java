@@ -0,0 +1,224 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.DatabaseOverloadedException;
+import ru.kapyrin.exception.PriceUpdateException;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Vegas-style concurrency limit with a circuit breaker. The limit grows by log10(limit) while the
+ * estimated queue {@code limit * (1 - noLoadRtt / rtt)} stays under 3*log10(limit), and shrinks once it
+ * exceeds 6*log10(limit) or a call fails with a connection-level error. Callers over the limit wait up
+ * to {@code max.wait.ms} and are then shed; after {@code failure.threshold} consecutive connection-level
+ * failures every call fails fast for {@code open.ms}, then a single trial call decides whether to close.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+    public enum CircuitState { CLOSED, HALF_OPEN, OPEN }
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+    private final long noLoadRttWindowNanos;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Counter shedByLimit;
+    private final Counter shedByCircuit;
+    private volatile double limit;
+    private volatile int inFlight;
+    private long noLoadRttNanos = Long.MAX_VALUE;
+    private long noLoadRttSince;
+    private volatile CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public AdaptiveConcurrencyLimiter(String name, PropertiesLoader propertiesLoader) {
+        String prefix = "db.limiter." + name + ".";
+        this.name = name;
+        this.minLimit = Math.max(1, propertiesLoader.getIntProperty(prefix + "min.limit", 2));
+        this.maxLimit = Math.max(minLimit, propertiesLoader.getIntProperty(prefix + "max.limit", 200));
+        this.limit = Math.min(maxLimit, Math.max(minLimit, propertiesLoader.getIntProperty(prefix + "initial.limit", 20)));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, propertiesLoader.getLongProperty(prefix + "max.wait.ms", 100L)));
+        this.noLoadRttWindowNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(1L, propertiesLoader.getLongProperty("db.limiter.no.load.rtt.window.ms", 30_000L)));
+        this.failureThreshold = Math.max(1, propertiesLoader.getIntProperty("db.limiter.failure.threshold", 5));
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, propertiesLoader.getLongProperty("db.limiter.open.ms", 5_000L)));
+        this.shedByLimit = Metrics.counter("db_requests_shed_total", "class", name, "reason", "limit");
+        this.shedByCircuit = Metrics.counter("db_requests_shed_total", "class", name, "reason", "circuit_open");
+        Gauge.builder("db_concurrency_limit", () -> limit)
+                .description("Adaptive concurrency limit for database calls")
+                .tag("class", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("db_concurrency_in_flight", () -> inFlight)
+                .description("Database calls currently holding a concurrency permit")
+                .tag("class", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("db_circuit_state", () -> state.ordinal())
+                .description("Database circuit breaker state (0 = closed, 1 = half-open, 2 = open)")
+                .tag("class", name)
+                .register(Metrics.globalRegistry);
+    }
+
+    public <T> T execute(Supplier<T> call) {
+        long startedNanos = acquire(maxWaitNanos);
+        boolean healthy = true;
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            healthy = !isConnectionFailure(e);
+            throw e;
+        } finally {
+            release(System.nanoTime() - startedNanos, healthy);
+        }
+    }
+
+    /**
+     * For event-loop callers: a call over the limit is shed at once instead of waiting, and the permit is
+     * held until the returned stage completes. {@code connectionFailure} classifies the driver's async errors.
+     */
+    public <T> CompletionStage<T> executeAsync(Supplier<? extends CompletionStage<T>> call, Predicate<Throwable> connectionFailure) {
+        long startedNanos = acquire(0L);
+        CompletionStage<T> stage;
+        try {
+            stage = call.get();
+        } catch (RuntimeException e) {
+            release(System.nanoTime() - startedNanos, !connectionFailure.test(e));
+            throw e;
+        }
+        return stage.whenComplete((result, e) -> release(System.nanoTime() - startedNanos, e == null || !connectionFailure.test(e)));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public CircuitState getState() {
+        return state;
+    }
+
+    private long acquire(long maxWaitNanos) {
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (true) {
+                if (state == CircuitState.OPEN) {
+                    if (System.nanoTime() - openedAt < openNanos) {
+                        shedByCircuit.increment();
+                        throw new DatabaseOverloadedException("Database circuit for " + name + " calls is open");
+                    }
+                    state = CircuitState.HALF_OPEN;
+                    trialInFlight = false;
+                }
+                if (state == CircuitState.HALF_OPEN) {
+                    if (trialInFlight) {
+                        shedByCircuit.increment();
+                        throw new DatabaseOverloadedException("Database circuit for " + name + " calls is half-open");
+                    }
+                    trialInFlight = true;
+                    break;
+                }
+                if (inFlight < (int) limit) {
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    shedByLimit.increment();
+                    throw new DatabaseOverloadedException("Database " + name + " concurrency limit of " + (int) limit + " reached");
+                }
+                released.awaitNanos(remaining);
+            }
+            inFlight++;
+            return System.nanoTime();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PriceUpdateException("Interrupted while waiting for a database permit", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long rttNanos, boolean healthy) {
+        lock.lock();
+        try {
+            int concurrency = inFlight--;
+            if (healthy) {
+                onSuccess(Math.max(1L, rttNanos), concurrency);
+            } else {
+                onFailure();
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(long rttNanos, int concurrency) {
+        consecutiveFailures = 0;
+        if (state == CircuitState.HALF_OPEN) {
+            state = CircuitState.CLOSED;
+            trialInFlight = false;
+            log.info("Database circuit for {} calls closed", name);
+        }
+        long now = System.nanoTime();
+        if (noLoadRttNanos == Long.MAX_VALUE || now - noLoadRttSince >= noLoadRttWindowNanos) {
+            noLoadRttNanos = rttNanos;
+            noLoadRttSince = now;
+        } else {
+            noLoadRttNanos = Math.min(noLoadRttNanos, rttNanos);
+        }
+        double step = Math.max(1.0, Math.log10(limit));
+        double queued = limit * (1.0 - (double) noLoadRttNanos / rttNanos);
+        if (queued <= 3 * step && concurrency * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + step);
+        } else if (queued >= 6 * step) {
+            limit = Math.max(minLimit, limit - step);
+        }
+    }
+
+    private void onFailure() {
+        limit = Math.max(minLimit, limit * 0.9);
+        if (state == CircuitState.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            if (state != CircuitState.OPEN) {
+                log.warn("Database circuit for {} calls opened after {} connection failures, fast-failing for {} ms",
+                        name, Math.max(1, consecutiveFailures), TimeUnit.NANOSECONDS.toMillis(openNanos));
+            }
+            state = CircuitState.OPEN;
+            openedAt = System.nanoTime();
+            trialInFlight = false;
+        }
+    }
+
+    static boolean isConnectionFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException
+                    || cause instanceof SQLTimeoutException) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null) {
+                String sqlState = sqlException.getSQLState();
+                if (sqlState.startsWith("08") || sqlState.startsWith("53") || sqlState.startsWith("57P")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
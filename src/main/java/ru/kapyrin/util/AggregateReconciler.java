@@ -0,0 +1,206 @@
+package ru.kapyrin.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.model.AggregateCorrection;
+import ru.kapyrin.model.ProductIdRange;
+import ru.kapyrin.repository.PriceRepository;
+import ru.kapyrin.service.PriceAverageCalculator;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Slf4j
+public class AggregateReconciler {
+    private final PriceRepository priceRepository;
+    private final PriceAverageCalculator priceAverageCalculator;
+    private final AggregateWriteBehindBuffer aggregateWriteBehindBuffer;
+    private final HikariPoolMXBean poolMXBean;
+    private final ExecutorService workerExecutor;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final boolean enabled;
+    private final long initialDelayMinutes;
+    private final long intervalMinutes;
+    private final long chunkSize;
+    private final int parallelism;
+    private final int maxAwaitingConnections;
+    private final long slowChunkMs;
+    private final long pauseMs;
+    private final long dirtyIntervalSeconds;
+    private final long dirtyMinAgeSeconds;
+    private final int dirtyBatchSize;
+    private final Counter chunksReconciled = Metrics.counter("aggregate_reconciler_chunks_total");
+    private final Counter rowsCorrected = Metrics.counter("aggregate_reconciler_rows_corrected_total");
+    private final Counter sumDrift = Metrics.counter("aggregate_reconciler_sum_drift_total");
+    private final Counter countDrift = Metrics.counter("aggregate_reconciler_count_drift_total");
+    private final Counter throttlePauses = Metrics.counter("aggregate_reconciler_throttle_pauses_total");
+    private final Counter chunkErrors = Metrics.counter("aggregate_reconciler_chunk_errors_total");
+    private final Counter dirtyProductsRepaired = Metrics.counter("aggregate_reconciler_dirty_products_repaired_total");
+    private final Timer runTimer = Metrics.timer("aggregate_reconciler_run_time");
+    private volatile long lastChunkMs;
+
+    public AggregateReconciler(PriceRepository priceRepository, PriceAverageCalculator priceAverageCalculator,
+                               AggregateWriteBehindBuffer aggregateWriteBehindBuffer, DataSource dataSource,
+                               ExecutorService workerExecutor, PropertiesLoader propertiesLoader) {
+        this.priceRepository = priceRepository;
+        this.priceAverageCalculator = priceAverageCalculator;
+        this.aggregateWriteBehindBuffer = aggregateWriteBehindBuffer;
+        this.poolMXBean = dataSource instanceof HikariDataSource hikariDataSource ? hikariDataSource.getHikariPoolMXBean() : null;
+        this.workerExecutor = workerExecutor;
+        this.enabled = propertiesLoader.getBooleanProperty("reconciler.enabled", true);
+        this.initialDelayMinutes = propertiesLoader.getLongProperty("reconciler.initial.delay.minutes", 5L);
+        this.intervalMinutes = Math.max(1L, propertiesLoader.getLongProperty("reconciler.interval.minutes", 60L));
+        this.chunkSize = Math.max(1L, propertiesLoader.getLongProperty("reconciler.chunk.size", 10_000L));
+        this.parallelism = Math.max(1, propertiesLoader.getIntProperty("reconciler.parallelism", 4));
+        this.maxAwaitingConnections = Math.max(0, propertiesLoader.getIntProperty("reconciler.throttle.max.awaiting.connections", 0));
+        this.slowChunkMs = propertiesLoader.getLongProperty("reconciler.throttle.slow.chunk.ms", 2_000L);
+        this.pauseMs = Math.max(1L, propertiesLoader.getLongProperty("reconciler.throttle.pause.ms", 500L));
+        this.dirtyIntervalSeconds = Math.max(1L, propertiesLoader.getLongProperty("reconciler.dirty.interval.seconds", 60L));
+        this.dirtyMinAgeSeconds = Math.max(1L, propertiesLoader.getLongProperty("reconciler.dirty.min.age.seconds", 300L));
+        this.dirtyBatchSize = Math.max(1, propertiesLoader.getIntProperty("reconciler.dirty.batch.size", 1000));
+    }
+
+    public void start() {
+        if (!enabled) {
+            log.info("Aggregate reconciler disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::reconcile, initialDelayMinutes, intervalMinutes, TimeUnit.MINUTES);
+        if (aggregateWriteBehindBuffer != null && aggregateWriteBehindBuffer.isEnabled()) {
+            scheduler.scheduleWithFixedDelay(this::repairDirtyProducts, dirtyIntervalSeconds, dirtyIntervalSeconds, TimeUnit.SECONDS);
+        }
+        log.info("Aggregate reconciler scheduled every {} min, chunkSize={}, parallelism={}", intervalMinutes, chunkSize, parallelism);
+    }
+
+    public void reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("Aggregate reconciliation is already running, skipping");
+            return;
+        }
+        Timer.Sample sample = Timer.start();
+        try {
+            Optional<ProductIdRange> range = priceRepository.getProductIdRange();
+            if (range.isEmpty()) {
+                log.debug("No products to reconcile");
+                return;
+            }
+            long minProductId = range.get().minProductId();
+            long maxProductId = range.get().maxProductId();
+            AtomicLong cursor = new AtomicLong(minProductId);
+            AtomicLong corrected = new AtomicLong();
+            List<Callable<Void>> workers = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(() -> {
+                    long from;
+                    while (!Thread.currentThread().isInterrupted()
+                            && (from = cursor.getAndAdd(chunkSize)) <= maxProductId) {
+                        throttle();
+                        long to = Math.min(maxProductId, from + chunkSize - 1);
+                        corrected.addAndGet(reconcileChunk(from, to));
+                    }
+                    return null;
+                });
+            }
+            log.info("Aggregate reconciliation started for product_id range {}..{}", minProductId, maxProductId);
+            workerExecutor.invokeAll(workers);
+            log.info("Aggregate reconciliation finished, corrected {} rows", corrected.get());
+        } catch (InterruptedException e) {
+            log.warn("Aggregate reconciliation interrupted");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Aggregate reconciliation failed: {}", e.getMessage());
+        } finally {
+            sample.stop(runTimer);
+            running.set(false);
+        }
+    }
+
+    /**
+     * Products marked in {@code aggregate_dirty_product} longer than {@code reconciler.dirty.min.age.seconds} ago
+     * had write-behind deltas that no flush applied, because the instance stopped or crashed first. Their
+     * aggregates are recomputed from {@code product_price} and the marks up to the one read are dropped.
+     */
+    public void repairDirtyProducts() {
+        try {
+            Map<Long, Long> dirtyProducts = priceRepository.getDirtyAggregateProducts(dirtyMinAgeSeconds, dirtyBatchSize);
+            if (dirtyProducts.isEmpty()) {
+                return;
+            }
+            int corrected = 0;
+            for (Long productId : dirtyProducts.keySet()) {
+                corrected += reconcileRange(productId, productId);
+            }
+            priceRepository.clearDirtyAggregateProducts(dirtyProducts);
+            dirtyProductsRepaired.increment(dirtyProducts.size());
+            log.info("Repaired aggregates of {} products left dirty by write-behind, corrected {} rows", dirtyProducts.size(), corrected);
+        } catch (Exception e) {
+            log.error("Dirty aggregate repair failed: {}", e.getMessage());
+        }
+    }
+
+    private int reconcileChunk(long from, long to) {
+        long start = System.nanoTime();
+        try {
+            int corrected = reconcileRange(from, to);
+            chunksReconciled.increment();
+            return corrected;
+        } catch (Exception e) {
+            log.error("Failed to reconcile product_id range {}..{}: {}", from, to, e.getMessage());
+            chunkErrors.increment();
+            return 0;
+        } finally {
+            lastChunkMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+
+    private int reconcileRange(long from, long to) {
+        List<AggregateCorrection> corrections = aggregateWriteBehindBuffer != null
+                ? aggregateWriteBehindBuffer.runExclusive(() -> priceRepository.reconcileAggregates(from, to))
+                : priceRepository.reconcileAggregates(from, to);
+        for (AggregateCorrection correction : corrections) {
+            log.warn("Aggregate drift corrected for product_id={}: sumDrift={}, countDrift={}",
+                    correction.productId(), PriceCents.format(correction.sumDriftCents()), correction.countDrift());
+            sumDrift.increment(Math.abs(correction.sumDriftCents()) / 100.0);
+            countDrift.increment(Math.abs(correction.countDrift()));
+            priceAverageCalculator.updateAveragePriceCaches(correction.productId(), null);
+        }
+        rowsCorrected.increment(corrections.size());
+        return corrections.size();
+    }
+
+    private void throttle() throws InterruptedException {
+        while (isDatabaseBusy()) {
+            throttlePauses.increment();
+            Thread.sleep(pauseMs);
+        }
+    }
+
+    private boolean isDatabaseBusy() {
+        if (lastChunkMs > slowChunkMs) {
+            lastChunkMs = 0;
+            return true;
+        }
+        return poolMXBean != null && poolMXBean.getThreadsAwaitingConnection() > maxAwaitingConnections;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        log.info("Aggregate reconciler stopped");
+    }
+}
@@ -0,0 +1,163 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.repository.PriceRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+@Slf4j
+public class AggregateStripingManager {
+    private final PriceRepository priceRepository;
+    private final boolean enabled;
+    private final int stripeCount;
+    private final long lockWaitMinNanos;
+    private final long lockWaitThresholdNanos;
+    private final long windowSeconds;
+    private final long cooldownSeconds;
+    private final long refreshIntervalSeconds;
+    private final long compactionIntervalSeconds;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Long, LongAdder> lockWaits = new ConcurrentHashMap<>();
+    private final Set<Long> activeStripedProducts = ConcurrentHashMap.newKeySet();
+    private final Timer aggregateUpdateTimer = Metrics.timer("aggregate_row_update_time");
+    private final Counter productsStriped = Metrics.counter("aggregate_striping_enabled_total");
+    private final Counter stripesCompacted = Metrics.counter("aggregate_stripe_compactions_total");
+    private final Counter compactionErrors = Metrics.counter("aggregate_stripe_compaction_errors_total");
+    private volatile Map<Long, Integer> stripedProducts = Map.of();
+
+    public AggregateStripingManager(PriceRepository priceRepository, PropertiesLoader propertiesLoader) {
+        this.priceRepository = priceRepository;
+        this.enabled = propertiesLoader.getBooleanProperty("aggregates.striping.enabled", true);
+        this.stripeCount = Math.max(2, propertiesLoader.getIntProperty("aggregates.striping.stripes", 8));
+        this.lockWaitMinNanos = TimeUnit.MILLISECONDS.toNanos(propertiesLoader.getLongProperty("aggregates.striping.lock.wait.min.ms", 5L));
+        this.lockWaitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(1L, propertiesLoader.getLongProperty("aggregates.striping.lock.wait.threshold.ms", 1_000L)));
+        this.windowSeconds = Math.max(1L, propertiesLoader.getLongProperty("aggregates.striping.window.seconds", 10L));
+        this.cooldownSeconds = Math.max(1L, propertiesLoader.getLongProperty("aggregates.striping.cooldown.minutes", 30L)) * 60L;
+        this.refreshIntervalSeconds = Math.max(1L, propertiesLoader.getLongProperty("aggregates.striping.refresh.interval.seconds", 5L));
+        this.compactionIntervalSeconds = Math.max(1L, propertiesLoader.getLongProperty("aggregates.striping.compaction.interval.seconds", 30L));
+        Gauge.builder("aggregate_striped_products", () -> stripedProducts.size())
+                .description("Products whose aggregate row is currently split into stripes")
+                .register(Metrics.globalRegistry);
+    }
+
+    public void start() {
+        if (!enabled) {
+            log.info("Aggregate striping disabled, folding any leftover stripes");
+            scheduler.execute(this::compactQuietly);
+            return;
+        }
+        scheduler.execute(this::refreshQuietly);
+        scheduler.scheduleWithFixedDelay(this::detectQuietly, windowSeconds, windowSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+        log.info("Aggregate striping started: stripes={}, lockWaitThresholdMs={} per {}s, compactionIntervalSeconds={}",
+                stripeCount, TimeUnit.NANOSECONDS.toMillis(lockWaitThresholdNanos), windowSeconds, compactionIntervalSeconds);
+    }
+
+    public int stripeFor(long productId, String manufacturerName) {
+        Integer stripes = stripedProducts.get(productId);
+        if (stripes == null) {
+            return -1;
+        }
+        activeStripedProducts.add(productId);
+        return Math.floorMod(manufacturerName.hashCode(), stripes);
+    }
+
+    public void recordAggregateUpdate(long productId, long elapsedNanos) {
+        aggregateUpdateTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (enabled && elapsedNanos >= lockWaitMinNanos) {
+            lockWaits.computeIfAbsent(productId, id -> new LongAdder()).add(elapsedNanos);
+        }
+    }
+
+    void detectHotProducts() {
+        List<Long> hotProducts = new ArrayList<>();
+        for (Long productId : lockWaits.keySet()) {
+            LongAdder waited = lockWaits.remove(productId);
+            if (waited != null && waited.sum() >= lockWaitThresholdNanos && !stripedProducts.containsKey(productId)) {
+                hotProducts.add(productId);
+            }
+        }
+        List<Long> touched = new ArrayList<>(activeStripedProducts);
+        activeStripedProducts.removeAll(touched);
+        if (!hotProducts.isEmpty()) {
+            priceRepository.markProductsStriped(hotProducts, stripeCount);
+            Map<Long, Integer> updated = new HashMap<>(stripedProducts);
+            hotProducts.forEach(productId -> updated.put(productId, stripeCount));
+            stripedProducts = Map.copyOf(updated);
+            productsStriped.increment(hotProducts.size());
+            log.info("Aggregate striping enabled for {} products over the row lock wait threshold: {}", hotProducts.size(), hotProducts);
+        }
+        if (!touched.isEmpty()) {
+            priceRepository.markProductsStriped(touched, stripeCount);
+        }
+    }
+
+    void refresh() {
+        List<Long> expired = priceRepository.expireStripedProducts(cooldownSeconds);
+        if (!expired.isEmpty()) {
+            log.info("Aggregate striping disabled for {} products idle for {} min: {}", expired.size(), cooldownSeconds / 60, expired);
+        }
+        stripedProducts = Map.copyOf(priceRepository.getStripedProducts());
+    }
+
+    void compact() {
+        for (Long productId : priceRepository.getProductsWithStripes()) {
+            try {
+                if (priceRepository.compactAggregateStripes(productId)) {
+                    stripesCompacted.increment();
+                }
+            } catch (Exception e) {
+                compactionErrors.increment();
+                log.warn("Failed to compact aggregate stripes for product_id={}: {}", productId, e.getMessage());
+            }
+        }
+    }
+
+    private void detectQuietly() {
+        try {
+            detectHotProducts();
+        } catch (Exception e) {
+            log.error("Hot product detection failed: {}", e.getMessage());
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("Failed to refresh striped products: {}", e.getMessage());
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("Aggregate stripe compaction failed: {}", e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (enabled) {
+            compactQuietly();
+        }
+        log.info("Aggregate striping stopped");
+    }
+}
@@ -0,0 +1,268 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.AggregateDelta;
+import ru.kapyrin.repository.PriceRepository;
+import ru.kapyrin.service.PriceAverageCalculator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+@Slf4j
+public class AggregateWriteBehindBuffer {
+    private final PriceRepository priceRepository;
+    private final PriceAverageCalculator priceAverageCalculator;
+    private final AveragePriceChangeBroadcaster averagePriceChangeBroadcaster;
+    private final boolean enabled;
+    private final long flushIntervalMs;
+    private final int maxPendingDeltas;
+    private final Stripe[] stripes;
+    private final AtomicInteger pendingDeltas = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ReentrantReadWriteLock writeGate = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Counter deltasBuffered = Metrics.counter("aggregate_write_behind_deltas_total");
+    private final Counter rowsFlushed = Metrics.counter("aggregate_write_behind_rows_flushed_total");
+    private final Counter flushesSucceeded = Metrics.counter("aggregate_write_behind_flushes_total", "result", "success");
+    private final Counter flushesFailed = Metrics.counter("aggregate_write_behind_flushes_total", "result", "failure");
+    private final Timer flushTimer = Metrics.timer("aggregate_write_behind_flush_time");
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private Map<Long, long[]> deltas = new HashMap<>();
+        private List<Long> dirtyMarks = new ArrayList<>();
+        private CompletableFuture<Void> flushed = new CompletableFuture<>();
+        private int pending;
+    }
+
+    private record PendingFlush(int stripe, Map<Long, long[]> deltas, List<Long> dirtyMarks, int pending,
+                                CompletableFuture<Void> flushed) {
+    }
+
+    public AggregateWriteBehindBuffer(PriceRepository priceRepository, PriceAverageCalculator priceAverageCalculator,
+                                      PropertiesLoader propertiesLoader) {
+        this(priceRepository, priceAverageCalculator, propertiesLoader, null);
+    }
+
+    public AggregateWriteBehindBuffer(PriceRepository priceRepository, PriceAverageCalculator priceAverageCalculator,
+                                      PropertiesLoader propertiesLoader, AveragePriceChangeBroadcaster averagePriceChangeBroadcaster) {
+        this.priceRepository = priceRepository;
+        this.priceAverageCalculator = priceAverageCalculator;
+        this.averagePriceChangeBroadcaster = averagePriceChangeBroadcaster;
+        this.enabled = propertiesLoader.getBooleanProperty("aggregates.write.behind.enabled", false);
+        this.flushIntervalMs = Math.max(1L, propertiesLoader.getLongProperty("aggregates.write.behind.flush.interval.ms", 100L));
+        this.maxPendingDeltas = Math.max(1, propertiesLoader.getIntProperty("aggregates.write.behind.max.pending.deltas", 5000));
+        int stripeCount = Math.max(1, propertiesLoader.getIntProperty("aggregates.write.behind.stripes", 64));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        Gauge.builder("aggregate_write_behind_pending_deltas", pendingDeltas, AtomicInteger::get)
+                .description("Aggregate deltas waiting for the next write-behind flush")
+                .register(Metrics.globalRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void start() {
+        if (!enabled) {
+            log.info("Aggregate write-behind disabled, aggregates are updated in the price transaction");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Aggregate write-behind started: flushIntervalMs={}, maxPendingDeltas={}, stripes={}", flushIntervalMs, maxPendingDeltas, stripes.length);
+    }
+
+    public <T> T runShared(Supplier<T> task) {
+        writeGate.readLock().lock();
+        try {
+            return task.get();
+        } finally {
+            writeGate.readLock().unlock();
+        }
+    }
+
+    public <T> T runExclusive(Supplier<T> task) {
+        writeGate.writeLock().lock();
+        try {
+            if (enabled) {
+                flush();
+                if (pendingDeltas.get() > 0) {
+                    throw new PriceUpdateException("Pending aggregate deltas could not be flushed");
+                }
+            }
+            return task.get();
+        } finally {
+            writeGate.writeLock().unlock();
+        }
+    }
+
+    public CompletableFuture<Void> add(List<AggregateDelta> deltas) {
+        return add(deltas, Map.of());
+    }
+
+    /**
+     * {@code dirtyMarks} are the {@code aggregate_dirty_product} ids written with the price rows, keyed by product;
+     * the flush that applies the deltas deletes them, and marks left behind by a crash are repaired by
+     * {@link AggregateReconciler}.
+     */
+    public CompletableFuture<Void> add(List<AggregateDelta> deltas, Map<Long, Long> dirtyMarks) {
+        Set<CompletableFuture<Void>> flushes = new LinkedHashSet<>();
+        Map<Long, Long> unassignedMarks = new HashMap<>(dirtyMarks);
+        for (AggregateDelta delta : deltas) {
+            Stripe stripe = stripes[stripeIndex(delta.productId())];
+            stripe.lock.lock();
+            try {
+                Long dirtyMark = unassignedMarks.remove(delta.productId());
+                if (dirtyMark != null) {
+                    stripe.dirtyMarks.add(dirtyMark);
+                }
+                long[] pending = stripe.deltas.computeIfAbsent(delta.productId(), id -> new long[2]);
+                pending[0] += delta.deltaSumCents();
+                pending[1] += delta.deltaCount();
+                stripe.pending++;
+                flushes.add(stripe.flushed);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        deltasBuffered.increment(deltas.size());
+        if (pendingDeltas.addAndGet(deltas.size()) >= maxPendingDeltas && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushQuietly);
+        }
+        return CompletableFuture.allOf(flushes.toArray(CompletableFuture[]::new));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Aggregate write-behind flush failed: {}", e.getMessage());
+        }
+    }
+
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            List<PendingFlush> drainedStripes = new ArrayList<>();
+            int drained = 0;
+            for (int i = 0; i < stripes.length; i++) {
+                Stripe stripe = stripes[i];
+                stripe.lock.lock();
+                try {
+                    if (stripe.deltas.isEmpty()) {
+                        continue;
+                    }
+                    drainedStripes.add(new PendingFlush(i, stripe.deltas, stripe.dirtyMarks, stripe.pending, stripe.flushed));
+                    drained += stripe.pending;
+                    stripe.deltas = new HashMap<>();
+                    stripe.dirtyMarks = new ArrayList<>();
+                    stripe.flushed = new CompletableFuture<>();
+                    stripe.pending = 0;
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            if (drainedStripes.isEmpty()) {
+                return;
+            }
+            pendingDeltas.addAndGet(-drained);
+            List<AggregateDelta> batch = new ArrayList<>();
+            List<Long> dirtyMarks = new ArrayList<>();
+            for (PendingFlush drainedStripe : drainedStripes) {
+                drainedStripe.deltas().forEach((productId, delta) -> batch.add(new AggregateDelta(productId, delta[0], delta[1])));
+                dirtyMarks.addAll(drainedStripe.dirtyMarks());
+            }
+            batch.sort(Comparator.comparingLong(AggregateDelta::productId));
+            Timer.Sample sample = Timer.start();
+            try {
+                Map<Long, Long> averages = priceRepository.executeInTransaction(connection -> {
+                    Map<Long, Long> applied = priceRepository.applyAggregateDeltas(connection, batch);
+                    if (!dirtyMarks.isEmpty()) {
+                        priceRepository.clearAggregateDirtyMarks(connection, dirtyMarks);
+                    }
+                    return applied;
+                });
+                sample.stop(flushTimer);
+                flushesSucceeded.increment();
+                rowsFlushed.increment(batch.size());
+                priceAverageCalculator.updateAveragePriceCaches(averages);
+                if (averagePriceChangeBroadcaster != null) {
+                    averagePriceChangeBroadcaster.publish(averages);
+                }
+                drainedStripes.forEach(drainedStripe -> drainedStripe.flushed().complete(null));
+                log.debug("Flushed {} aggregate deltas into {} products", drained, batch.size());
+            } catch (Exception e) {
+                flushesFailed.increment();
+                drainedStripes.forEach(this::requeue);
+                PriceUpdateException failure = new PriceUpdateException("Failed to flush " + batch.size() + " aggregate deltas, requeued", e);
+                drainedStripes.forEach(drainedStripe -> drainedStripe.flushed().completeExceptionally(failure));
+                throw failure;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void requeue(PendingFlush drainedStripe) {
+        Stripe stripe = stripes[drainedStripe.stripe()];
+        stripe.lock.lock();
+        try {
+            drainedStripe.deltas().forEach((productId, delta) -> {
+                long[] pending = stripe.deltas.computeIfAbsent(productId, id -> new long[2]);
+                pending[0] += delta[0];
+                pending[1] += delta[1];
+            });
+            stripe.dirtyMarks.addAll(drainedStripe.dirtyMarks());
+            stripe.pending += drainedStripe.pending();
+        } finally {
+            stripe.lock.unlock();
+        }
+        pendingDeltas.addAndGet(drainedStripe.pending());
+    }
+
+    private int stripeIndex(long productId) {
+        return (int) Math.floorMod(productId ^ (productId >>> 32), (long) stripes.length);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (!enabled) {
+            return;
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Final aggregate write-behind flush failed, {} deltas are left to the dirty product repair: {}", pendingDeltas.get(), e.getMessage());
+            PriceUpdateException failure = new PriceUpdateException("Aggregate write-behind buffer shut down before flushing");
+            for (Stripe stripe : stripes) {
+                stripe.flushed.completeExceptionally(failure);
+            }
+        }
+        log.info("Aggregate write-behind stopped");
+    }
+}
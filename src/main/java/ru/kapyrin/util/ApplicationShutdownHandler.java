@@ -1,68 +1,117 @@
 package ru.kapyrin.util;
 
 import com.zaxxer.hikari.HikariDataSource;
+import io.vertx.core.Vertx;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.config.RabbitMQConfig;
 import ru.kapyrin.config.RedisConfig;
-import ru.kapyrin.service.RawPriceUpdatePublisher;
 
 import javax.sql.DataSource;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class ApplicationShutdownHandler {
-    private final RawPriceUpdatePublisher rawPriceUpdatePublisher;
+    private final Vertx vertx;
     private final List<Thread> consumerThreads;
     private final ExecutorService dlqProcessor;
     private final RabbitMQConfig rabbitMQConfig;
     private final RedisConfig redisConfig;
     private final DataSource dataSource;
+    private final Optional<DataSource> readDataSource;
+    private final ReplicaLagMonitor replicaLagMonitor;
     private final ExecutorService validationExecutor;
     private final ExecutorService dbExecutor;
     private final ScheduledExecutorService scalingExecutor;
     private final ConsumerInitializer consumerInitializer;
     private final DlqProcessor dlqProcessorTask;
+    private final AggregateReconciler aggregateReconciler;
+    private final ProductIdBloomFilter productIdBloomFilter;
+    private final AggregateWriteBehindBuffer aggregateWriteBehindBuffer;
+    private final AggregateStripingManager aggregateStripingManager;
+    private final SpillJournalDrainer spillJournalDrainer;
+    private final AveragePriceChangeBroadcaster averagePriceChangeBroadcaster;
+    private final AveragePriceOutboxRelay averagePriceOutboxRelay;
+    private final PartitionMigrator partitionMigrator;
 
     public ApplicationShutdownHandler(
-            RawPriceUpdatePublisher rawPriceUpdatePublisher,
+            Vertx vertx,
             List<Thread> consumerThreads,
             ExecutorService dlqProcessor,
             RabbitMQConfig rabbitMQConfig,
             RedisConfig redisConfig,
             DataSource dataSource,
+            Optional<DataSource> readDataSource,
+            ReplicaLagMonitor replicaLagMonitor,
             ExecutorService validationExecutor,
             ExecutorService dbExecutor,
             ScheduledExecutorService scalingExecutor,
             ConsumerInitializer consumerInitializer,
-            DlqProcessor dlqProcessorTask) {
-        this.rawPriceUpdatePublisher = rawPriceUpdatePublisher;
+            DlqProcessor dlqProcessorTask,
+            AggregateReconciler aggregateReconciler,
+            ProductIdBloomFilter productIdBloomFilter,
+            AggregateWriteBehindBuffer aggregateWriteBehindBuffer,
+            AggregateStripingManager aggregateStripingManager,
+            SpillJournalDrainer spillJournalDrainer,
+            AveragePriceChangeBroadcaster averagePriceChangeBroadcaster,
+            AveragePriceOutboxRelay averagePriceOutboxRelay,
+            PartitionMigrator partitionMigrator) {
+        this.vertx = vertx;
         this.consumerThreads = consumerThreads;
         this.dlqProcessor = dlqProcessor;
         this.rabbitMQConfig = rabbitMQConfig;
         this.redisConfig = redisConfig;
         this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+        this.replicaLagMonitor = replicaLagMonitor;
         this.validationExecutor = validationExecutor;
         this.dbExecutor = dbExecutor;
         this.scalingExecutor = scalingExecutor;
         this.consumerInitializer = consumerInitializer;
         this.dlqProcessorTask = dlqProcessorTask;
+        this.aggregateReconciler = aggregateReconciler;
+        this.productIdBloomFilter = productIdBloomFilter;
+        this.aggregateWriteBehindBuffer = aggregateWriteBehindBuffer;
+        this.aggregateStripingManager = aggregateStripingManager;
+        this.spillJournalDrainer = spillJournalDrainer;
+        this.averagePriceChangeBroadcaster = averagePriceChangeBroadcaster;
+        this.averagePriceOutboxRelay = averagePriceOutboxRelay;
+        this.partitionMigrator = partitionMigrator;
     }
 
     public void shutdown() {
         log.info("Shutting down application...");
-        rawPriceUpdatePublisher.shutdown();
+        try {
+            vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("Vert.x did not close cleanly: {}", e.getMessage());
+        }
+        aggregateWriteBehindBuffer.shutdown();
         consumerInitializer.shutdown();
         dlqProcessorTask.shutdown();
+        aggregateReconciler.shutdown();
+        aggregateStripingManager.shutdown();
+        productIdBloomFilter.shutdown();
+        spillJournalDrainer.shutdown();
+        averagePriceChangeBroadcaster.shutdown();
+        averagePriceOutboxRelay.shutdown();
         consumerThreads.forEach(Thread::interrupt);
         dlqProcessor.shutdownNow();
         rabbitMQConfig.close();
         redisConfig.close();
+        replicaLagMonitor.shutdown();
+        partitionMigrator.shutdown();
         if (dataSource instanceof HikariDataSource hikariDataSource) {
             hikariDataSource.close();
         }
+        readDataSource.ifPresent(ds -> {
+            if (ds instanceof HikariDataSource hikariDataSource) {
+                hikariDataSource.close();
+            }
+        });
         validationExecutor.shutdownNow();
         dbExecutor.shutdownNow();
         scalingExecutor.shutdownNow();
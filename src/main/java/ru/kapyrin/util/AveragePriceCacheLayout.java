@@ -0,0 +1,147 @@
+package ru.kapyrin.util;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.SetParams;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RedisConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Where cached averages live in Redis. {@link Type#KEYS} is one string key per product holding the formatted
+ * price. {@link Type#BUCKETS} groups {@code bucketSize} consecutive product ids into one hash
+ * ({@code avg:<id / bucketSize>}, field {@code id % bucketSize}) holding cents as an integer string, which a
+ * listpack-encoded hash stores as a packed binary integer. Buckets only stay listpack-encoded while
+ * {@code hash-max-listpack-entries} is at least the bucket size. TTL is per bucket and is renewed on every
+ * write, so TTL jitter spreads the expiry of buckets rather than of single products, and "not found" markers are
+ * not written at all: they would live as long as the bucket instead of {@code redis.cache.negative.ttl.seconds}.
+ * Markers left by earlier versions are still recognized until their bucket expires.
+ */
+public final class AveragePriceCacheLayout {
+    public enum Type { KEYS, BUCKETS }
+
+    private static final String BUCKET_NOT_FOUND_MARKER = "";
+
+    private final Type type;
+    private final String keyPrefix;
+    private final String bucketPrefix;
+    private final int bucketSize;
+
+    public AveragePriceCacheLayout(Type type, String keyPrefix, String bucketPrefix, int bucketSize) {
+        this.type = type;
+        this.keyPrefix = keyPrefix;
+        this.bucketPrefix = bucketPrefix;
+        this.bucketSize = Math.max(1, bucketSize);
+    }
+
+    public static AveragePriceCacheLayout from(PropertiesLoader propertiesLoader) {
+        return new AveragePriceCacheLayout(
+                Type.valueOf(propertiesLoader.getProperty("redis.cache.layout", "keys").toUpperCase(Locale.ROOT)),
+                "avg_price:", "avg:", propertiesLoader.getIntProperty("redis.cache.bucket.size", 1000));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isBucketed() {
+        return type == Type.BUCKETS;
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public String key(long productId) {
+        return isBucketed() ? bucketPrefix + productId / bucketSize : keyPrefix + productId;
+    }
+
+    public String field(long productId) {
+        return Long.toString(productId % bucketSize);
+    }
+
+    public String encode(long averagePriceCents) {
+        return isBucketed() ? Long.toString(averagePriceCents) : PriceCents.format(averagePriceCents);
+    }
+
+    public long decode(String value) {
+        return isBucketed() ? Long.parseLong(value) : PriceCents.parse(value);
+    }
+
+    public String notFoundMarker() {
+        return isBucketed() ? BUCKET_NOT_FOUND_MARKER : RedisConfig.NOT_FOUND_MARKER;
+    }
+
+    public boolean isNotFound(String value) {
+        return notFoundMarker().equals(value);
+    }
+
+    public Response<String> get(Pipeline pipeline, long productId) {
+        return isBucketed() ? pipeline.hget(key(productId), field(productId)) : pipeline.get(key(productId));
+    }
+
+    public List<String> getAll(Jedis jedis, List<Long> productIds) {
+        if (!isBucketed()) {
+            return jedis.mget(productIds.stream().map(this::key).toArray(String[]::new));
+        }
+        Map<String, List<Integer>> positionsByBucket = new LinkedHashMap<>();
+        for (int i = 0; i < productIds.size(); i++) {
+            positionsByBucket.computeIfAbsent(key(productIds.get(i)), bucket -> new ArrayList<>()).add(i);
+        }
+        Pipeline pipeline = jedis.pipelined();
+        Map<String, Response<List<String>>> responses = new HashMap<>(positionsByBucket.size() * 2);
+        positionsByBucket.forEach((bucket, positions) -> responses.put(bucket,
+                pipeline.hmget(bucket, positions.stream().map(i -> field(productIds.get(i))).toArray(String[]::new))));
+        pipeline.sync();
+        String[] values = new String[productIds.size()];
+        positionsByBucket.forEach((bucket, positions) -> {
+            List<String> bucketValues = responses.get(bucket).get();
+            for (int i = 0; i < positions.size(); i++) {
+                values[positions.get(i)] = bucketValues.get(i);
+            }
+        });
+        return Arrays.asList(values);
+    }
+
+    public void put(Pipeline pipeline, Map<Long, Long> averagePricesCents, IntSupplier expireSeconds) {
+        if (!isBucketed()) {
+            averagePricesCents.forEach((productId, averagePriceCents) ->
+                    pipeline.setex(key(productId), expireSeconds.getAsInt(), encode(averagePriceCents)));
+            return;
+        }
+        Map<String, Map<String, String>> buckets = new HashMap<>();
+        averagePricesCents.forEach((productId, averagePriceCents) ->
+                buckets.computeIfAbsent(key(productId), bucket -> new HashMap<>()).put(field(productId), encode(averagePriceCents)));
+        buckets.forEach((bucket, fields) -> {
+            pipeline.hset(bucket, fields);
+            pipeline.expire(bucket, expireSeconds.getAsInt());
+        });
+    }
+
+    public void putNotFound(Pipeline pipeline, Collection<Long> productIds, int expireSeconds) {
+        if (isBucketed()) {
+            return;
+        }
+        for (Long productId : productIds) {
+            pipeline.set(key(productId), RedisConfig.NOT_FOUND_MARKER, SetParams.setParams().nx().ex(expireSeconds));
+        }
+    }
+
+    public void evict(Pipeline pipeline, long productId) {
+        if (isBucketed()) {
+            pipeline.hdel(key(productId), field(productId));
+        } else {
+            pipeline.del(key(productId));
+        }
+    }
+}
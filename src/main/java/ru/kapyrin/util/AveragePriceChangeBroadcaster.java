@@ -0,0 +1,156 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.Vertx;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RedisConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fans new product averages out to every instance: changes are published to a Redis channel, and each
+ * instance's subscriber forwards them to the local event bus address {@link #ADDRESS}, where the HTTP
+ * verticles push them to SSE subscribers. Without Redis the changes only reach the local event bus.
+ * Payload is {@code productId:cents} pairs separated by commas; an empty value means no offers are left.
+ */
+@Slf4j
+public class AveragePriceChangeBroadcaster {
+    public static final String ADDRESS = "average-price.changes";
+
+    private final RedisConfig redisConfig;
+    private final boolean enabled;
+    private final String channel;
+    private final long resubscribeDelayMs;
+    private final ExecutorService subscriberExecutor = Executors.newSingleThreadExecutor();
+    private final Counter changesPublished = Metrics.counter("average_price_changes_published_total");
+    private final Counter fanoutErrors = Metrics.counter("average_price_changes_fanout_errors_total");
+    private volatile Vertx vertx;
+    private volatile JedisPubSub subscription;
+    private volatile boolean running;
+
+    public AveragePriceChangeBroadcaster(RedisConfig redisConfig, PropertiesLoader propertiesLoader) {
+        this.redisConfig = redisConfig;
+        this.enabled = propertiesLoader.getBooleanProperty("push.enabled", true);
+        this.channel = propertiesLoader.getProperty("push.redis.channel", "avg_price_changes");
+        this.resubscribeDelayMs = Math.max(100L, propertiesLoader.getLongProperty("push.redis.resubscribe.delay.ms", 1_000L));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void start(Vertx vertx) {
+        this.vertx = vertx;
+        if (!enabled || redisConfig.getJedisPool() == null) {
+            return;
+        }
+        running = true;
+        subscriberExecutor.submit(this::subscribeLoop);
+        log.info("Average price changes fanned out over Redis channel '{}'", channel);
+    }
+
+    public void publish(Long productId, Long averagePriceCents) {
+        Map<Long, Long> change = new LinkedHashMap<>(2);
+        change.put(productId, averagePriceCents);
+        publish(change);
+    }
+
+    public void publish(Map<Long, Long> averagePricesCents) {
+        if (!enabled || averagePricesCents.isEmpty()) {
+            return;
+        }
+        String payload = encode(averagePricesCents);
+        changesPublished.increment(averagePricesCents.size());
+        if (running && redisConfig.isRedisAvailable()) {
+            try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+                jedis.publish(channel, payload);
+                return;
+            } catch (Exception e) {
+                fanoutErrors.increment();
+                log.warn("Failed to publish average price changes to Redis, delivering locally only: {}", e.getMessage());
+            }
+        }
+        Vertx local = vertx;
+        if (local != null) {
+            local.eventBus().publish(ADDRESS, payload);
+        }
+    }
+
+    private void subscribeLoop() {
+        while (running) {
+            JedisPubSub pubSub = new JedisPubSub() {
+                @Override
+                public void onMessage(String messageChannel, String message) {
+                    vertx.eventBus().publish(ADDRESS, message);
+                }
+            };
+            subscription = pubSub;
+            try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+                jedis.subscribe(pubSub, channel);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                fanoutErrors.increment();
+                log.warn("Redis subscription to '{}' lost, resubscribing in {}ms: {}", channel, resubscribeDelayMs, e.getMessage());
+            }
+            try {
+                Thread.sleep(resubscribeDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    static String encode(Map<Long, Long> averagePricesCents) {
+        StringBuilder payload = new StringBuilder(averagePricesCents.size() * 20);
+        averagePricesCents.forEach((productId, cents) -> {
+            if (!payload.isEmpty()) {
+                payload.append(',');
+            }
+            payload.append(productId).append(':');
+            if (cents != null) {
+                payload.append(cents);
+            }
+        });
+        return payload.toString();
+    }
+
+    public static Map<Long, Long> decode(String payload) {
+        Map<Long, Long> averagePricesCents = new LinkedHashMap<>();
+        int start = 0;
+        while (start < payload.length()) {
+            int end = payload.indexOf(',', start);
+            if (end < 0) {
+                end = payload.length();
+            }
+            int separator = payload.indexOf(':', start);
+            long productId = Long.parseLong(payload, start, separator, 10);
+            averagePricesCents.put(productId, separator + 1 == end ? null : Long.parseLong(payload, separator + 1, end, 10));
+            start = end + 1;
+        }
+        return averagePricesCents;
+    }
+
+    public void shutdown() {
+        running = false;
+        JedisPubSub pubSub = subscription;
+        if (pubSub != null && pubSub.isSubscribed()) {
+            try {
+                pubSub.unsubscribe();
+            } catch (Exception e) {
+                log.debug("Redis unsubscribe failed: {}", e.getMessage());
+            }
+        }
+        subscriberExecutor.shutdownNow();
+        log.info("AveragePriceChangeBroadcaster shutdown complete");
+    }
+}
@@ -0,0 +1,218 @@
+package ru.kapyrin.util;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.model.AveragePriceChangedEvent;
+import ru.kapyrin.repository.SqlQueries;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays rows of {@code average_price_outbox}, written in the same transaction as the aggregates, to the
+ * events exchange. A batch is claimed with {@code DELETE ... FOR UPDATE SKIP LOCKED}, so relays on several
+ * instances take disjoint batches, and the delete only commits after RabbitMQ confirms the publishes.
+ * Within a batch only the latest average per product is published; the outbox id travels as
+ * {@code version} so subscribers can drop events that arrive out of order from different relays.
+ */
+@Slf4j
+public class AveragePriceOutboxRelay {
+    private final DataSource dataSource;
+    private final RabbitMQConfig rabbitMQConfig;
+    private final com.rabbitmq.client.Connection connection;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final long lagCheckIntervalMs;
+    private final long confirmTimeoutMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong lagMs = new AtomicLong();
+    private final Counter eventsClaimed = Metrics.counter("outbox_events_claimed_total");
+    private final Counter eventsPublished = Metrics.counter("outbox_events_published_total");
+    private final Counter relayErrors = Metrics.counter("outbox_relay_errors_total");
+    private final Timer eventDelay = Metrics.timer("outbox_event_delay");
+    private Channel channel;
+
+    public AveragePriceOutboxRelay(DataSource dataSource, RabbitMQConfig rabbitMQConfig, PropertiesLoader propertiesLoader) {
+        this.dataSource = dataSource;
+        this.rabbitMQConfig = rabbitMQConfig;
+        this.connection = rabbitMQConfig.getConnection(RabbitMQConfig.Role.PUBLISH);
+        this.enabled = propertiesLoader.getBooleanProperty("outbox.relay.enabled", true);
+        this.batchSize = Math.max(1, propertiesLoader.getIntProperty("outbox.relay.batch.size", 500));
+        this.pollIntervalMs = Math.max(10L, propertiesLoader.getLongProperty("outbox.relay.poll.interval.ms", 200L));
+        this.lagCheckIntervalMs = Math.max(100L, propertiesLoader.getLongProperty("outbox.relay.lag.check.interval.ms", 5_000L));
+        this.confirmTimeoutMs = Math.max(1L, propertiesLoader.getLongProperty("rabbitmq.confirm.timeout.ms", 5_000L));
+        Gauge.builder("outbox_lag_seconds", lagMs, lag -> lag.get() / 1000.0)
+                .description("Age of the oldest average price change not yet relayed to RabbitMQ")
+                .register(Metrics.globalRegistry);
+    }
+
+    public void start() {
+        if (!enabled) {
+            log.info("Average price outbox relay disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::relayQuietly, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::refreshLag, 0, lagCheckIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Average price outbox relay started: batchSize={}, pollIntervalMs={}", batchSize, pollIntervalMs);
+    }
+
+    void relay() throws SQLException, IOException, InterruptedException, TimeoutException {
+        while (connection.isOpen() && relayBatch() == batchSize) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    private int relayBatch() throws SQLException, IOException, InterruptedException, TimeoutException {
+        try (Connection dbConnection = dataSource.getConnection()) {
+            dbConnection.setAutoCommit(false);
+            try {
+                List<AveragePriceChangedEvent> claimedEvents = claim(dbConnection);
+                if (claimedEvents.isEmpty()) {
+                    dbConnection.commit();
+                    return 0;
+                }
+                List<AveragePriceChangedEvent> events = compact(claimedEvents);
+                Channel publishChannel = channel();
+                for (AveragePriceChangedEvent event : events) {
+                    publishChannel.basicPublish(rabbitMQConfig.getEventsExchangeName(), rabbitMQConfig.getAverageChangedRoutingKey(),
+                            properties(event), encode(event));
+                }
+                publishChannel.waitForConfirmsOrDie(confirmTimeoutMs);
+                dbConnection.commit();
+                eventsClaimed.increment(claimedEvents.size());
+                eventsPublished.increment(events.size());
+                claimedEvents.forEach(event -> eventDelay.record(event.ageMs(), TimeUnit.MILLISECONDS));
+                log.debug("Relayed {} outbox rows as {} average price events", claimedEvents.size(), events.size());
+                return claimedEvents.size();
+            } catch (Exception e) {
+                dbConnection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private List<AveragePriceChangedEvent> claim(Connection dbConnection) throws SQLException {
+        try (PreparedStatement ps = dbConnection.prepareStatement(SqlQueries.CLAIM_AVERAGE_PRICE_OUTBOX)) {
+            ps.setInt(1, batchSize);
+            List<AveragePriceChangedEvent> events = new ArrayList<>(batchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    events.add(new AveragePriceChangedEvent(rs.getLong("id"), rs.getLong("product_id"),
+                            rs.getLong("avg_price_cents"), Math.max(0L, rs.getLong("age_ms"))));
+                }
+            }
+            return events;
+        }
+    }
+
+    static List<AveragePriceChangedEvent> compact(List<AveragePriceChangedEvent> claimedEvents) {
+        Map<Long, AveragePriceChangedEvent> latest = new HashMap<>(claimedEvents.size() * 2);
+        for (AveragePriceChangedEvent event : claimedEvents) {
+            latest.merge(event.productId(), event, (current, candidate) -> candidate.outboxId() > current.outboxId() ? candidate : current);
+        }
+        List<AveragePriceChangedEvent> events = new ArrayList<>(latest.values());
+        events.sort(Comparator.comparingLong(AveragePriceChangedEvent::outboxId));
+        return events;
+    }
+
+    static byte[] encode(AveragePriceChangedEvent event) {
+        StringBuilder json = new StringBuilder(96)
+                .append("{\"product_id\":").append(event.productId())
+                .append(",\"average_price\":\"");
+        PriceCents.append(json, event.averagePriceCents())
+                .append("\",\"version\":").append(event.outboxId())
+                .append('}');
+        return json.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static AMQP.BasicProperties properties(AveragePriceChangedEvent event) {
+        return new AMQP.BasicProperties.Builder()
+                .contentType("application/json")
+                .deliveryMode(2)
+                .messageId("average-price-" + event.outboxId())
+                .timestamp(new Date())
+                .build();
+    }
+
+    private void relayQuietly() {
+        try {
+            relay();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            relayErrors.increment();
+            log.warn("Average price outbox relay failed, will retry in {}ms: {}", pollIntervalMs, e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private void refreshLag() {
+        try (Connection dbConnection = dataSource.getConnection();
+             PreparedStatement ps = dbConnection.prepareStatement(SqlQueries.SELECT_AVERAGE_PRICE_OUTBOX_LAG_MS);
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                lagMs.set(Math.max(0L, rs.getLong("lag_ms")));
+            }
+        } catch (SQLException e) {
+            log.debug("Failed to read outbox lag: {}", e.getMessage());
+        }
+    }
+
+    private Channel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = connection.createChannel();
+            channel.confirmSelect();
+        }
+        return channel;
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (Exception e) {
+            log.debug("Outbox relay channel close failed: {}", e.getMessage());
+        }
+        channel = null;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("AveragePriceOutboxRelay did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannel();
+        log.info("AveragePriceOutboxRelay shutdown complete");
+    }
+}
@@ -0,0 +1,397 @@
+package ru.kapyrin.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.AggregateDelta;
+import ru.kapyrin.model.ImportResult;
+import ru.kapyrin.model.PriceUpdate;
+import ru.kapyrin.repository.PriceRepository;
+import ru.kapyrin.repository.SqlQueries;
+import ru.kapyrin.service.PriceAverageCalculator;
+import ru.kapyrin.service.PriceUpdateValidator;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+public class BulkPriceImporter {
+    private static final int COPY_FLUSH_CHARS = 1 << 20;
+    private static final int BOUNDARY_PROBE_BYTES = 64 * 1024;
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final DataSource dataSource;
+    private final PriceRepository priceRepository;
+    private final PriceUpdateValidator validator;
+    private final PriceAverageCalculator priceAverageCalculator;
+    private final long chunkBytes;
+    private final int parallelism;
+    private final int invalidationBatchSize;
+    private final int aggregateBatchSize;
+    private final int maxErrorSamples;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger loggedErrors = new AtomicInteger();
+
+    record FileChunk(long start, long end) {
+    }
+
+    private record ChunkStats(long loaded, long rejected) {
+    }
+
+    public BulkPriceImporter(DataSource dataSource, PriceRepository priceRepository, PriceUpdateValidator validator,
+                             PriceAverageCalculator priceAverageCalculator, PropertiesLoader propertiesLoader) {
+        this.dataSource = dataSource;
+        this.priceRepository = priceRepository;
+        this.validator = validator;
+        this.priceAverageCalculator = priceAverageCalculator;
+        this.chunkBytes = Math.min(MAX_CHUNK_BYTES, Math.max(1L, propertiesLoader.getLongProperty("import.chunk.bytes", 64L * 1024 * 1024)));
+        int configuredParallelism = Math.max(1, propertiesLoader.getIntProperty("import.parallelism", Runtime.getRuntime().availableProcessors()));
+        this.parallelism = dataSource instanceof HikariDataSource hikariDataSource
+                ? Math.max(1, Math.min(configuredParallelism, hikariDataSource.getMaximumPoolSize() - 1))
+                : configuredParallelism;
+        this.invalidationBatchSize = Math.max(1, propertiesLoader.getIntProperty("import.cache.invalidation.batch.size", 10_000));
+        this.aggregateBatchSize = Math.max(1, propertiesLoader.getIntProperty("import.aggregate.batch.size", 10_000));
+        this.maxErrorSamples = Math.max(0, propertiesLoader.getIntProperty("import.max.error.samples", 20));
+    }
+
+    public ImportResult importFile(Path path) {
+        long startedNanos = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            if (!tryLock(connection)) {
+                throw new PriceUpdateException("Another bulk import is already running");
+            }
+            try {
+                execute(connection, SqlQueries.TRUNCATE_PRICE_IMPORT);
+                ChunkStats loaded = load(path);
+                execute(connection, SqlQueries.ANALYZE_PRICE_IMPORT);
+                long[] merged = merge(connection);
+                invalidateCaches(connection);
+                execute(connection, SqlQueries.TRUNCATE_PRICE_IMPORT);
+                long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000;
+                ImportResult result = new ImportResult(loaded.loaded(), loaded.rejected(), merged[0], merged[1], elapsedMs);
+                log.info("Bulk import of {} complete: loaded={}, rejected={}, pricesMerged={}, productsMerged={}, elapsed={} ms ({} rows/min)",
+                        path, result.rowsLoaded(), result.rowsRejected(), result.pricesMerged(), result.productsMerged(), elapsedMs,
+                        elapsedMs == 0 ? result.rowsLoaded() : result.rowsLoaded() * 60_000 / elapsedMs);
+                return result;
+            } finally {
+                execute(connection, SqlQueries.UNLOCK_PRICE_IMPORT);
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Bulk import of " + path + " failed", e);
+        }
+    }
+
+    private ChunkStats load(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<FileChunk> chunks = splitOnLineBoundaries(channel, chunkBytes);
+            boolean ndjson = isNdjson(channel);
+            log.info("Loading {} ({} bytes, {}) in {} chunks with parallelism={}", path, channel.size(), ndjson ? "NDJSON" : "CSV",
+                    chunks.size(), parallelism);
+            List<Callable<ChunkStats>> tasks = new ArrayList<>(chunks.size());
+            for (FileChunk chunk : chunks) {
+                tasks.add(() -> loadChunk(channel, chunk, ndjson));
+            }
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                long loaded = 0;
+                long rejected = 0;
+                for (Future<ChunkStats> future : pool.invokeAll(tasks)) {
+                    ChunkStats stats = future.get();
+                    loaded += stats.loaded();
+                    rejected += stats.rejected();
+                }
+                return new ChunkStats(loaded, rejected);
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (IOException e) {
+            throw new PriceUpdateException("Failed to read " + path, e);
+        } catch (ExecutionException e) {
+            throw new PriceUpdateException("Failed to load " + path + " into staging table", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PriceUpdateException("Bulk import interrupted", e);
+        }
+    }
+
+    private ChunkStats loadChunk(FileChannel channel, FileChunk chunk, boolean ndjson) throws IOException, SQLException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start(), chunk.end() - chunk.start());
+        long loaded = 0;
+        long rejected = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(SqlQueries.COPY_PRICE_IMPORT);
+            try {
+                StringBuilder rows = new StringBuilder(COPY_FLUSH_CHARS + 512);
+                byte[] line = new byte[512];
+                int limit = buffer.limit();
+                int position = 0;
+                while (position < limit) {
+                    int lineEnd = position;
+                    while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                        lineEnd++;
+                    }
+                    int length = lineEnd - position;
+                    if (length > 0 && buffer.get(position + length - 1) == '\r') {
+                        length--;
+                    }
+                    long offset = chunk.start() + position;
+                    if (length > line.length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    buffer.get(position, line, 0, length);
+                    position = lineEnd + 1;
+                    if (isBlank(line, length) || (offset == 0 && !ndjson && isCsvHeader(line, length))) {
+                        continue;
+                    }
+                    try {
+                        PriceUpdate update = ndjson
+                                ? objectMapper.readValue(line, 0, length, PriceUpdate.class)
+                                : parseCsvLine(new String(line, 0, length, StandardCharsets.UTF_8));
+                        validator.validatePriceUpdate(update);
+                        appendCopyRow(rows, update, offset);
+                        loaded++;
+                    } catch (IOException | PriceUpdateException | IllegalArgumentException e) {
+                        rejected++;
+                        if (loggedErrors.incrementAndGet() <= maxErrorSamples) {
+                            log.warn("Rejected line at byte offset {}: {}", offset, e.getMessage());
+                        }
+                    }
+                    if (rows.length() >= COPY_FLUSH_CHARS) {
+                        flush(copyIn, rows);
+                    }
+                }
+                flush(copyIn, rows);
+                copyIn.endCopy();
+                log.debug("Loaded chunk {}..{}: loaded={}, rejected={}", chunk.start(), chunk.end(), loaded, rejected);
+                return new ChunkStats(loaded, rejected);
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the import like any other price change: the aggregates get the per-product delta between the old and
+     * the imported prices through {@link PriceRepository#applyAggregateDeltas}, so stripes, write-behind deltas of
+     * running instances and the outbox stay consistent. {@code product_price} is locked against other writers for the
+     * merge so that the old prices the deltas are computed from cannot change underneath it.
+     */
+    private long[] merge(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(SqlQueries.MERGE_IMPORTED_PRODUCTS);
+            statement.executeUpdate(SqlQueries.MERGE_IMPORTED_MANUFACTURERS);
+            statement.execute(SqlQueries.LOCK_PRICES_FOR_IMPORT);
+            statement.execute(SqlQueries.STAGE_IMPORTED_PRICE_CHANGES);
+            long prices = statement.executeUpdate(SqlQueries.MERGE_IMPORTED_PRICES);
+            long products = applyAggregateDeltas(connection);
+            connection.commit();
+            return new long[]{prices, products};
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private long applyAggregateDeltas(Connection connection) throws SQLException {
+        long products = 0;
+        try (PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_IMPORTED_AGGREGATE_DELTAS)) {
+            ps.setFetchSize(aggregateBatchSize);
+            List<AggregateDelta> batch = new ArrayList<>(aggregateBatchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    batch.add(new AggregateDelta(rs.getLong("product_id"), rs.getLong("delta_sum_cents"), rs.getLong("delta_count")));
+                    if (batch.size() >= aggregateBatchSize) {
+                        products += priceRepository.applyAggregateDeltas(connection, batch).size();
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                products += priceRepository.applyAggregateDeltas(connection, batch).size();
+            }
+        }
+        return products;
+    }
+
+    private void invalidateCaches(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_IMPORTED_PRODUCT_IDS)) {
+            ps.setFetchSize(invalidationBatchSize);
+            List<Long> batch = new ArrayList<>(invalidationBatchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    batch.add(rs.getLong("product_id"));
+                    if (batch.size() >= invalidationBatchSize) {
+                        priceAverageCalculator.invalidateAveragePriceCaches(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            priceAverageCalculator.invalidateAveragePriceCaches(batch);
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    static List<FileChunk> splitOnLineBoundaries(FileChannel channel, long chunkBytes) throws IOException {
+        long size = channel.size();
+        List<FileChunk> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE_BYTES);
+        long start = 0;
+        while (start < size) {
+            long end = nextLineStart(channel, Math.min(size, start + chunkBytes), size, probe);
+            chunks.add(new FileChunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer probe) throws IOException {
+        long scan = position - 1;
+        while (scan < size) {
+            probe.clear();
+            int read = channel.read(probe, scan);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return scan + i + 1;
+                }
+            }
+            scan += read;
+        }
+        return size;
+    }
+
+    private static boolean isNdjson(FileChannel channel) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE_BYTES);
+        int read = channel.read(probe, 0);
+        for (int i = 0; i < read; i++) {
+            byte b = probe.get(i);
+            if (!Character.isWhitespace(b)) {
+                return b == '{';
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(byte[] line, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(line[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCsvHeader(byte[] line, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(line[i])) {
+                return line[i] != '-' && line[i] != '"' && !Character.isDigit(line[i]);
+            }
+        }
+        return false;
+    }
+
+    static PriceUpdate parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        if (fields.size() != 3) {
+            throw new IllegalArgumentException("Expected product_id,manufacturer_name,price but got " + fields.size() + " columns");
+        }
+        try {
+            return new PriceUpdate(Long.parseLong(fields.get(0).strip()), fields.get(1).strip(), PriceCents.parse(fields.get(2)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+        }
+    }
+
+    static void appendCopyRow(StringBuilder rows, PriceUpdate update, long offset) {
+        rows.append(update.productId()).append('\t');
+        String name = update.manufacturerName();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            switch (c) {
+                case '\\' -> rows.append("\\\\");
+                case '\t' -> rows.append("\\t");
+                case '\n' -> rows.append("\\n");
+                case '\r' -> rows.append("\\r");
+                default -> rows.append(c);
+            }
+        }
+        PriceCents.append(rows.append('\t'), update.priceCents()).append('\t').append(offset).append('\n');
+    }
+
+    private static void flush(CopyIn copyIn, StringBuilder rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        rows.setLength(0);
+    }
+
+    private static boolean tryLock(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(SqlQueries.TRY_LOCK_PRICE_IMPORT)) {
+            return rs.next() && rs.getBoolean("locked");
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
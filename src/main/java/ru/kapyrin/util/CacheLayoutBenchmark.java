@@ -0,0 +1,148 @@
+package ru.kapyrin.util;
+
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RedisConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code java -jar app.jar cache-benchmark [products]}: fills the configured Redis with the same averages in
+ * both {@link AveragePriceCacheLayout} layouts under a {@code bench:} prefix and reports memory per product,
+ * write rate, and the single and batch lookup rates of the calls {@code PriceAverageCalculatorImpl} makes.
+ * Run it against an otherwise idle Redis, since memory is measured as the change in {@code used_memory}.
+ */
+@Slf4j
+public class CacheLayoutBenchmark {
+    private static final int WRITE_BATCH = 1_000;
+    private static final int LOOKUP_BATCH = 100;
+
+    private final JedisPool jedisPool;
+    private final int products;
+    private final int bucketSize;
+    private final int threads;
+    private final long durationMs;
+    private final int expireSeconds;
+
+    public record Result(AveragePriceCacheLayout.Type layout, String encoding, double bytesPerProduct, double writesPerSecond,
+                         double getsPerSecond, double batchGetsPerSecond) {
+    }
+
+    public CacheLayoutBenchmark(RedisConfig redisConfig, PropertiesLoader propertiesLoader, int products) {
+        this.jedisPool = redisConfig.getJedisPool();
+        this.products = Math.max(1, products);
+        this.bucketSize = redisConfig.getCacheLayout().getBucketSize();
+        this.threads = Math.max(1, propertiesLoader.getIntProperty("cache.benchmark.threads", 16));
+        this.durationMs = Math.max(100L, propertiesLoader.getLongProperty("cache.benchmark.duration.ms", 5_000L));
+        this.expireSeconds = Math.max(60, redisConfig.getCacheExpireSeconds());
+    }
+
+    public List<Result> run() throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (AveragePriceCacheLayout.Type type : AveragePriceCacheLayout.Type.values()) {
+            results.add(measure(new AveragePriceCacheLayout(type, "bench:avg_price:", "bench:avg:", bucketSize)));
+        }
+        log.info("Cache layouts for {} products, bucket size {}, {} threads x {}ms:", products, bucketSize, threads, durationMs);
+        log.info(String.format("%-8s %-10s %14s %12s %12s %16s", "layout", "encoding", "bytes/product", "writes/s", "gets/s",
+                "batch gets/s"));
+        results.forEach(result -> log.info(String.format("%-8s %-10s %14.1f %12.0f %12.0f %16.0f",
+                result.layout(), result.encoding(), result.bytesPerProduct(), result.writesPerSecond(),
+                result.getsPerSecond(), result.batchGetsPerSecond())));
+        return results;
+    }
+
+    private Result measure(AveragePriceCacheLayout layout) throws Exception {
+        try (Jedis jedis = jedisPool.getResource()) {
+            clear(jedis, layout);
+            long memoryBefore = usedMemory(jedis);
+            long startedNanos = System.nanoTime();
+            for (long from = 1; from <= products; from += WRITE_BATCH) {
+                Map<Long, Long> batch = new HashMap<>(WRITE_BATCH * 2);
+                for (long productId = from; productId < Math.min(from + WRITE_BATCH, products + 1L); productId++) {
+                    batch.put(productId, 100 + productId * 7919 % 100_000);
+                }
+                Pipeline pipeline = jedis.pipelined();
+                layout.put(pipeline, batch, () -> expireSeconds);
+                pipeline.sync();
+            }
+            double writesPerSecond = products / ((System.nanoTime() - startedNanos) / 1e9);
+            double bytesPerProduct = (double) (usedMemory(jedis) - memoryBefore) / products;
+            String encoding = jedis.objectEncoding(layout.key(1));
+            double getsPerSecond = lookupsPerSecond(layout, false);
+            double batchGetsPerSecond = lookupsPerSecond(layout, true);
+            clear(jedis, layout);
+            return new Result(layout.getType(), encoding, bytesPerProduct, writesPerSecond, getsPerSecond, batchGetsPerSecond);
+        }
+    }
+
+    private double lookupsPerSecond(AveragePriceCacheLayout layout, boolean batch) throws Exception {
+        LongAdder lookups = new LongAdder();
+        long deadlineNanos = System.nanoTime() + durationMs * 1_000_000L;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadlineNanos) {
+                        try (Jedis jedis = jedisPool.getResource()) {
+                            if (batch) {
+                                List<Long> productIds = new ArrayList<>(LOOKUP_BATCH);
+                                for (int j = 0; j < LOOKUP_BATCH; j++) {
+                                    productIds.add(random.nextLong(1, products + 1L));
+                                }
+                                layout.getAll(jedis, productIds);
+                            } else {
+                                long productId = random.nextLong(1, products + 1L);
+                                Pipeline pipeline = jedis.pipelined();
+                                layout.get(pipeline, productId);
+                                pipeline.pttl(layout.key(productId));
+                                pipeline.sync();
+                            }
+                        }
+                        lookups.increment();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return lookups.sum() / (durationMs / 1000.0);
+    }
+
+    private void clear(Jedis jedis, AveragePriceCacheLayout layout) {
+        for (long from = 1; from <= products; from += WRITE_BATCH) {
+            Set<String> keys = new LinkedHashSet<>();
+            for (long productId = from; productId < Math.min(from + WRITE_BATCH, products + 1L); productId++) {
+                keys.add(layout.key(productId));
+            }
+            jedis.del(keys.toArray(String[]::new));
+        }
+    }
+
+    private static long usedMemory(Jedis jedis) {
+        for (String line : jedis.info("memory").split("\r?\n")) {
+            if (line.startsWith("used_memory:")) {
+                return Long.parseLong(line.substring("used_memory:".length()).strip());
+            }
+        }
+        throw new IllegalStateException("INFO memory did not report used_memory");
+    }
+}
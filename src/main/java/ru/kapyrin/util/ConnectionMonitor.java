@@ -9,6 +9,8 @@ import ru.kapyrin.config.RedisConfig;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.util.Locale;
+
 @Slf4j
 @RequiredArgsConstructor
 public class ConnectionMonitor {
@@ -16,9 +18,12 @@ public class ConnectionMonitor {
     private final RedisConfig redisConfig;
 
     public void registerMetrics() {
-        Gauge.builder("rabbitmq_connection_status", () -> rabbitMQConfig.getConnection().isOpen() ? 1.0 : 0.0)
-                .description("Status of RabbitMQ connection (1.0 = connected, 0.0 = disconnected)")
-                .register(Metrics.globalRegistry);
+        rabbitMQConfig.getConnections().forEach((role, connections) -> connections.forEach(connection ->
+                Gauge.builder("rabbitmq_connection_status", () -> connection.isOpen() ? 1.0 : 0.0)
+                        .description("Status of RabbitMQ connection (1.0 = connected, 0.0 = disconnected)")
+                        .tag("role", role.name().toLowerCase(Locale.ROOT))
+                        .tag("connection", connection.getClientProvidedName())
+                        .register(Metrics.globalRegistry)));
         Gauge.builder("redis_connection_status", () -> {
                     try (var jedis = redisConfig.getJedisPool().getResource()) {
                         return jedis.ping().equals("PONG") ? 1.0 : 0.0;
@@ -40,6 +45,7 @@ public class ConnectionMonitor {
             jedis.ping();
             if (!redisConfig.isRedisAvailable()) {
                 log.info("Redis connection restored");
+                warnIfBucketsNotListpackEncoded(jedis);
                 redisConfig.setRedisAvailable(true);
             }
         } catch (JedisConnectionException e) {
@@ -51,4 +57,20 @@ public class ConnectionMonitor {
             log.error("Error checking Redis connection: {}", e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    private void warnIfBucketsNotListpackEncoded(Jedis jedis) {
+        AveragePriceCacheLayout layout = redisConfig.getCacheLayout();
+        if (layout == null || !layout.isBucketed()) {
+            return;
+        }
+        try {
+            String maxEntries = jedis.configGet("hash-max-listpack-entries").get("hash-max-listpack-entries");
+            if (maxEntries != null && Integer.parseInt(maxEntries) < layout.getBucketSize()) {
+                log.warn("hash-max-listpack-entries={} is below redis.cache.bucket.size={}, cache buckets will use hashtable encoding",
+                        maxEntries, layout.getBucketSize());
+            }
+        } catch (Exception e) {
+            log.debug("Could not read hash-max-listpack-entries: {}", e.getMessage());
+        }
+    }
+}
@@ -23,6 +23,7 @@ public class ConsumerInitializer {
     private final PriceCalculationService priceCalculationService;
     private final PriceUpdateValidator priceUpdateValidator;
     private final List<Thread> consumerThreads;
+    private final ProductPartitioner productPartitioner;
     @Getter
     private final List<PriceUpdateConsumerTask> consumerTasks = new ArrayList<>();
 
@@ -30,7 +31,8 @@ public class ConsumerInitializer {
         int minConsumerCount = propertiesLoader.getIntProperty("rabbitmq.consumers.min", 2);
         for (int i = 0; i < minConsumerCount; i++) {
             PriceUpdateConsumerTask consumerTask = new PriceUpdateConsumerTask(
-                    rabbitMQConfig, validationExecutor, dbExecutor, priceCalculationService, priceUpdateValidator, propertiesLoader);
+                    rabbitMQConfig, validationExecutor, dbExecutor, priceCalculationService, priceUpdateValidator, propertiesLoader,
+                    productPartitioner);
             Thread consumerThread = new Thread(consumerTask, "PriceUpdateConsumer-" + i);
             consumerThreads.add(consumerThread);
             consumerTasks.add(consumerTask);
@@ -29,6 +29,7 @@ public class ConsumerScaler {
     private final  PriceCalculationService priceCalculationService;
     private final  PriceUpdateValidator priceUpdateValidator;
     private final  PropertiesLoader propertiesLoader;
+    private final  ProductPartitioner productPartitioner;
 
     public void scale() {
         try {
@@ -37,7 +38,8 @@ public class ConsumerScaler {
             int desiredConsumers = Math.min(Math.max(minConsumerCount, (int) (queueSize / queueSizeThreshold) + 1), maxConsumerCount);
             while (consumerThreads.size() < desiredConsumers) {
                 PriceUpdateConsumerTask consumerTask = new PriceUpdateConsumerTask(
-                        rabbitMQConfig, validationExecutor, dbExecutor, priceCalculationService, priceUpdateValidator, propertiesLoader);
+                        rabbitMQConfig, validationExecutor, dbExecutor, priceCalculationService, priceUpdateValidator, propertiesLoader,
+                        productPartitioner);
                 Thread consumerThread = new Thread(consumerTask, "PriceUpdateConsumer-" + consumerThreads.size());
                 consumerThreads.add(consumerThread);
                 consumerTasks.add(consumerTask);
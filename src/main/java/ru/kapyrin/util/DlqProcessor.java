@@ -8,8 +8,11 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import ru.kapyrin.config.PropertiesLoader;
 import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.model.PriceUpdate;
 
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 @Slf4j
@@ -24,12 +27,24 @@ public class DlqProcessor {
         Channel channel = null;
         String consumerTag = null;
         try {
-            channel = rabbitMQConfig.getConnection().createChannel();
+            channel = rabbitMQConfig.getConnection(RabbitMQConfig.Role.DLQ).createChannel();
             int prefetch = propertiesLoader.getIntProperty("rabbitmq.dlq.prefetch", 10);
             channel.basicQos(prefetch);
             DeliverCallback callback = (tag, delivery) -> {
-                String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-                log.warn("Received message in DLQ: {}", message);
+                String contentType = delivery.getProperties() != null ? delivery.getProperties().getContentType() : null;
+                Map<String, Object> headers = delivery.getProperties() != null ? delivery.getProperties().getHeaders() : null;
+                if (PriceUpdateBinaryCodec.isBinary(contentType) && headers != null && headers.containsKey(DlqPublisher.REASON_HEADER)) {
+                    List<PriceUpdate> updates = PriceUpdateBinaryCodec.decode(delivery.getBody(), delivery.getProperties().getContentEncoding());
+                    log.warn("Received DLQ envelope: reason={}, rule={}, attempts={}, items={}, originalDeliveryTag={}",
+                            headers.get(DlqPublisher.REASON_HEADER), headers.get(DlqPublisher.RULE_HEADER), headers.get(DlqPublisher.ATTEMPTS_HEADER),
+                            updates.size(), headers.get(DlqPublisher.ORIGINAL_DELIVERY_TAG_HEADER));
+                    log.debug("DLQ envelope items: {}", updates);
+                } else if (PriceUpdateBinaryCodec.isBinary(contentType)) {
+                    List<PriceUpdate> updates = PriceUpdateBinaryCodec.decode(delivery.getBody(), delivery.getProperties().getContentEncoding());
+                    log.warn("Received message in DLQ: {}", updates);
+                } else {
+                    log.warn("Received message in DLQ: {}", new String(delivery.getBody(), StandardCharsets.UTF_8));
+                }
                 dlqMessages.increment();
             };
             consumerTag = channel.basicConsume(rabbitMQConfig.getDlqName(), true, callback, tag -> {});
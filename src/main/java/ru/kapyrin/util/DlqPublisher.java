@@ -0,0 +1,160 @@
+package ru.kapyrin.util;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class DlqPublisher {
+    public static final String REASON_HEADER = "x-failure-reason";
+    public static final String RULE_HEADER = "x-failure-rule";
+    public static final String ATTEMPTS_HEADER = "x-failure-attempts";
+    public static final String ITEM_COUNT_HEADER = "x-item-count";
+    public static final String ORIGINAL_DELIVERY_TAG_HEADER = "x-original-delivery-tag";
+    public static final String ORIGINAL_CONSUMER_TAG_HEADER = "x-original-consumer-tag";
+    public static final String ORIGINAL_MESSAGE_ID_HEADER = "x-original-message-id";
+
+    private final RabbitMQConfig rabbitMQConfig;
+    private final String dlqName;
+    private final int compressionThresholdBytes;
+    private final long confirmTimeoutMs;
+    private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> unconfirmed = new ConcurrentSkipListMap<>();
+    private final Counter envelopesConfirmed = Metrics.counter("dlq_envelopes_published_total", "result", "confirmed");
+    private final Counter envelopesFailed = Metrics.counter("dlq_envelopes_published_total", "result", "failed");
+    private final Counter itemsPublished = Metrics.counter("dlq_items_published_total");
+    private volatile Channel channel;
+
+    public record Failure(String reason, String rule, int attempts) {
+    }
+
+    public DlqPublisher(RabbitMQConfig rabbitMQConfig, PropertiesLoader propertiesLoader) {
+        this.rabbitMQConfig = rabbitMQConfig;
+        this.dlqName = rabbitMQConfig.getDlqName();
+        this.compressionThresholdBytes = propertiesLoader.getIntProperty("rabbitmq.wire.compression.threshold.bytes", 8192);
+        this.confirmTimeoutMs = Math.max(1L, propertiesLoader.getLongProperty("rabbitmq.confirm.timeout.ms", 5_000L));
+    }
+
+    public synchronized void open() throws IOException {
+        Channel dlqChannel = rabbitMQConfig.getConnection(RabbitMQConfig.Role.DLQ).createChannel();
+        dlqChannel.confirmSelect();
+        dlqChannel.addConfirmListener((seqNo, multiple) -> complete(seqNo, multiple, null),
+                (seqNo, multiple) -> complete(seqNo, multiple, new IOException("DLQ envelope nacked by broker")));
+        dlqChannel.addShutdownListener(cause -> failAll(cause));
+        channel = dlqChannel;
+    }
+
+    public CompletableFuture<Void> publish(Map<Failure, List<PriceUpdate>> failures, String consumerTag, long deliveryTag,
+                                           AMQP.BasicProperties originalProperties) {
+        if (failures.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<CompletableFuture<Void>> confirms = new ArrayList<>(failures.size());
+        failures.forEach((failure, items) -> confirms.add(publishEnvelope(failure, items, consumerTag, deliveryTag, originalProperties)));
+        return CompletableFuture.allOf(confirms.toArray(CompletableFuture[]::new));
+    }
+
+    private CompletableFuture<Void> publishEnvelope(Failure failure, List<PriceUpdate> items, String consumerTag, long deliveryTag,
+                                                    AMQP.BasicProperties originalProperties) {
+        PriceUpdateBinaryCodec.Encoded encoded = PriceUpdateBinaryCodec.encode(items, compressionThresholdBytes);
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(REASON_HEADER, failure.reason());
+        headers.put(RULE_HEADER, failure.rule());
+        headers.put(ATTEMPTS_HEADER, failure.attempts());
+        headers.put(ITEM_COUNT_HEADER, items.size());
+        headers.put(ORIGINAL_DELIVERY_TAG_HEADER, deliveryTag);
+        if (consumerTag != null) {
+            headers.put(ORIGINAL_CONSUMER_TAG_HEADER, consumerTag);
+        }
+        if (originalProperties != null && originalProperties.getMessageId() != null) {
+            headers.put(ORIGINAL_MESSAGE_ID_HEADER, originalProperties.getMessageId());
+        }
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .contentType(PriceUpdateBinaryCodec.CONTENT_TYPE)
+                .contentEncoding(encoded.contentEncoding())
+                .deliveryMode(2)
+                .timestamp(new Date())
+                .headers(headers)
+                .build();
+
+        CompletableFuture<Void> confirmed = new CompletableFuture<>();
+        synchronized (this) {
+            Channel dlqChannel = channel;
+            if (dlqChannel == null || !dlqChannel.isOpen()) {
+                return failed(confirmed, new IOException("DLQ channel is not open"));
+            }
+            long seqNo = dlqChannel.getNextPublishSeqNo();
+            unconfirmed.put(seqNo, confirmed);
+            try {
+                dlqChannel.basicPublish("", dlqName, properties, encoded.body());
+            } catch (IOException e) {
+                unconfirmed.remove(seqNo);
+                return failed(confirmed, e);
+            }
+            confirmed.orTimeout(confirmTimeoutMs, TimeUnit.MILLISECONDS)
+                    .whenComplete((v, e) -> unconfirmed.remove(seqNo, confirmed));
+        }
+        return confirmed.whenComplete((v, e) -> {
+            if (e == null) {
+                envelopesConfirmed.increment();
+                itemsPublished.increment(items.size());
+            } else {
+                envelopesFailed.increment();
+                log.error("DLQ envelope of {} items ({}: {}) not confirmed for deliveryTag={}: {}",
+                        items.size(), failure.reason(), failure.rule(), deliveryTag, e.getMessage());
+            }
+        });
+    }
+
+    private CompletableFuture<Void> failed(CompletableFuture<Void> confirmed, Exception e) {
+        envelopesFailed.increment();
+        confirmed.completeExceptionally(e);
+        return confirmed;
+    }
+
+    private void complete(long seqNo, boolean multiple, Exception error) {
+        Map<Long, CompletableFuture<Void>> completed = multiple
+                ? unconfirmed.headMap(seqNo, true)
+                : unconfirmed.subMap(seqNo, true, seqNo, true);
+        for (CompletableFuture<Void> confirmed : completed.values()) {
+            if (error == null) {
+                confirmed.complete(null);
+            } else {
+                confirmed.completeExceptionally(error);
+            }
+        }
+        completed.clear();
+    }
+
+    private void failAll(Exception cause) {
+        if (!unconfirmed.isEmpty()) {
+            log.warn("DLQ channel closed with {} unconfirmed envelopes: {}", unconfirmed.size(), cause.getMessage());
+        }
+        complete(Long.MAX_VALUE, true, cause);
+    }
+
+    public synchronized void close() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (Exception e) {
+            log.warn("DLQ channel close failed: {}", e.getMessage());
+        }
+    }
+}
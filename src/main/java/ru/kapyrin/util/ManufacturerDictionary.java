@@ -0,0 +1,66 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.repository.PriceRepository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+public class ManufacturerDictionary {
+    private static final int MAX_RESOLVE_ATTEMPTS = 3;
+
+    private final PriceRepository priceRepository;
+    private final int maxEntries;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Counter cacheHits = Metrics.counter("manufacturer_dictionary_lookups_total", "result", "hit");
+    private final Counter cacheMisses = Metrics.counter("manufacturer_dictionary_lookups_total", "result", "miss");
+    private final Counter resolveQueries = Metrics.counter("manufacturer_dictionary_resolve_queries_total");
+
+    public ManufacturerDictionary(PriceRepository priceRepository, PropertiesLoader propertiesLoader) {
+        this.priceRepository = priceRepository;
+        this.maxEntries = Math.max(1, propertiesLoader.getIntProperty("manufacturers.cache.max.entries", 100_000));
+        Gauge.builder("manufacturer_dictionary_entries", ids, Map::size)
+                .description("Manufacturer name to id mappings cached in memory")
+                .register(Metrics.globalRegistry);
+    }
+
+    public Map<String, Integer> resolve(Collection<String> manufacturerNames) throws PriceUpdateException {
+        Map<String, Integer> resolved = new HashMap<>();
+        Set<String> unknown = new HashSet<>();
+        for (String name : manufacturerNames) {
+            Integer id = ids.get(name);
+            if (id != null) {
+                resolved.put(name, id);
+            } else {
+                unknown.add(name);
+            }
+        }
+        cacheHits.increment(manufacturerNames.size() - unknown.size());
+        cacheMisses.increment(unknown.size());
+        for (int attempt = 1; !unknown.isEmpty(); attempt++) {
+            if (attempt > MAX_RESOLVE_ATTEMPTS) {
+                throw new PriceUpdateException("Failed to resolve ids for " + unknown.size() + " manufacturers");
+            }
+            Map<String, Integer> loaded = priceRepository.resolveManufacturerIds(unknown);
+            resolveQueries.increment();
+            loaded.forEach((name, id) -> {
+                resolved.put(name, id);
+                unknown.remove(name);
+                if (ids.size() < maxEntries) {
+                    ids.put(name, id);
+                }
+            });
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,305 @@
+package ru.kapyrin.util;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.ProductIdRange;
+import ru.kapyrin.repository.SqlQueries;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Moves {@code product_price} from manufacturer names to manufacturer ids without blocking writes. Migration
+ * {@code V005} adds a nullable {@code manufacturer_id} and a trigger that fills it from the name (and the name
+ * from the id), so old and new instances can write side by side. {@link #backfill()} runs on every start until
+ * the switch: it fills the ids in {@code product_id} chunks, builds the unique {@code (product_id, manufacturer_id)}
+ * index concurrently and proves the column has no nulls with a validated check. {@link #migrate()}
+ * ({@code migrate-manufacturers}, once no instance of the previous release is left) then drops the name column
+ * under a short lock. The partitioned copy awaiting {@link PartitionMigrator} follows through its mirror trigger.
+ */
+@Slf4j
+public class ManufacturerMigrator {
+    private static final String[] TABLES = {"product_price", "product_price_partitioned"};
+
+    private final DataSource dataSource;
+    private final long chunkSize;
+    private final long pauseMs;
+
+    public ManufacturerMigrator(DataSource dataSource, PropertiesLoader propertiesLoader) {
+        this.dataSource = dataSource;
+        this.chunkSize = Math.max(1L, propertiesLoader.getLongProperty("db.manufacturer.migration.chunk.size", 50_000L));
+        this.pauseMs = Math.max(0L, propertiesLoader.getLongProperty("db.manufacturer.migration.pause.ms", 50L));
+    }
+
+    public boolean isPending() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_MANUFACTURER_MIGRATION_PENDING);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean("pending");
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to check manufacturer migration state", e);
+        }
+    }
+
+    public void backfill() {
+        if (!isPending()) {
+            return;
+        }
+        try (Connection lockConnection = dataSource.getConnection()) {
+            execute(lockConnection, SqlQueries.LOCK_MANUFACTURER_MIGRATION);
+            try {
+                if (isBackfilled()) {
+                    log.info("Manufacturer ids are backfilled; run migrate-manufacturers once no instance writes names");
+                    return;
+                }
+                selectProductIdRange().ifPresent(range -> backfillInChunks(range.minProductId(), range.maxProductId()));
+                for (String table : existingTables()) {
+                    ensureUniqueIndex(table);
+                    for (String relation : dataRelations(table)) {
+                        ensureNotNullCheck(relation);
+                    }
+                }
+                log.info("Manufacturer ids backfilled; run migrate-manufacturers once no instance writes names");
+            } finally {
+                execute(lockConnection, SqlQueries.UNLOCK_MANUFACTURER_MIGRATION);
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to backfill manufacturer ids", e);
+        }
+    }
+
+    public void migrate() {
+        if (!isPending()) {
+            log.info("product_price is already keyed by manufacturer id, nothing to migrate");
+            return;
+        }
+        backfill();
+        List<String> tables = existingTables();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(SqlQueries.SET_SWITCH_LOCK_TIMEOUT);
+                statement.execute(SqlQueries.LOCK_TABLES_FOR_SWITCH.formatted(String.join(", ", tables)));
+                for (String table : tables) {
+                    for (String sql : SqlQueries.SWITCH_TO_MANUFACTURER_IDS) {
+                        statement.execute(sql.formatted(table));
+                    }
+                    if (childPartitions(table).isEmpty()) {
+                        statement.execute(SqlQueries.ADOPT_MANUFACTURER_ID_PRIMARY_KEY.formatted(table));
+                        statement.execute(SqlQueries.ADD_MANUFACTURER_ID_FOREIGN_KEY.formatted(table));
+                    }
+                    for (String relation : dataRelations(table)) {
+                        statement.execute(SqlQueries.DROP_CONSTRAINT.formatted(relation, checkName(relation)));
+                    }
+                }
+                if (tables.contains("product_price_partitioned")) {
+                    statement.execute(SqlQueries.MIRROR_PRODUCT_PRICE_BY_MANUFACTURER_ID);
+                }
+                statement.execute(SqlQueries.DROP_MANUFACTURER_SYNC_FUNCTION);
+                connection.commit();
+                log.info("Switched {} to manufacturer ids", tables);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new PriceUpdateException("Failed to switch product_price to manufacturer ids, rolled back", e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            for (String table : tables) {
+                if (childPartitions(table).isEmpty()) {
+                    execute(connection, SqlQueries.VALIDATE_CONSTRAINT.formatted(table, table + "_manufacturer_id_fkey"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get connection for manufacturer id switch", e);
+        }
+    }
+
+    private boolean isBackfilled() throws SQLException {
+        for (String table : existingTables()) {
+            if (!isIndexValid(table + "_manufacturer_id_key")) {
+                return false;
+            }
+            for (String relation : dataRelations(table)) {
+                if (!isIndexValid(relation + "_manufacturer_id_key") || !isCheckValidated(relation)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void backfillInChunks(long minProductId, long maxProductId) {
+        log.info("Backfilling manufacturer ids for product_id range {}..{}, chunkSize={}", minProductId, maxProductId, chunkSize);
+        long backfilled = 0;
+        for (long from = minProductId; from <= maxProductId; from += chunkSize) {
+            long to = Math.min(maxProductId, from + chunkSize - 1);
+            updateChunk(SqlQueries.INSERT_MANUFACTURERS_CHUNK, from, to);
+            backfilled += updateChunk(SqlQueries.BACKFILL_MANUFACTURER_IDS_CHUNK, from, to);
+            log.info("Backfilled product_id range {}..{} (rows={})", from, to, backfilled);
+            if (to == maxProductId) {
+                break;
+            }
+            pause();
+        }
+    }
+
+    private int updateChunk(String sql, long from, long to) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, from);
+            ps.setLong(2, to);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to backfill manufacturer ids for product_id range " + from + ".." + to, e);
+        }
+    }
+
+    private void ensureUniqueIndex(String table) throws SQLException {
+        List<String> partitions = childPartitions(table);
+        if (partitions.isEmpty()) {
+            createIndexConcurrently(table + "_manufacturer_id_key", table);
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            execute(connection, SqlQueries.CREATE_MANUFACTURER_ID_INDEX_ON_PARENT.formatted(table + "_manufacturer_id_key", table));
+            for (String partition : partitions) {
+                createIndexConcurrently(partition + "_manufacturer_id_key", partition);
+                execute(connection, SqlQueries.ATTACH_INDEX_PARTITION.formatted(table + "_manufacturer_id_key", partition + "_manufacturer_id_key"));
+            }
+        }
+    }
+
+    private void createIndexConcurrently(String index, String relation) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (indexExists(index) && !isIndexValid(index)) {
+                log.warn("Dropping invalid index {} left by an interrupted build", index);
+                execute(connection, SqlQueries.DROP_INDEX_CONCURRENTLY.formatted(index));
+            }
+            log.info("Building unique index {} on {}", index, relation);
+            execute(connection, SqlQueries.CREATE_MANUFACTURER_ID_INDEX_CONCURRENTLY.formatted(index, relation));
+        }
+    }
+
+    private void ensureNotNullCheck(String relation) throws SQLException {
+        if (isCheckValidated(relation)) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            if (!checkExists(relation)) {
+                execute(connection, SqlQueries.ADD_MANUFACTURER_ID_CHECK.formatted(relation, checkName(relation)));
+            }
+            execute(connection, SqlQueries.VALIDATE_CONSTRAINT.formatted(relation, checkName(relation)));
+        }
+    }
+
+    private List<String> existingTables() {
+        List<String> tables = new ArrayList<>(TABLES.length);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement("SELECT to_regclass(?) IS NOT NULL AS present")) {
+            for (String table : TABLES) {
+                ps.setString(1, table);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getBoolean("present")) {
+                        tables.add(table);
+                    }
+                }
+            }
+            return tables;
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to list price tables", e);
+        }
+    }
+
+    private List<String> dataRelations(String table) throws SQLException {
+        List<String> partitions = childPartitions(table);
+        return partitions.isEmpty() ? List.of(table) : partitions;
+    }
+
+    private List<String> childPartitions(String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_CHILD_PARTITIONS)) {
+            ps.setString(1, table);
+            List<String> partitions = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    partitions.add(rs.getString("partition_name"));
+                }
+            }
+            return partitions;
+        }
+    }
+
+    private boolean indexExists(String index) throws SQLException {
+        return queryFlag(SqlQueries.SELECT_INDEX_VALID, index) != null;
+    }
+
+    private boolean isIndexValid(String index) throws SQLException {
+        return Boolean.TRUE.equals(queryFlag(SqlQueries.SELECT_INDEX_VALID, index));
+    }
+
+    private boolean checkExists(String relation) throws SQLException {
+        return queryFlag(SqlQueries.SELECT_CONSTRAINT_VALIDATED, relation, checkName(relation)) != null;
+    }
+
+    private boolean isCheckValidated(String relation) throws SQLException {
+        return Boolean.TRUE.equals(queryFlag(SqlQueries.SELECT_CONSTRAINT_VALIDATED, relation, checkName(relation)));
+    }
+
+    private Boolean queryFlag(String sql, String... params) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setString(i + 1, params[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getBoolean(1) : null;
+            }
+        }
+    }
+
+    private static String checkName(String relation) {
+        return relation + "_manufacturer_id_check";
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private Optional<ProductIdRange> selectProductIdRange() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_PRODUCT_ID_RANGE);
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                long min = rs.getLong("min_product_id");
+                if (!rs.wasNull()) {
+                    return Optional.of(new ProductIdRange(min, rs.getLong("max_product_id")));
+                }
+            }
+            return Optional.empty();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get product id range", e);
+        }
+    }
+
+    private void pause() {
+        if (pauseMs == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PriceUpdateException("Manufacturer id backfill interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.ProductIdRange;
+import ru.kapyrin.repository.SqlQueries;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class PartitionMigrator {
+    private final DataSource dataSource;
+    private final long chunkSize;
+    private final long pauseMs;
+    private final PropertiesLoader propertiesLoader;
+    private final long checkIntervalMinutes;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private volatile boolean mirrorTriggersInstalled;
+
+    public PartitionMigrator(DataSource dataSource, PropertiesLoader propertiesLoader) {
+        this.dataSource = dataSource;
+        this.propertiesLoader = propertiesLoader;
+        this.chunkSize = Math.max(1L, propertiesLoader.getLongProperty("db.partition.migration.chunk.size", 50_000L));
+        this.pauseMs = Math.max(0L, propertiesLoader.getLongProperty("db.partition.migration.pause.ms", 50L));
+        this.checkIntervalMinutes = Math.max(1L, propertiesLoader.getLongProperty("db.partition.migration.check.interval.minutes", 10L));
+    }
+
+    /**
+     * Until {@link #migrate()} swaps the tables, the {@code V002} triggers write every price and aggregate change
+     * twice. Exposes that state as {@code partition_migration_mirror_triggers_installed} and keeps warning about it,
+     * so a migration that was never run or stalled does not go unnoticed.
+     */
+    public void startMonitor() {
+        Gauge.builder("partition_migration_mirror_triggers_installed", () -> mirrorTriggersInstalled ? 1.0 : 0.0)
+                .description("Whether writes are still mirrored into the partitioned copies (1.0) until migrate-partitions swaps them")
+                .register(Metrics.globalRegistry);
+        scheduler.scheduleWithFixedDelay(this::checkMirrorTriggers, 0, checkIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    private void checkMirrorTriggers() {
+        try {
+            mirrorTriggersInstalled = isMigrationPending();
+            if (mirrorTriggersInstalled) {
+                log.warn("Partitioned copies are still kept in sync by triggers, so every price and aggregate write is done twice; run migrate-partitions");
+            }
+        } catch (Exception e) {
+            log.error("Partition migration state check failed: {}", e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public void migrate() {
+        if (!isMigrationPending()) {
+            log.info("Partitioned tables are already in place, nothing to migrate");
+            return;
+        }
+        if (new ManufacturerMigrator(dataSource, propertiesLoader).isPending()) {
+            throw new PriceUpdateException("product_price still stores manufacturer names, run migrate-manufacturers first");
+        }
+        selectProductIdRange().ifPresent(range -> copyInChunks(range.minProductId(), range.maxProductId()));
+        swapTables();
+        log.info("Partition migration complete. product_price_legacy and product_avg_price_legacy can be dropped once verified");
+    }
+
+    private boolean isMigrationPending() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_PARTITION_MIGRATION_PENDING);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean("pending");
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to check partition migration state", e);
+        }
+    }
+
+    private Optional<ProductIdRange> selectProductIdRange() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_PRODUCT_ID_RANGE);
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                long min = rs.getLong("min_product_id");
+                if (!rs.wasNull()) {
+                    return Optional.of(new ProductIdRange(min, rs.getLong("max_product_id")));
+                }
+            }
+            return Optional.empty();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get product id range", e);
+        }
+    }
+
+    private void copyInChunks(long minProductId, long maxProductId) {
+        log.info("Copying product_id range {}..{} into partitioned tables, chunkSize={}", minProductId, maxProductId, chunkSize);
+        long copiedPrices = 0;
+        long copiedAggregates = 0;
+        for (long from = minProductId; from <= maxProductId; from += chunkSize) {
+            long to = Math.min(maxProductId, from + chunkSize - 1);
+            copiedPrices += copyChunk(SqlQueries.COPY_PRICE_CHUNK_TO_PARTITIONED, from, to);
+            copiedAggregates += copyChunk(SqlQueries.COPY_AVG_PRICE_CHUNK_TO_PARTITIONED, from, to);
+            log.info("Copied product_id range {}..{} (prices={}, aggregates={})", from, to, copiedPrices, copiedAggregates);
+            if (to == maxProductId) {
+                break;
+            }
+            pause();
+        }
+    }
+
+    private int copyChunk(String sql, long from, long to) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, from);
+            ps.setLong(2, to);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to copy product_id range " + from + ".." + to, e);
+        }
+    }
+
+    private void swapTables() {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SqlQueries.SWAP_PARTITIONED_TABLES) {
+                    statement.execute(sql);
+                }
+                connection.commit();
+                log.info("Swapped partitioned tables in place of product_price and product_avg_price");
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new PriceUpdateException("Failed to swap partitioned tables, rolled back", e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new PriceUpdateException("Failed to get connection for table swap", e);
+        }
+    }
+
+    private void pause() {
+        if (pauseMs == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PriceUpdateException("Partition migration interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ru.kapyrin.util;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retunes a consumer's prefetch with Little's law: the credit a consumer needs is its settle rate times
+ * the time a delivery holds credit (processing until ack, plus the broker refill delay), with headroom.
+ * When the consumer ran out of credit while its own work queue stayed empty, the broker is the
+ * bottleneck and the limit grows by half. The value is applied as a channel-wide {@code basicQos}.
+ */
+@Slf4j
+public class PrefetchTuner {
+    private static final AtomicInteger CONSUMER_IDS = new AtomicInteger();
+
+    private final boolean enabled;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final long tuneIntervalNanos;
+    private final double headroom;
+    private final double refillSeconds;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder settled = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final Gauge prefetchGauge;
+    private volatile int prefetch;
+    private long windowStartNanos = System.nanoTime();
+
+    public PrefetchTuner(PropertiesLoader propertiesLoader) {
+        this.enabled = propertiesLoader.getBooleanProperty("rabbitmq.prefetch.autotune.enabled", true);
+        this.minPrefetch = Math.max(1, propertiesLoader.getIntProperty("rabbitmq.prefetch.min", 10));
+        this.maxPrefetch = Math.max(minPrefetch, propertiesLoader.getIntProperty("rabbitmq.prefetch.max", 1000));
+        this.tuneIntervalNanos = Math.max(100L, propertiesLoader.getLongProperty("rabbitmq.prefetch.tune.interval.ms", 5_000L)) * 1_000_000L;
+        this.headroom = 1.0 + Math.max(0, propertiesLoader.getIntProperty("rabbitmq.prefetch.headroom.percent", 50)) / 100.0;
+        this.refillSeconds = Math.max(0L, propertiesLoader.getLongProperty("rabbitmq.prefetch.refill.ms", 20L)) / 1_000.0;
+        int initial = Math.max(1, propertiesLoader.getIntProperty("rabbitmq.prefetch", 50));
+        this.prefetch = enabled ? clamp(initial) : initial;
+        this.prefetchGauge = Gauge.builder("rabbitmq_consumer_prefetch", () -> prefetch)
+                .description("Prefetch currently applied to the consumer channel")
+                .tag("consumer", String.valueOf(CONSUMER_IDS.incrementAndGet()))
+                .register(Metrics.globalRegistry);
+    }
+
+    public int prefetch() {
+        return prefetch;
+    }
+
+    public void apply(Channel channel) throws IOException {
+        channel.basicQos(prefetch, enabled);
+    }
+
+    public void onDelivered() {
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    }
+
+    public void onSettled(long receivedNanos, long startedNanos) {
+        long now = System.nanoTime();
+        inFlight.decrementAndGet();
+        settled.increment();
+        serviceNanos.add(now - startedNanos);
+        waitNanos.add(startedNanos - receivedNanos);
+    }
+
+    public void maybeRetune(Channel channel) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed < tuneIntervalNanos) {
+            return;
+        }
+        long count = settled.sumThenReset();
+        double service = serviceNanos.sumThenReset();
+        double wait = waitNanos.sumThenReset();
+        int peak = peakInFlight.getAndSet(inFlight.get());
+        windowStartNanos = now;
+        if (count == 0) {
+            return;
+        }
+        int current = prefetch;
+        int target = computeTarget(current, count / (elapsed / 1e9), service / count / 1e9, wait / count / 1e9, peak);
+        if (Math.abs(target - current) < Math.max(2, current / 10)) {
+            return;
+        }
+        try {
+            channel.basicQos(target, true);
+            prefetch = target;
+            log.info("Consumer prefetch retuned {} -> {} (settled {}/s, service {} ms, peak in flight {})",
+                    current, target, Math.round(count / (elapsed / 1e9)), Math.round(service / count / 1e6), peak);
+        } catch (IOException e) {
+            log.warn("Failed to apply prefetch {}: {}", target, e.getMessage());
+        }
+    }
+
+    int computeTarget(int current, double settledPerSecond, double serviceSeconds, double waitSeconds, int peakInFlight) {
+        int target = (int) Math.ceil(settledPerSecond * (serviceSeconds + refillSeconds) * headroom);
+        boolean creditBound = peakInFlight >= current && waitSeconds < Math.max(refillSeconds, serviceSeconds / 10);
+        if (creditBound) {
+            target = Math.max(target, current + Math.max(1, current / 2));
+        }
+        return clamp(target);
+    }
+
+    private int clamp(int value) {
+        return Math.min(maxPrefetch, Math.max(minPrefetch, value));
+    }
+
+    public void close() {
+        Metrics.globalRegistry.remove(prefetchGauge);
+    }
+}
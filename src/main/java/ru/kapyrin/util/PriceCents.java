@@ -0,0 +1,171 @@
+package ru.kapyrin.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Prices are carried as whole cents in a {@code long}. Parsing rounds half away from zero at the
+ * second decimal, the same rule PostgreSQL applies when storing into {@code DECIMAL(10,2)}.
+ */
+public final class PriceCents {
+    public static final int MAX_FORMATTED_LENGTH = 21;
+    private static final byte[] LONG_MIN_VALUE = "-92233720368547758.08".getBytes(StandardCharsets.US_ASCII);
+
+    private PriceCents() {
+    }
+
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    public static long parse(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        while (end > i && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        for (; i < end && isDigit(text.charAt(i)); i++, digits++) {
+            if (units > (Long.MAX_VALUE / 100 - 9) / 10) {
+                return parseSlow(text, start, end);
+            }
+            units = units * 10 + (text.charAt(i) - '0');
+        }
+        long fraction = 0;
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            int scale = 0;
+            for (; i < end && isDigit(text.charAt(i)); i++, digits++, scale++) {
+                if (scale < 2) {
+                    fraction = fraction * 10 + (text.charAt(i) - '0');
+                } else if (scale == 2 && text.charAt(i) >= '5') {
+                    fraction++;
+                }
+            }
+            if (scale == 1) {
+                fraction *= 10;
+            }
+        }
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            return parseSlow(text, start, end);
+        }
+        if (digits == 0 || i != end) {
+            throw new NumberFormatException("Invalid price: " + text.subSequence(start, end));
+        }
+        long cents = units * 100 + fraction;
+        return negative ? -cents : cents;
+    }
+
+    public static long fromDouble(double price) {
+        return BigDecimal.valueOf(price).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    public static String format(long cents) {
+        byte[] buffer = new byte[MAX_FORMATTED_LENGTH];
+        int length = format(cents, buffer, 0);
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    public static StringBuilder append(StringBuilder out, long cents) {
+        if (cents == Long.MIN_VALUE) {
+            return out.append("-92233720368547758.08");
+        }
+        if (cents < 0) {
+            out.append('-');
+        }
+        long abs = Math.abs(cents);
+        long fraction = abs % 100;
+        return out.append(abs / 100).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+
+    /**
+     * Writes {@code cents} as ASCII {@code [-]units.cc} into {@code buffer} without allocating and
+     * returns the number of bytes written, at most {@link #MAX_FORMATTED_LENGTH}.
+     */
+    public static int format(long cents, byte[] buffer, int offset) {
+        if (cents == Long.MIN_VALUE) {
+            System.arraycopy(LONG_MIN_VALUE, 0, buffer, offset, LONG_MIN_VALUE.length);
+            return LONG_MIN_VALUE.length;
+        }
+        int position = offset;
+        if (cents < 0) {
+            buffer[position++] = '-';
+            cents = -cents;
+        }
+        long units = cents / 100;
+        int fraction = (int) (cents % 100);
+        int unitDigits = 1;
+        for (long rest = units; rest >= 10; rest /= 10) {
+            unitDigits++;
+        }
+        for (int i = position + unitDigits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + units % 10);
+            units /= 10;
+        }
+        position += unitDigits;
+        buffer[position++] = '.';
+        buffer[position++] = (byte) ('0' + fraction / 10);
+        buffer[position++] = (byte) ('0' + fraction % 10);
+        return position - offset;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static long parseSlow(CharSequence text, int start, int end) {
+        try {
+            return new BigDecimal(text.subSequence(start, end).toString().strip())
+                    .setScale(2, RoundingMode.HALF_UP)
+                    .unscaledValue()
+                    .longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price out of range: " + text.subSequence(start, end));
+        }
+    }
+
+    public static final class Deserializer extends JsonDeserializer<Long> {
+        @Override
+        public Long deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            JsonToken token = parser.currentToken();
+            if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_STRING) {
+                return (Long) context.handleUnexpectedToken(long.class, parser);
+            }
+            try {
+                return parse(CharBuffer.wrap(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength()));
+            } catch (NumberFormatException e) {
+                return (Long) context.handleWeirdStringValue(long.class, parser.getText(), e.getMessage());
+            }
+        }
+    }
+
+    public static final class Serializer extends JsonSerializer<Long> {
+        @Override
+        public void serialize(Long cents, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeNumber(format(cents));
+        }
+    }
+}
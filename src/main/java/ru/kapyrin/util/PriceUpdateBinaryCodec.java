@@ -0,0 +1,158 @@
+package ru.kapyrin.util;
+
+import ru.kapyrin.model.PriceUpdate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public final class PriceUpdateBinaryCodec {
+    public static final String CONTENT_TYPE = "application/x-price-updates-v1";
+    public static final String CONTENT_ENCODING_DEFLATE = "deflate";
+    private static final byte MAGIC = 'P';
+    private static final byte VERSION = 2;
+    private static final byte VERSION_DOUBLE_PRICES = 1;
+    private static final int NULL_NAME_LENGTH = -1;
+
+    private PriceUpdateBinaryCodec() {
+    }
+
+    public record Encoded(byte[] body, String contentEncoding) {
+    }
+
+    public static Encoded encode(List<PriceUpdate> updates, int compressionThresholdBytes) {
+        byte[] raw = encode(updates);
+        if (compressionThresholdBytes <= 0 || raw.length < compressionThresholdBytes) {
+            return new Encoded(raw, null);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(out, deflater)) {
+            deflaterStream.write(raw);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to compress price updates", e);
+        } finally {
+            deflater.end();
+        }
+        byte[] compressed = out.toByteArray();
+        return compressed.length < raw.length ? new Encoded(compressed, CONTENT_ENCODING_DEFLATE) : new Encoded(raw, null);
+    }
+
+    public static byte[] encode(List<PriceUpdate> updates) {
+        int count = updates.size();
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<byte[]> names = new ArrayList<>();
+        int[] nameIndexes = new int[count];
+        int namesBytes = 0;
+        for (int i = 0; i < count; i++) {
+            String name = updates.get(i).manufacturerName();
+            Integer index = dictionary.get(name);
+            if (index == null) {
+                byte[] nameBytes = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+                index = names.size();
+                dictionary.put(name, index);
+                names.add(nameBytes);
+                namesBytes += Integer.BYTES + (nameBytes == null ? 0 : nameBytes.length);
+            }
+            nameIndexes[i] = index;
+        }
+        int indexWidth = names.size() <= 0xFF ? 1 : names.size() <= 0xFFFF ? 2 : 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(2 + Integer.BYTES + Integer.BYTES + namesBytes + 1
+                + count * (Long.BYTES + indexWidth + Long.BYTES));
+        buffer.put(MAGIC).put(VERSION).putInt(count).putInt(names.size());
+        for (byte[] name : names) {
+            if (name == null) {
+                buffer.putInt(NULL_NAME_LENGTH);
+            } else {
+                buffer.putInt(name.length).put(name);
+            }
+        }
+        buffer.put((byte) indexWidth);
+        for (PriceUpdate update : updates) {
+            buffer.putLong(update.productId());
+        }
+        for (int index : nameIndexes) {
+            switch (indexWidth) {
+                case 1 -> buffer.put((byte) index);
+                case 2 -> buffer.putShort((short) index);
+                default -> buffer.putInt(index);
+            }
+        }
+        for (PriceUpdate update : updates) {
+            buffer.putLong(update.priceCents());
+        }
+        return buffer.array();
+    }
+
+    public static List<PriceUpdate> decode(byte[] body, String contentEncoding) throws IOException {
+        byte[] raw = CONTENT_ENCODING_DEFLATE.equals(contentEncoding) ? inflate(body) : body;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            if (buffer.get() != MAGIC) {
+                throw new IOException("Unsupported binary price update format");
+            }
+            byte version = buffer.get();
+            if (version != VERSION && version != VERSION_DOUBLE_PRICES) {
+                throw new IOException("Unsupported binary price update version " + version);
+            }
+            int count = buffer.getInt();
+            int dictionarySize = buffer.getInt();
+            if (count < 0 || count > raw.length || dictionarySize < 0 || dictionarySize > count) {
+                throw new IOException("Corrupted binary price update header");
+            }
+            String[] names = new String[dictionarySize];
+            for (int i = 0; i < dictionarySize; i++) {
+                int nameLength = buffer.getInt();
+                if (nameLength == NULL_NAME_LENGTH) {
+                    continue;
+                }
+                byte[] nameBytes = new byte[nameLength];
+                buffer.get(nameBytes);
+                names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+            }
+            int indexWidth = buffer.get();
+            long[] productIds = new long[count];
+            for (int i = 0; i < count; i++) {
+                productIds[i] = buffer.getLong();
+            }
+            int[] nameIndexes = new int[count];
+            for (int i = 0; i < count; i++) {
+                nameIndexes[i] = switch (indexWidth) {
+                    case 1 -> Byte.toUnsignedInt(buffer.get());
+                    case 2 -> Short.toUnsignedInt(buffer.getShort());
+                    default -> buffer.getInt();
+                };
+            }
+            List<PriceUpdate> updates = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long priceCents = version == VERSION ? buffer.getLong() : PriceCents.fromDouble(buffer.getDouble());
+                updates.add(new PriceUpdate(productIds[i], names[nameIndexes[i]], priceCents));
+            }
+            return updates;
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Truncated or corrupted binary price update message", e);
+        }
+    }
+
+    private static byte[] inflate(byte[] body) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+
+    public static boolean isBinary(String contentType) {
+        return CONTENT_TYPE.equals(contentType);
+    }
+}
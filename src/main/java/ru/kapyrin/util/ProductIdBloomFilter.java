@@ -0,0 +1,314 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RedisConfig;
+import ru.kapyrin.repository.PriceRepository;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory Bloom filter of all product ids, rebuilt from the database every {@code bloom.rebuild.interval.minutes}
+ * and whenever {@link #REBUILD_EPOCH_KEY} changes. Products created by the consumers are {@link #announce announced}
+ * on the Redis channel {@code bloom.redis.channel}, so every instance knows them immediately instead of rejecting
+ * them until its next rebuild. Announcements sent while an instance was not subscribed are lost, so an instance
+ * rebuilds after it resubscribes.
+ */
+@Slf4j
+public class ProductIdBloomFilter {
+    public static final String REBUILD_EPOCH_KEY = "product_bloom:epoch";
+    private static final long SECOND_HASH_SALT = 0x9E3779B97F4A7C15L;
+
+    private final PriceRepository priceRepository;
+    private final RedisConfig redisConfig;
+    private final boolean enabled;
+    private final long expectedProducts;
+    private final long bitCount;
+    private final int hashCount;
+    private final long rebuildIntervalMinutes;
+    private final long epochCheckIntervalSeconds;
+    private final String channel;
+    private final long resubscribeDelayMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService subscriberExecutor = Executors.newSingleThreadExecutor();
+    private final Counter announceErrors = Metrics.counter("product_bloom_filter_announce_errors_total");
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    private final LongAdder insertions = new LongAdder();
+    private volatile AtomicLongArray bits;
+    private volatile AtomicLongArray pendingBits;
+    private volatile boolean ready;
+    private volatile String lastEpoch;
+    private volatile JedisPubSub subscription;
+    private volatile boolean running;
+
+    public ProductIdBloomFilter(PriceRepository priceRepository, RedisConfig redisConfig, PropertiesLoader propertiesLoader) {
+        this.priceRepository = priceRepository;
+        this.redisConfig = redisConfig;
+        this.enabled = propertiesLoader.getBooleanProperty("bloom.enabled", true);
+        this.expectedProducts = Math.max(1_000L, propertiesLoader.getLongProperty("bloom.expected.products", 10_000_000L));
+        double falsePositiveRate = Double.parseDouble(propertiesLoader.getProperty("bloom.false.positive.rate", "0.01"));
+        this.bitCount = optimalBitCount(expectedProducts, falsePositiveRate);
+        this.hashCount = optimalHashCount(expectedProducts, bitCount);
+        this.rebuildIntervalMinutes = Math.max(1L, propertiesLoader.getLongProperty("bloom.rebuild.interval.minutes", 60L));
+        this.epochCheckIntervalSeconds = Math.max(1L, propertiesLoader.getLongProperty("bloom.epoch.check.interval.seconds", 30L));
+        this.channel = propertiesLoader.getProperty("bloom.redis.channel", "product_bloom:created");
+        this.resubscribeDelayMs = Math.max(100L, propertiesLoader.getLongProperty("bloom.redis.resubscribe.delay.ms", 1_000L));
+        this.bits = new AtomicLongArray(wordCount(bitCount));
+    }
+
+    public void start() {
+        if (!enabled) {
+            log.info("Product id Bloom filter disabled");
+            return;
+        }
+        Gauge.builder("product_bloom_filter_ready", () -> ready ? 1.0 : 0.0)
+                .description("Whether unknown product ids are rejected by the Bloom filter (1.0) or passed through (0.0)")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("product_bloom_filter_insertions", insertions, LongAdder::sum)
+                .description("Product ids added to the Bloom filter since the last rebuild")
+                .register(Metrics.globalRegistry);
+        lastEpoch = readEpoch();
+        scheduler.execute(this::rebuild);
+        scheduler.scheduleWithFixedDelay(this::rebuild, rebuildIntervalMinutes, rebuildIntervalMinutes, TimeUnit.MINUTES);
+        scheduler.scheduleWithFixedDelay(this::rebuildIfEpochChanged, epochCheckIntervalSeconds, epochCheckIntervalSeconds, TimeUnit.SECONDS);
+        if (redisConfig != null && redisConfig.getJedisPool() != null) {
+            running = true;
+            subscriberExecutor.submit(this::subscribeLoop);
+        }
+        log.info("Product id Bloom filter started: bits={}, hashes={}, expectedProducts={}", bitCount, hashCount, expectedProducts);
+    }
+
+    public boolean mightContain(long productId) {
+        if (!enabled || !ready) {
+            return true;
+        }
+        AtomicLongArray current = bits;
+        long h1 = mix64(productId);
+        long h2 = mix64(productId ^ SECOND_HASH_SALT) | 1L;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((current.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void add(long productId) {
+        if (!enabled) {
+            return;
+        }
+        setBits(bits, productId);
+        AtomicLongArray pending = pendingBits;
+        if (pending != null) {
+            setBits(pending, productId);
+        }
+        insertions.increment();
+    }
+
+    public void announce(Collection<Long> createdProductIds) {
+        if (!enabled || createdProductIds.isEmpty()) {
+            return;
+        }
+        createdProductIds.forEach(this::add);
+        if (redisConfig == null || !redisConfig.isRedisAvailable()) {
+            announceErrors.increment();
+            log.debug("Redis unavailable, {} new product ids reach other instances at their next Bloom filter rebuild",
+                    createdProductIds.size());
+            return;
+        }
+        StringBuilder payload = new StringBuilder(createdProductIds.size() * 12);
+        for (Long productId : createdProductIds) {
+            if (!payload.isEmpty()) {
+                payload.append(',');
+            }
+            payload.append(productId);
+        }
+        try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+            jedis.publish(channel, payload.toString());
+        } catch (Exception e) {
+            announceErrors.increment();
+            log.warn("Failed to announce {} new product ids, other instances learn them at their next rebuild: {}",
+                    createdProductIds.size(), e.getMessage());
+        }
+    }
+
+    void onAnnounced(String payload) {
+        int start = 0;
+        while (start < payload.length()) {
+            int end = payload.indexOf(',', start);
+            if (end < 0) {
+                end = payload.length();
+            }
+            add(Long.parseLong(payload, start, end, 10));
+            start = end + 1;
+        }
+    }
+
+    private void subscribeLoop() {
+        boolean resubscribing = false;
+        while (running) {
+            boolean missedAnnouncements = resubscribing;
+            JedisPubSub pubSub = new JedisPubSub() {
+                @Override
+                public void onMessage(String messageChannel, String message) {
+                    try {
+                        onAnnounced(message);
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring malformed product id announcement: {}", e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onSubscribe(String subscribedChannel, int subscribedChannels) {
+                    log.info("Subscribed to new product ids on Redis channel '{}'", subscribedChannel);
+                    if (missedAnnouncements) {
+                        scheduler.execute(ProductIdBloomFilter.this::rebuild);
+                    }
+                }
+            };
+            subscription = pubSub;
+            try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+                jedis.subscribe(pubSub, channel);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                announceErrors.increment();
+                log.warn("Redis subscription to '{}' lost, resubscribing in {}ms and rebuilding: {}", channel, resubscribeDelayMs, e.getMessage());
+            }
+            resubscribing = true;
+            try {
+                Thread.sleep(resubscribeDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        long startedNanos = System.nanoTime();
+        try {
+            AtomicLongArray rebuilt = new AtomicLongArray(wordCount(bitCount));
+            pendingBits = rebuilt;
+            long[] count = {0};
+            priceRepository.streamProductIds(10_000, productId -> {
+                setBits(rebuilt, productId);
+                count[0]++;
+            });
+            bits = rebuilt;
+            pendingBits = null;
+            insertions.reset();
+            insertions.add(count[0]);
+            ready = true;
+            if (count[0] > expectedProducts) {
+                log.warn("Bloom filter holds {} product ids, more than bloom.expected.products={}; false positive rate is above target",
+                        count[0], expectedProducts);
+            }
+            log.info("Product id Bloom filter rebuilt with {} ids in {} ms", count[0], (System.nanoTime() - startedNanos) / 1_000_000);
+        } catch (Exception e) {
+            pendingBits = null;
+            log.error("Failed to rebuild product id Bloom filter: {}", e.getMessage());
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    private void rebuildIfEpochChanged() {
+        String epoch = readEpoch();
+        if (epoch != null && !Objects.equals(epoch, lastEpoch)) {
+            log.info("Product set changed outside this instance (epoch {} -> {}), rebuilding Bloom filter", lastEpoch, epoch);
+            lastEpoch = epoch;
+            rebuild();
+        }
+    }
+
+    private String readEpoch() {
+        if (redisConfig == null || !redisConfig.isRedisAvailable()) {
+            return null;
+        }
+        try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+            return jedis.get(REBUILD_EPOCH_KEY);
+        } catch (Exception e) {
+            log.debug("Failed to read Bloom filter epoch: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public static void requestRebuild(RedisConfig redisConfig) {
+        if (!redisConfig.isRedisAvailable()) {
+            return;
+        }
+        try (Jedis jedis = redisConfig.getJedisPool().getResource()) {
+            jedis.incr(REBUILD_EPOCH_KEY);
+        } catch (Exception e) {
+            log.warn("Failed to request Bloom filter rebuild: {}", e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        JedisPubSub pubSub = subscription;
+        if (pubSub != null && pubSub.isSubscribed()) {
+            try {
+                pubSub.unsubscribe();
+            } catch (Exception e) {
+                log.debug("Redis unsubscribe failed: {}", e.getMessage());
+            }
+        }
+        subscriberExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private void setBits(AtomicLongArray target, long productId) {
+        long h1 = mix64(productId);
+        long h2 = mix64(productId ^ SECOND_HASH_SALT) | 1L;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long value = target.get(word);
+            while ((value & mask) == 0 && !target.weakCompareAndSetVolatile(word, value, value | mask)) {
+                value = target.get(word);
+            }
+        }
+    }
+
+    static long optimalBitCount(long expectedInsertions, double falsePositiveRate) {
+        double rate = Math.min(0.5, Math.max(1e-6, falsePositiveRate));
+        long bitsNeeded = (long) Math.ceil(-expectedInsertions * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        return Math.max(64L, Math.min(bitsNeeded, (long) Integer.MAX_VALUE * Long.SIZE));
+    }
+
+    static int optimalHashCount(long expectedInsertions, long bitCount) {
+        return Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    private static int wordCount(long bitCount) {
+        return (int) ((bitCount + Long.SIZE - 1) >>> 6);
+    }
+
+    private static long mix64(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
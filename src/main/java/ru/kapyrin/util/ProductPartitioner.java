@@ -0,0 +1,144 @@
+package ru.kapyrin.util;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.model.PriceUpdate;
+import ru.kapyrin.repository.SqlQueries;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Slf4j
+public class ProductPartitioner {
+    private static final long HASH_PARTITION_SEED = 0x7A5B22367996DCFDL;
+    private static final long HASH_COMBINE_CONSTANT = 0x49a0f4dd15e5a8e3L;
+    private static final long[] VERIFICATION_IDS = {1L, 2L, 3L, 42L, 1_000L, 99_999L, 1L << 32, Long.MAX_VALUE, -7L};
+    private static final Comparator<PriceUpdate> LOCK_ORDER = Comparator
+            .comparingLong(PriceUpdate::productId)
+            .thenComparing(PriceUpdate::manufacturerName);
+
+    private final boolean batchingEnabled;
+    private final int maxBatchSize;
+    @Getter
+    private volatile int partitionCount;
+    private volatile boolean postgresCompatible;
+
+    public ProductPartitioner(PropertiesLoader propertiesLoader) {
+        this.batchingEnabled = propertiesLoader.getBooleanProperty("db.partition.batching.enabled", true);
+        this.maxBatchSize = Math.max(1, propertiesLoader.getIntProperty("db.batch.max.size", 100));
+        this.partitionCount = Math.max(1, propertiesLoader.getIntProperty("db.partition.count", 16));
+    }
+
+    public void initialize(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_PRICE_PARTITION_PARENT);
+             ResultSet rs = ps.executeQuery()) {
+            if (!rs.next() || !rs.getBoolean("partitioned")) {
+                log.info("product_price is not hash-partitioned, grouping by {} virtual partitions", partitionCount);
+                return;
+            }
+            long parentOid = rs.getLong("parent_oid");
+            int actualPartitions = rs.getInt("partition_count");
+            if (actualPartitions > 0 && actualPartitions != partitionCount) {
+                log.warn("db.partition.count={} differs from {} partitions in the database, using the database value", partitionCount, actualPartitions);
+                partitionCount = actualPartitions;
+            }
+            postgresCompatible = verifyAgainstPostgres(connection, parentOid);
+            log.info("ProductPartitioner initialized: partitions={}, postgresCompatibleHash={}", partitionCount, postgresCompatible);
+        } catch (Exception e) {
+            log.warn("Failed to inspect product_price partitioning, grouping by {} virtual partitions: {}", partitionCount, e.getMessage());
+        }
+    }
+
+    public int partitionOf(long productId) {
+        if (postgresCompatible) {
+            return (int) Long.remainderUnsigned(postgresPartitionHash(productId), partitionCount);
+        }
+        return Math.floorMod(Long.hashCode(productId), partitionCount);
+    }
+
+    public List<List<PriceUpdate>> groupByPartition(List<PriceUpdate> updates) {
+        List<List<PriceUpdate>> batches = new ArrayList<>();
+        if (!batchingEnabled) {
+            updates.forEach(update -> batches.add(List.of(update)));
+            return batches;
+        }
+        Map<Integer, List<PriceUpdate>> byPartition = new TreeMap<>();
+        for (PriceUpdate update : updates) {
+            byPartition.computeIfAbsent(partitionOf(update.productId()), p -> new ArrayList<>()).add(update);
+        }
+        for (List<PriceUpdate> partitionUpdates : byPartition.values()) {
+            partitionUpdates.sort(LOCK_ORDER);
+            for (int from = 0; from < partitionUpdates.size(); from += maxBatchSize) {
+                batches.add(partitionUpdates.subList(from, Math.min(partitionUpdates.size(), from + maxBatchSize)));
+            }
+        }
+        return batches;
+    }
+
+    private boolean verifyAgainstPostgres(Connection connection, long parentOid) {
+        try (PreparedStatement ps = connection.prepareStatement(SqlQueries.CHECK_HASH_PARTITION)) {
+            for (long productId : VERIFICATION_IDS) {
+                ps.setLong(1, parentOid);
+                ps.setInt(2, partitionCount);
+                ps.setInt(3, (int) Long.remainderUnsigned(postgresPartitionHash(productId), partitionCount));
+                ps.setLong(4, productId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next() || !rs.getBoolean("matches")) {
+                        log.warn("Local partition hash disagrees with PostgreSQL for product_id={}, falling back to virtual partitions", productId);
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to verify partition hash against PostgreSQL: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // Port of PostgreSQL's hashint8extended() combined the way compute_partition_hash_value() does for a single key.
+    static long postgresPartitionHash(long value) {
+        int lohalf = (int) value;
+        int hihalf = (int) (value >>> 32);
+        lohalf ^= value >= 0 ? hihalf : ~hihalf;
+        long hash = hashUint32Extended(lohalf, HASH_PARTITION_SEED);
+        return hash + HASH_COMBINE_CONSTANT;
+    }
+
+    private static long hashUint32Extended(int k, long seed) {
+        int a = 0x9e3779b9 + Integer.BYTES + 3923095;
+        int b = a;
+        int c = a;
+        if (seed != 0) {
+            a += (int) (seed >>> 32);
+            b += (int) seed;
+
+            a -= c; a ^= Integer.rotateLeft(c, 4); c += b;
+            b -= a; b ^= Integer.rotateLeft(a, 6); a += c;
+            c -= b; c ^= Integer.rotateLeft(b, 8); b += a;
+            a -= c; a ^= Integer.rotateLeft(c, 16); c += b;
+            b -= a; b ^= Integer.rotateLeft(a, 19); a += c;
+            c -= b; c ^= Integer.rotateLeft(b, 4); b += a;
+        }
+        a += k;
+
+        c ^= b; c -= Integer.rotateLeft(b, 14);
+        a ^= c; a -= Integer.rotateLeft(c, 11);
+        b ^= a; b -= Integer.rotateLeft(a, 25);
+        c ^= b; c -= Integer.rotateLeft(b, 16);
+        a ^= c; a -= Integer.rotateLeft(c, 4);
+        b ^= a; b -= Integer.rotateLeft(a, 14);
+        c ^= b; c -= Integer.rotateLeft(b, 24);
+
+        return ((long) b << 32) | (c & 0xFFFFFFFFL);
+    }
+}
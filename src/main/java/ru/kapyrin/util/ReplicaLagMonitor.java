@@ -0,0 +1,80 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.repository.SqlQueries;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class ReplicaLagMonitor {
+    private final DataSource readDataSource;
+    private final long maxLagMs;
+    private final long checkIntervalMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private volatile boolean replicaUsable;
+    private volatile double lastLagMs = -1;
+
+    public ReplicaLagMonitor(DataSource readDataSource, PropertiesLoader propertiesLoader) {
+        this.readDataSource = readDataSource;
+        this.maxLagMs = propertiesLoader.getLongProperty("db.read.max.lag.ms", 1000L);
+        this.checkIntervalMs = Math.max(100L, propertiesLoader.getLongProperty("db.read.lag.check.interval.ms", 1000L));
+    }
+
+    public void start() {
+        if (readDataSource == null) {
+            return;
+        }
+        Gauge.builder("db_replica_lag_ms", () -> lastLagMs)
+                .description("Replication lag of the read replica in milliseconds (-1 = unknown)")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("db_replica_usable", () -> replicaUsable ? 1.0 : 0.0)
+                .description("Whether read-only queries are routed to the replica (1.0) or the primary (0.0)")
+                .register(Metrics.globalRegistry);
+        scheduler.scheduleWithFixedDelay(this::checkLag, 0, checkIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Replica lag monitor started, maxLagMs={}, checkIntervalMs={}", maxLagMs, checkIntervalMs);
+    }
+
+    public boolean isReplicaUsable() {
+        return readDataSource != null && replicaUsable;
+    }
+
+    public void markUnavailable() {
+        if (replicaUsable) {
+            log.warn("Read replica marked unavailable, routing reads to primary until next lag check");
+            replicaUsable = false;
+        }
+    }
+
+    private void checkLag() {
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SqlQueries.SELECT_REPLICA_LAG_MS);
+             ResultSet rs = ps.executeQuery()) {
+            double lagMs = rs.next() ? rs.getDouble("lag_ms") : Double.MAX_VALUE;
+            lastLagMs = lagMs;
+            boolean usable = lagMs <= maxLagMs;
+            if (usable != replicaUsable) {
+                log.info("Read replica {} (lag={} ms, max={} ms)", usable ? "in sync, routing reads to replica" : "lagging, routing reads to primary", lagMs, maxLagMs);
+            }
+            replicaUsable = usable;
+        } catch (Exception e) {
+            lastLagMs = -1;
+            if (replicaUsable) {
+                log.error("Read replica lag check failed, routing reads to primary: {}", e.getMessage());
+            }
+            replicaUsable = false;
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,388 @@
+package ru.kapyrin.util;
+
+import com.rabbitmq.client.AMQP;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of messages that could not be handed to RabbitMQ. Records live in fixed-size
+ * memory-mapped segments ({@code [length][crc32][flags][body]}); appends are made durable by a
+ * group fsync every {@code ingest.spill.fsync.interval.ms}, and the drain position is kept in a
+ * checkpoint file so a restart resumes where the last confirmed replay stopped.
+ */
+@Slf4j
+public class SpillJournal {
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + 1;
+    private static final byte FLAG_DEAD_LETTER = 1;
+    private static final byte FLAG_BINARY = 2;
+    private static final byte FLAG_DEFLATE = 4;
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "spill.checkpoint";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long fsyncIntervalMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+    private final Counter appendedRecords = Metrics.counter("ingest_spill_appended_total");
+    private final Counter rejectedRecords = Metrics.counter("ingest_spill_rejected_total");
+    private Segment writeSegment;
+    private long readSegmentId;
+    private int readOffset;
+    private long appendedSequence;
+    private long syncedSequence;
+    private volatile long pendingRecords;
+    private volatile long pendingBytes;
+
+    public record Entry(boolean deadLetter, boolean binary, boolean deflated, byte[] body) {
+        public AMQP.BasicProperties properties() {
+            return new AMQP.BasicProperties.Builder()
+                    .contentType(binary ? PriceUpdateBinaryCodec.CONTENT_TYPE : "application/json")
+                    .contentEncoding(deflated ? PriceUpdateBinaryCodec.CONTENT_ENCODING_DEFLATE : null)
+                    .deliveryMode(2)
+                    .build();
+        }
+    }
+
+    public record Batch(List<Entry> entries, long endSegmentId, int endOffset, long bytes) {
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writeOffset;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    public SpillJournal(PropertiesLoader propertiesLoader) {
+        this.enabled = propertiesLoader.getBooleanProperty("ingest.spill.enabled", true);
+        this.directory = Path.of(propertiesLoader.getProperty("ingest.spill.dir", "data/spill"));
+        this.segmentBytes = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(64 * 1024L, propertiesLoader.getLongProperty("ingest.spill.segment.bytes", 64L * 1024 * 1024)));
+        this.maxBytes = Math.max(segmentBytes, propertiesLoader.getLongProperty("ingest.spill.max.bytes", 1024L * 1024 * 1024));
+        this.fsyncIntervalMs = Math.max(0L, propertiesLoader.getLongProperty("ingest.spill.fsync.interval.ms", 5L));
+        if (!enabled) {
+            log.info("Ingest spill journal disabled");
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open spill journal in " + directory.toAbsolutePath(), e);
+        }
+        Gauge.builder("ingest_spill_journal_bytes", this, journal -> journal.pendingBytes)
+                .description("Bytes spilled to the local journal and not yet replayed to RabbitMQ")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("ingest_spill_journal_records", this, journal -> journal.pendingRecords)
+                .description("Messages spilled to the local journal and not yet replayed to RabbitMQ")
+                .register(Metrics.globalRegistry);
+        if (fsyncIntervalMs > 0) {
+            flusher.scheduleWithFixedDelay(this::syncQuietly, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        log.info("Ingest spill journal opened in {}: segmentBytes={}, maxBytes={}, fsyncIntervalMs={}, pendingRecords={}",
+                directory.toAbsolutePath(), segmentBytes, maxBytes, fsyncIntervalMs, pendingRecords);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    public void append(List<Entry> entries) throws IOException {
+        long sequence;
+        lock.lock();
+        try {
+            long size = 0;
+            for (Entry entry : entries) {
+                long recordBytes = HEADER_BYTES + (long) entry.body().length;
+                if (recordBytes > segmentBytes) {
+                    rejectedRecords.increment(entries.size());
+                    throw new IOException("Message of " + entry.body().length + " bytes does not fit a spill segment");
+                }
+                size += recordBytes;
+            }
+            if (pendingBytes + size > maxBytes) {
+                rejectedRecords.increment(entries.size());
+                throw new IOException("Spill journal is full, " + pendingBytes + " bytes pending replay");
+            }
+            for (Entry entry : entries) {
+                write(entry);
+            }
+            pendingRecords += entries.size();
+            pendingBytes += size;
+            appendedRecords.increment(entries.size());
+            sequence = ++appendedSequence;
+            if (fsyncIntervalMs == 0) {
+                writeSegment.buffer.force();
+                syncedSequence = sequence;
+                return;
+            }
+            while (syncedSequence < sequence) {
+                synced.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for spill journal fsync");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Batch readBatch(int maxEntries) {
+        return readBatch(null, maxEntries);
+    }
+
+    /**
+     * Reads the entries that follow {@code previous}, a batch that was read but not committed yet, so the
+     * drainer can keep several batches waiting for confirms. Batches must be committed in read order.
+     */
+    public Batch readBatch(Batch previous, int maxEntries) {
+        lock.lock();
+        try {
+            List<Entry> entries = new ArrayList<>();
+            long segmentId = previous != null ? previous.endSegmentId() : readSegmentId;
+            int offset = previous != null ? previous.endOffset() : readOffset;
+            long bytes = 0;
+            while (entries.size() < maxEntries) {
+                Segment segment = segments.get(segmentId);
+                if (segment == null) {
+                    break;
+                }
+                if (offset >= segment.writeOffset) {
+                    Long next = segments.higherKey(segmentId);
+                    if (segment == writeSegment || next == null) {
+                        break;
+                    }
+                    segmentId = next;
+                    offset = 0;
+                    continue;
+                }
+                int length = segment.buffer.getInt(offset);
+                byte flags = segment.buffer.get(offset + Integer.BYTES * 2);
+                byte[] body = new byte[length - HEADER_BYTES];
+                segment.buffer.get(offset + HEADER_BYTES, body);
+                entries.add(new Entry((flags & FLAG_DEAD_LETTER) != 0, (flags & FLAG_BINARY) != 0, (flags & FLAG_DEFLATE) != 0, body));
+                offset += length;
+                bytes += length;
+            }
+            return new Batch(entries, segmentId, offset, bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void commit(Batch batch) throws IOException {
+        lock.lock();
+        try {
+            readSegmentId = batch.endSegmentId();
+            readOffset = batch.endOffset();
+            pendingRecords -= batch.entries().size();
+            pendingBytes -= batch.bytes();
+            writeCheckpoint();
+            Iterator<Map.Entry<Long, Segment>> drained = segments.headMap(readSegmentId, false).entrySet().iterator();
+            while (drained.hasNext()) {
+                Segment segment = drained.next().getValue();
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+                drained.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        flusher.shutdownNow();
+        lock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            syncedSequence = appendedSequence;
+            synced.signalAll();
+        } catch (IOException e) {
+            log.warn("Failed to close spill journal: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        log.info("Ingest spill journal closed with {} records pending replay", pendingRecords);
+    }
+
+    private void write(Entry entry) throws IOException {
+        int recordBytes = HEADER_BYTES + entry.body().length;
+        if (writeSegment.writeOffset + recordBytes > segmentBytes) {
+            writeSegment.buffer.force();
+            writeSegment = openSegment(writeSegment.id + 1);
+        }
+        byte flags = (byte) ((entry.deadLetter() ? FLAG_DEAD_LETTER : 0)
+                | (entry.binary() ? FLAG_BINARY : 0)
+                | (entry.deflated() ? FLAG_DEFLATE : 0));
+        CRC32 crc = new CRC32();
+        crc.update(flags);
+        crc.update(entry.body());
+        ByteBuffer buffer = writeSegment.buffer;
+        int offset = writeSegment.writeOffset;
+        buffer.put(offset + Integer.BYTES * 2, flags);
+        buffer.put(offset + HEADER_BYTES, entry.body());
+        buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+        buffer.putInt(offset, recordBytes);
+        writeSegment.writeOffset += recordBytes;
+    }
+
+    private void syncQuietly() {
+        try {
+            Segment segment;
+            long target;
+            lock.lock();
+            try {
+                if (syncedSequence == appendedSequence) {
+                    return;
+                }
+                segment = writeSegment;
+                target = appendedSequence;
+            } finally {
+                lock.unlock();
+            }
+            segment.buffer.force();
+            lock.lock();
+            try {
+                syncedSequence = Math.max(syncedSequence, target);
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("Spill journal fsync failed: {}", e.getMessage());
+        }
+    }
+
+    private void recover() throws IOException {
+        long checkpointSegmentId = -1;
+        int checkpointOffset = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer position = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            checkpointSegmentId = position.getLong();
+            checkpointOffset = position.getInt();
+        }
+        List<Long> ids;
+        try (Stream<Path> files = Files.list(directory)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+        for (long id : ids) {
+            if (id < checkpointSegmentId) {
+                Files.deleteIfExists(segmentPath(id));
+                continue;
+            }
+            Segment segment = openSegment(id);
+            scan(segment, id == checkpointSegmentId ? checkpointOffset : 0);
+            writeSegment = segment;
+        }
+        if (writeSegment == null) {
+            writeSegment = openSegment(Math.max(0, checkpointSegmentId + 1));
+        }
+        readSegmentId = segments.firstKey();
+        readOffset = readSegmentId == checkpointSegmentId ? checkpointOffset : 0;
+    }
+
+    private void scan(Segment segment, int drainedOffset) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < HEADER_BYTES || offset + length > segmentBytes || !crcMatches(buffer, offset, length)) {
+                log.warn("Truncating spill segment {} at offset {} after a torn or corrupted record", segment.path, offset);
+                buffer.putInt(offset, 0);
+                break;
+            }
+            if (offset >= drainedOffset) {
+                pendingRecords++;
+                pendingBytes += length;
+            }
+            offset += length;
+        }
+        segment.writeOffset = offset;
+    }
+
+    private static boolean crcMatches(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + Integer.BYTES * 2, length - Integer.BYTES * 2));
+        return (int) crc.getValue() == buffer.getInt(offset + Integer.BYTES);
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = segmentPath(id);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(readSegmentId).putInt(readOffset).flip());
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
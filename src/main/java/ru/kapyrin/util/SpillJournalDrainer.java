@@ -0,0 +1,198 @@
+package ru.kapyrin.util;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RabbitMQConfig;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Replays the spill journal in order. Up to {@code ingest.spill.drain.pipeline.depth} batches are published
+ * ahead of their confirms; the checkpoint only advances over the oldest batch once every message in it is
+ * confirmed, so a nack, timeout or lost channel replays from the last checkpoint (at-least-once).
+ */
+@Slf4j
+public class SpillJournalDrainer {
+    private final SpillJournal spillJournal;
+    private final RabbitMQConfig rabbitMQConfig;
+    private final Connection connection;
+    private final long drainIntervalMs;
+    private final int batchSize;
+    private final int pipelineDepth;
+    private final long confirmTimeoutMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Counter drainedRecords = Metrics.counter("ingest_spill_drained_total");
+    private final Counter drainedBytes = Metrics.counter("ingest_spill_drained_bytes_total");
+    private final Counter drainErrors = Metrics.counter("ingest_spill_drain_errors_total");
+    private final ReentrantLock confirmLock = new ReentrantLock();
+    private final Condition confirmsChanged = confirmLock.newCondition();
+    private Channel channel;
+    private NavigableSet<Long> unconfirmed = new TreeSet<>();
+    private boolean nacked;
+
+    private record InFlightBatch(SpillJournal.Batch batch, long lastSeqNo) {
+    }
+
+    public SpillJournalDrainer(SpillJournal spillJournal, RabbitMQConfig rabbitMQConfig, PropertiesLoader propertiesLoader) {
+        this.spillJournal = spillJournal;
+        this.rabbitMQConfig = rabbitMQConfig;
+        this.connection = rabbitMQConfig.getConnection(RabbitMQConfig.Role.PUBLISH);
+        this.drainIntervalMs = Math.max(10L, propertiesLoader.getLongProperty("ingest.spill.drain.interval.ms", 1_000L));
+        this.batchSize = Math.max(1, propertiesLoader.getIntProperty("ingest.spill.drain.batch.size", 1000));
+        this.pipelineDepth = Math.max(1, propertiesLoader.getIntProperty("ingest.spill.drain.pipeline.depth", 8));
+        this.confirmTimeoutMs = Math.max(1L, propertiesLoader.getLongProperty("rabbitmq.confirm.timeout.ms", 5_000L));
+    }
+
+    public void start() {
+        if (!spillJournal.isEnabled()) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::drainQuietly, 0, drainIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("SpillJournalDrainer started: intervalMs={}, batchSize={}, pipelineDepth={}", drainIntervalMs, batchSize, pipelineDepth);
+    }
+
+    void drain() throws IOException, InterruptedException, TimeoutException {
+        if (spillJournal.isEmpty()) {
+            return;
+        }
+        Channel drainChannel = channel();
+        Deque<InFlightBatch> inFlight = new ArrayDeque<>(pipelineDepth);
+        SpillJournal.Batch lastRead = null;
+        while (connection.isOpen()) {
+            if (inFlight.size() < pipelineDepth && !spillJournal.isEmpty()) {
+                SpillJournal.Batch batch = spillJournal.readBatch(lastRead, batchSize);
+                if (!batch.entries().isEmpty()) {
+                    inFlight.addLast(new InFlightBatch(batch, publish(drainChannel, batch)));
+                    lastRead = batch;
+                    continue;
+                }
+            }
+            InFlightBatch oldest = inFlight.pollFirst();
+            if (oldest == null) {
+                return;
+            }
+            awaitConfirms(oldest.lastSeqNo());
+            spillJournal.commit(oldest.batch());
+            drainedRecords.increment(oldest.batch().entries().size());
+            drainedBytes.increment(oldest.batch().bytes());
+            log.debug("Replayed {} spilled messages to RabbitMQ", oldest.batch().entries().size());
+        }
+    }
+
+    private long publish(Channel drainChannel, SpillJournal.Batch batch) throws IOException {
+        for (SpillJournal.Entry entry : batch.entries()) {
+            long seqNo = drainChannel.getNextPublishSeqNo();
+            confirmLock.lock();
+            try {
+                unconfirmed.add(seqNo);
+            } finally {
+                confirmLock.unlock();
+            }
+            drainChannel.basicPublish(entry.deadLetter() ? "" : rabbitMQConfig.getExchangeName(),
+                    entry.deadLetter() ? rabbitMQConfig.getDlqName() : rabbitMQConfig.getRawRoutingKey(),
+                    entry.properties(), entry.body());
+        }
+        return drainChannel.getNextPublishSeqNo() - 1;
+    }
+
+    private void awaitConfirms(long lastSeqNo) throws IOException, InterruptedException, TimeoutException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        confirmLock.lock();
+        try {
+            while (!nacked && !unconfirmed.isEmpty() && unconfirmed.first() <= lastSeqNo) {
+                if (remainingNanos <= 0) {
+                    throw new TimeoutException("Spilled messages not confirmed within " + confirmTimeoutMs + "ms");
+                }
+                remainingNanos = confirmsChanged.awaitNanos(remainingNanos);
+            }
+            if (nacked) {
+                throw new IOException("RabbitMQ nacked replayed spill messages");
+            }
+        } finally {
+            confirmLock.unlock();
+        }
+    }
+
+    private void onConfirm(long deliveryTag, boolean multiple, boolean ack) {
+        confirmLock.lock();
+        try {
+            if (multiple) {
+                unconfirmed.headSet(deliveryTag, true).clear();
+            } else {
+                unconfirmed.remove(deliveryTag);
+            }
+            nacked |= !ack;
+            confirmsChanged.signalAll();
+        } finally {
+            confirmLock.unlock();
+        }
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            drainErrors.increment();
+            log.warn("Spill journal replay failed, will retry in {}ms: {}", drainIntervalMs, e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private Channel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            confirmLock.lock();
+            try {
+                unconfirmed = new TreeSet<>();
+                nacked = false;
+            } finally {
+                confirmLock.unlock();
+            }
+            channel = connection.createChannel();
+            channel.addConfirmListener((tag, multiple) -> onConfirm(tag, multiple, true),
+                    (tag, multiple) -> onConfirm(tag, multiple, false));
+            channel.confirmSelect();
+        }
+        return channel;
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (Exception e) {
+            log.debug("Spill drain channel close failed: {}", e.getMessage());
+        }
+        channel = null;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("SpillJournalDrainer did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannel();
+        spillJournal.close();
+        log.info("SpillJournalDrainer shutdown complete");
+    }
+}
@@ -0,0 +1,131 @@
+package ru.kapyrin.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Last persisted price per (product, manufacturer), used as the expected value of a conditional
+ * {@code UPDATE} instead of a {@code SELECT}. The memo never decides on its own that a price is unchanged:
+ * another instance may have written the row since, so even a resend of the remembered price goes to the
+ * database, and only a zero aggregate delta is skipped.
+ */
+@Slf4j
+public class VendorPriceMemo {
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final Segment[] segments;
+    private final Counter unchangedUpdates = Metrics.counter("price_memo_unchanged_updates_total");
+    private final Counter selectsSaved = Metrics.counter("price_memo_lookups_total", "result", "hit");
+    private final Counter staleEntries = Metrics.counter("price_memo_lookups_total", "result", "stale");
+
+    private record VendorPriceKey(long productId, String manufacturerName) {
+    }
+
+    private record MemoEntry(long priceCents, long expiresAtNanos) {
+    }
+
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<VendorPriceKey, MemoEntry> entries;
+
+        private Segment(int capacity) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<VendorPriceKey, MemoEntry> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+
+    public VendorPriceMemo(PropertiesLoader propertiesLoader) {
+        this.enabled = propertiesLoader.getBooleanProperty("price.memo.enabled", true);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1L, propertiesLoader.getLongProperty("price.memo.ttl.seconds", 300L)));
+        int maxEntries = Math.max(1, propertiesLoader.getIntProperty("price.memo.max.entries", 500_000));
+        int segmentCount = Math.max(1, propertiesLoader.getIntProperty("price.memo.segments", 64));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / segmentCount));
+        }
+        Gauge.builder("price_memo_entries", this, VendorPriceMemo::size)
+                .description("Last persisted (product, manufacturer) prices held in memory")
+                .register(Metrics.globalRegistry);
+        log.info("Vendor price memo enabled={}, maxEntries={}, ttlSeconds={}", enabled, maxEntries, TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+    }
+
+    public Long lastPersistedPrice(long productId, String manufacturerName) {
+        if (!enabled) {
+            return null;
+        }
+        return get(new VendorPriceKey(productId, manufacturerName));
+    }
+
+    public void recordConditionalUpdate(boolean applied, boolean unchanged) {
+        (applied ? selectsSaved : staleEntries).increment();
+        if (applied && unchanged) {
+            unchangedUpdates.increment();
+        }
+    }
+
+    public void recordPersisted(List<PriceUpdate> priceUpdates) {
+        if (!enabled) {
+            return;
+        }
+        long expiresAt = System.nanoTime() + ttlNanos;
+        for (PriceUpdate priceUpdate : priceUpdates) {
+            VendorPriceKey key = new VendorPriceKey(priceUpdate.productId(), priceUpdate.manufacturerName());
+            Segment segment = segmentFor(key);
+            segment.lock.lock();
+            try {
+                segment.entries.put(key, new MemoEntry(priceUpdate.priceCents(), expiresAt));
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    private Long get(VendorPriceKey key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            MemoEntry entry = segment.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtNanos() - System.nanoTime() < 0) {
+                segment.entries.remove(key);
+                return null;
+            }
+            return entry.priceCents();
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    private Segment segmentFor(VendorPriceKey key) {
+        return segments[Math.floorMod(key.hashCode() ^ (key.hashCode() >>> 16), segments.length)];
+    }
+
+    private long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+}
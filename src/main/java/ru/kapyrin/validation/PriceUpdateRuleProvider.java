@@ -19,7 +19,7 @@ public class PriceUpdateRuleProvider {
                 "Manufacturer name cannot be empty"
         ));
         validationRules.add(new ValidationRule(
-                update -> update.price() < 0,
+                update -> update.priceCents() < 0,
                 "Price cannot be negative"
         ));
     }
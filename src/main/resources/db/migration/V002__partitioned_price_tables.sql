@@ -0,0 +1,64 @@
+CREATE TABLE IF NOT EXISTS product_price_partitioned (
+    product_id BIGINT NOT NULL REFERENCES products(product_id),
+    manufacturer_name VARCHAR(255) NOT NULL,
+    price DECIMAL(10,2) NOT NULL,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (product_id, manufacturer_name)
+) PARTITION BY HASH (product_id);
+
+CREATE TABLE IF NOT EXISTS product_avg_price_partitioned (
+    product_id BIGINT PRIMARY KEY REFERENCES products(product_id),
+    avg_price DECIMAL(10,2),
+    total_sum_prices DECIMAL(20,2) DEFAULT 0.0,
+    offer_count BIGINT DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+) PARTITION BY HASH (product_id);
+
+DO $$
+BEGIN
+    FOR i IN 0..(${partitionCount} - 1) LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS product_price_p%s PARTITION OF product_price_partitioned FOR VALUES WITH (MODULUS %s, REMAINDER %s)', i, ${partitionCount}, i);
+        EXECUTE format('CREATE TABLE IF NOT EXISTS product_avg_price_p%s PARTITION OF product_avg_price_partitioned FOR VALUES WITH (MODULUS %s, REMAINDER %s)', i, ${partitionCount}, i);
+    END LOOP;
+END $$;
+
+-- Keep the partitioned copies in sync with live writes until PartitionMigrator swaps the tables.
+CREATE OR REPLACE FUNCTION mirror_product_price() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        DELETE FROM product_price_partitioned
+        WHERE product_id = OLD.product_id AND manufacturer_name = OLD.manufacturer_name;
+        RETURN OLD;
+    END IF;
+    INSERT INTO product_price_partitioned (product_id, manufacturer_name, price, updated_at)
+    VALUES (NEW.product_id, NEW.manufacturer_name, NEW.price, NEW.updated_at)
+    ON CONFLICT (product_id, manufacturer_name)
+    DO UPDATE SET price = EXCLUDED.price, updated_at = EXCLUDED.updated_at;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_product_avg_price() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        DELETE FROM product_avg_price_partitioned WHERE product_id = OLD.product_id;
+        RETURN OLD;
+    END IF;
+    INSERT INTO product_avg_price_partitioned (product_id, avg_price, total_sum_prices, offer_count, updated_at)
+    VALUES (NEW.product_id, NEW.avg_price, NEW.total_sum_prices, NEW.offer_count, NEW.updated_at)
+    ON CONFLICT (product_id)
+    DO UPDATE SET avg_price = EXCLUDED.avg_price,
+                  total_sum_prices = EXCLUDED.total_sum_prices,
+                  offer_count = EXCLUDED.offer_count,
+                  updated_at = EXCLUDED.updated_at;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE TRIGGER product_price_mirror
+    AFTER INSERT OR UPDATE OR DELETE ON product_price
+    FOR EACH ROW EXECUTE FUNCTION mirror_product_price();
+
+CREATE OR REPLACE TRIGGER product_avg_price_mirror
+    AFTER INSERT OR UPDATE OR DELETE ON product_avg_price
+    FOR EACH ROW EXECUTE FUNCTION mirror_product_avg_price();
@@ -0,0 +1,6 @@
+CREATE UNLOGGED TABLE IF NOT EXISTS product_price_import (
+    product_id BIGINT NOT NULL,
+    manufacturer_name VARCHAR(255) NOT NULL,
+    price DECIMAL(10,2) NOT NULL,
+    source_offset BIGINT NOT NULL
+);
@@ -0,0 +1,32 @@
+CREATE TABLE IF NOT EXISTS product_avg_price_stripe (
+    product_id BIGINT NOT NULL REFERENCES products(product_id),
+    stripe SMALLINT NOT NULL,
+    total_sum_prices DECIMAL(20,2) NOT NULL DEFAULT 0.0,
+    offer_count BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (product_id, stripe)
+);
+
+CREATE TABLE IF NOT EXISTS product_aggregate_striping (
+    product_id BIGINT PRIMARY KEY REFERENCES products(product_id),
+    stripes SMALLINT NOT NULL,
+    enabled_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    last_hot_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE OR REPLACE VIEW product_avg_price_merged AS
+SELECT a.product_id,
+       CASE
+           WHEN s.product_id IS NULL THEN a.avg_price
+           WHEN a.offer_count + s.offer_count = 0 THEN 0
+           ELSE ROUND((a.total_sum_prices + s.total_sum_prices) / (a.offer_count + s.offer_count), 2)
+       END::DECIMAL(10,2) AS avg_price,
+       a.total_sum_prices + COALESCE(s.total_sum_prices, 0) AS total_sum_prices,
+       a.offer_count + COALESCE(s.offer_count, 0) AS offer_count,
+       GREATEST(a.updated_at, s.updated_at) AS updated_at
+FROM product_avg_price a
+LEFT JOIN (
+    SELECT product_id, SUM(total_sum_prices) AS total_sum_prices, SUM(offer_count) AS offer_count, MAX(updated_at) AS updated_at
+    FROM product_avg_price_stripe
+    GROUP BY product_id
+) s ON s.product_id = a.product_id;
@@ -0,0 +1,94 @@
+CREATE TABLE IF NOT EXISTS manufacturers (
+    manufacturer_id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name VARCHAR(255) NOT NULL UNIQUE
+);
+
+-- Fills whichever of manufacturer_name / manufacturer_id a writer left out, so instances writing names and
+-- instances writing ids share product_price until ManufacturerMigrator drops the name column.
+CREATE OR REPLACE FUNCTION sync_product_price_manufacturer() RETURNS trigger AS $$
+BEGIN
+    IF NEW.manufacturer_id IS NULL THEN
+        INSERT INTO manufacturers (name) VALUES (NEW.manufacturer_name) ON CONFLICT (name) DO NOTHING;
+        SELECT manufacturer_id INTO NEW.manufacturer_id FROM manufacturers WHERE name = NEW.manufacturer_name;
+    ELSIF NEW.manufacturer_name IS NULL THEN
+        SELECT name INTO NEW.manufacturer_name FROM manufacturers WHERE manufacturer_id = NEW.manufacturer_id;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Populated tables only get the nullable id column and the sync trigger (a catalog change, no table scan);
+-- ManufacturerMigrator backfills the ids and switches online. Empty tables are rewritten keyed by id right away.
+DO $$
+DECLARE
+    target TEXT;
+    partitions INT;
+    populated BOOLEAN := FALSE;
+    has_rows BOOLEAN;
+BEGIN
+    FOREACH target IN ARRAY ARRAY['product_price', 'product_price_partitioned'] LOOP
+        CONTINUE WHEN to_regclass(target) IS NULL;
+        EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I)', target) INTO has_rows;
+        populated := populated OR has_rows;
+    END LOOP;
+
+    IF populated THEN
+        FOREACH target IN ARRAY ARRAY['product_price', 'product_price_partitioned'] LOOP
+            CONTINUE WHEN to_regclass(target) IS NULL;
+            EXECUTE format('ALTER TABLE %I ADD COLUMN IF NOT EXISTS manufacturer_id INTEGER', target);
+            EXECUTE format('CREATE OR REPLACE TRIGGER %I BEFORE INSERT OR UPDATE ON %I
+                            FOR EACH ROW EXECUTE FUNCTION sync_product_price_manufacturer()',
+                           target || '_manufacturer_sync', target);
+        END LOOP;
+        RETURN;
+    END IF;
+
+    FOREACH target IN ARRAY ARRAY['product_price', 'product_price_partitioned'] LOOP
+        CONTINUE WHEN to_regclass(target) IS NULL;
+        SELECT COUNT(*) INTO partitions FROM pg_inherits WHERE inhparent = to_regclass(target);
+        EXECUTE format('CREATE TABLE %I (
+                            product_id BIGINT NOT NULL REFERENCES products(product_id),
+                            manufacturer_id INTEGER NOT NULL REFERENCES manufacturers(manufacturer_id),
+                            price DECIMAL(10,2) NOT NULL,
+                            updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                            PRIMARY KEY (product_id, manufacturer_id)
+                        ) %s',
+                       target || '_encoded',
+                       CASE WHEN partitions > 0 THEN 'PARTITION BY HASH (product_id)' ELSE '' END);
+        FOR i IN 0..(partitions - 1) LOOP
+            EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES WITH (MODULUS %s, REMAINDER %s)',
+                           'product_price_encoded_p' || i, target || '_encoded', partitions, i);
+        END LOOP;
+        EXECUTE format('DROP TABLE %I', target);
+        EXECUTE format('ALTER TABLE %I RENAME TO %I', target || '_encoded', target);
+        IF to_regclass(target || '_pkey') IS NULL THEN
+            EXECUTE format('ALTER INDEX %I RENAME TO %I', target || '_encoded_pkey', target || '_pkey');
+        END IF;
+        FOR i IN 0..(partitions - 1) LOOP
+            EXECUTE format('ALTER TABLE %I RENAME TO %I', 'product_price_encoded_p' || i, 'product_price_p' || i);
+        END LOOP;
+    END LOOP;
+    DROP FUNCTION sync_product_price_manufacturer();
+
+    IF to_regclass('product_price_partitioned') IS NOT NULL THEN
+        EXECUTE $fn$
+            CREATE OR REPLACE FUNCTION mirror_product_price() RETURNS trigger AS $body$
+            BEGIN
+                IF TG_OP = 'DELETE' THEN
+                    DELETE FROM product_price_partitioned
+                    WHERE product_id = OLD.product_id AND manufacturer_id = OLD.manufacturer_id;
+                    RETURN OLD;
+                END IF;
+                INSERT INTO product_price_partitioned (product_id, manufacturer_id, price, updated_at)
+                VALUES (NEW.product_id, NEW.manufacturer_id, NEW.price, NEW.updated_at)
+                ON CONFLICT (product_id, manufacturer_id)
+                DO UPDATE SET price = EXCLUDED.price, updated_at = EXCLUDED.updated_at;
+                RETURN NEW;
+            END;
+            $body$ LANGUAGE plpgsql
+        $fn$;
+        CREATE OR REPLACE TRIGGER product_price_mirror
+            AFTER INSERT OR UPDATE OR DELETE ON product_price
+            FOR EACH ROW EXECUTE FUNCTION mirror_product_price();
+    END IF;
+END $$;
@@ -0,0 +1,13 @@
+CREATE TABLE IF NOT EXISTS average_price_outbox (
+    id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    product_id BIGINT NOT NULL,
+    avg_price_cents BIGINT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Every row is deleted shortly after it is inserted; vacuum on a fixed number of dead rows, not a fraction of the table.
+ALTER TABLE average_price_outbox SET (
+    autovacuum_vacuum_scale_factor = 0,
+    autovacuum_vacuum_threshold = 10000,
+    autovacuum_vacuum_cost_delay = 0
+);
@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS aggregate_dirty_product (
+    id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    product_id BIGINT NOT NULL,
+    marked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_aggregate_dirty_product_product_id ON aggregate_dirty_product (product_id);
+
+-- Rows live only until the write-behind flush that covers them, so the table stays small and default autovacuum
+-- keeps up. If it grows (e.g. flushes failing for a long time), tune it like average_price_outbox in V006.
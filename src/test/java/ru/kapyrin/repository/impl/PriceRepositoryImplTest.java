@@ -0,0 +1,57 @@
+package ru.kapyrin.repository.impl;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.repository.SqlQueries;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PriceRepositoryImplTest {
+
+    @Test
+    void aggregateUpdatesSkipOutboxWhenRelayIsDisabled() throws Exception {
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getLong("avg_price_cents")).thenReturn(1_250L);
+        PriceRepositoryImpl repository = new PriceRepositoryImpl(mock(DataSource.class), null, null, false);
+
+        assertEquals(1_250L, repository.updateAggregatesAtomically(connection, 42L, 1_250L, 1_250L, 1L),
+                "Без outbox обновление агрегата должно возвращать среднюю цену как обычно");
+        verify(statement).setBoolean(5, false);
+
+        assertEquals(1_250L, repository.updateAggregateStripe(connection, 42L, 3, 1_250L, 1L),
+                "Обновление полосы без outbox должно возвращать объединённую среднюю цену");
+        verify(connection, never()).prepareStatement(SqlQueries.INSERT_AVERAGE_PRICE_OUTBOX);
+    }
+
+    @Test
+    void aggregateUpdatesWriteOutboxByDefault() throws Exception {
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getLong("avg_price_cents")).thenReturn(1_250L);
+        PriceRepositoryImpl repository = new PriceRepositoryImpl(mock(DataSource.class));
+
+        repository.updateAggregatesAtomically(connection, 42L, 1_250L, 1_250L, 1L);
+        verify(statement).setBoolean(5, true);
+
+        repository.updateAggregateStripe(connection, 42L, 3, 1_250L, 1L);
+        verify(connection).prepareStatement(SqlQueries.INSERT_AVERAGE_PRICE_OUTBOX);
+    }
+}
@@ -0,0 +1,59 @@
+package ru.kapyrin.service.impl;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.RedisConfig;
+import ru.kapyrin.repository.PriceRepository;
+import ru.kapyrin.service.MetricsService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PriceAverageCalculatorImplTest {
+
+    @Test
+    void concurrentMissesShareOneDatabaseLoad() throws Exception {
+        PriceRepository repository = mock(PriceRepository.class);
+        RedisConfig redisConfig = mock(RedisConfig.class);
+        when(redisConfig.isRedisAvailable()).thenReturn(false);
+        when(redisConfig.getCacheExpireSeconds()).thenReturn(600);
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        when(repository.getStoredAveragePrice(42L)).thenAnswer(invocation -> {
+            loadStarted.countDown();
+            releaseLoad.await(5, TimeUnit.SECONDS);
+            return 1_250L;
+        });
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            PriceAverageCalculatorImpl calculator = new PriceAverageCalculatorImpl(repository, redisConfig, mock(MetricsService.class), executor);
+            List<CompletableFuture<Long>> requests = new ArrayList<>();
+            requests.add(calculator.getAveragePriceAsync(42L));
+            assertTrue(loadStarted.await(5, TimeUnit.SECONDS), "Загрузка из БД должна начаться");
+            for (int i = 0; i < 49; i++) {
+                requests.add(calculator.getAveragePriceAsync(42L));
+            }
+            Thread.sleep(200);
+            releaseLoad.countDown();
+
+            for (CompletableFuture<Long> request : requests) {
+                assertEquals(1_250L, request.get(5, TimeUnit.SECONDS), "Все запросы должны получить одно значение");
+            }
+            verify(repository, times(1)).getStoredAveragePrice(42L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
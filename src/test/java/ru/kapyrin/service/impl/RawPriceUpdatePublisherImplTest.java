@@ -0,0 +1,76 @@
+package ru.kapyrin.service.impl;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.PriceUpdate;
+import ru.kapyrin.service.MetricsService;
+import ru.kapyrin.util.PriceUpdateBinaryCodec;
+import ru.kapyrin.util.SpillJournal;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RawPriceUpdatePublisherImplTest {
+
+    @Test
+    void itemWithoutManufacturerNameIsPublishedToDlq() throws Exception {
+        Channel channel = mock(Channel.class);
+        RawPriceUpdatePublisherImpl publisher = publisher(channel);
+        when(channel.waitForConfirms(anyLong())).thenReturn(true);
+
+        publisher.publishRawPriceUpdate("[{\"product_id\":1,\"price\":\"10.00\"},{\"product_id\":2,\"manufacturer_name\":\"Acme\",\"price\":\"5.00\"}]");
+
+        ArgumentCaptor<byte[]> dlqBody = ArgumentCaptor.forClass(byte[].class);
+        verify(channel).basicPublish(eq(""), eq("dlq"), any(AMQP.BasicProperties.class), dlqBody.capture());
+        assertEquals(List.of(new PriceUpdate(1L, null, 1_000L)), PriceUpdateBinaryCodec.decode(dlqBody.getValue(), null),
+                "Элемент без имени производителя должен уйти в DLQ");
+        ArgumentCaptor<byte[]> rawBody = ArgumentCaptor.forClass(byte[].class);
+        verify(channel).basicPublish(eq("exchange"), eq("raw"), any(AMQP.BasicProperties.class), rawBody.capture());
+        assertEquals(List.of(new PriceUpdate(2L, "Acme", 500L)), PriceUpdateBinaryCodec.decode(rawBody.getValue(), null));
+    }
+
+    @Test
+    void nackedPublishIsReportedAsFailureWithoutSpillJournal() throws Exception {
+        Channel channel = mock(Channel.class);
+        RawPriceUpdatePublisherImpl publisher = publisher(channel);
+        when(channel.waitForConfirms(anyLong())).thenReturn(false);
+
+        assertThrows(PriceUpdateException.class,
+                () -> publisher.publishPriceUpdates(List.of(new PriceUpdate(2L, "Acme", 500L))),
+                "Отклонённая брокером публикация не должна считаться принятой");
+    }
+
+    static RawPriceUpdatePublisherImpl publisher(Channel channel) throws Exception {
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getProperty(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        RabbitMQConfig rabbitMQConfig = mock(RabbitMQConfig.class);
+        Connection connection = mock(Connection.class);
+        when(rabbitMQConfig.getExchangeName()).thenReturn("exchange");
+        when(rabbitMQConfig.getRawRoutingKey()).thenReturn("raw");
+        when(rabbitMQConfig.getDlqName()).thenReturn("dlq");
+        when(rabbitMQConfig.getConnection(RabbitMQConfig.Role.PUBLISH)).thenReturn(connection);
+        when(connection.createChannel()).thenReturn(channel);
+        SpillJournal spillJournal = mock(SpillJournal.class);
+        when(spillJournal.isEnabled()).thenReturn(false);
+        return new RawPriceUpdatePublisherImpl(rabbitMQConfig, mock(MetricsService.class), propertiesLoader,
+                new PriceUpdateValidatorImpl(), spillJournal);
+    }
+}
@@ -0,0 +1,91 @@
+package ru.kapyrin.task;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.model.PriceUpdate;
+import ru.kapyrin.service.PriceCalculationService;
+import ru.kapyrin.service.impl.PriceUpdateValidatorImpl;
+import ru.kapyrin.util.PriceUpdateBinaryCodec;
+import ru.kapyrin.util.ProductPartitioner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PriceUpdateConsumerTaskTest {
+
+    @Test
+    void jsonItemWithoutManufacturerNameGoesToDlqAndDeliveryIsAcked() throws Exception {
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getBooleanProperty(anyString(), anyBoolean())).thenAnswer(invocation -> invocation.getArgument(1));
+        RabbitMQConfig rabbitMQConfig = mock(RabbitMQConfig.class);
+        Connection connection = mock(Connection.class);
+        Channel consumeChannel = mock(Channel.class);
+        Channel dlqChannel = mock(Channel.class);
+        when(rabbitMQConfig.getRawQueueName()).thenReturn("raw");
+        when(rabbitMQConfig.getDlqName()).thenReturn("dlq");
+        when(rabbitMQConfig.getConnection(any())).thenReturn(connection);
+        when(connection.createChannel()).thenReturn(consumeChannel, dlqChannel);
+        when(dlqChannel.isOpen()).thenReturn(true);
+        when(dlqChannel.getNextPublishSeqNo()).thenReturn(1L);
+        PriceCalculationService priceCalculationService = mock(PriceCalculationService.class);
+        when(priceCalculationService.persistPriceUpdates(anyList())).thenReturn(CompletableFuture.completedFuture(null));
+        ExecutorService validationExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
+        PriceUpdateConsumerTask task = new PriceUpdateConsumerTask(rabbitMQConfig, validationExecutor, dbExecutor,
+                priceCalculationService, new PriceUpdateValidatorImpl(), propertiesLoader, new ProductPartitioner(propertiesLoader));
+        try {
+            task.run();
+            ArgumentCaptor<DeliverCallback> deliver = ArgumentCaptor.forClass(DeliverCallback.class);
+            verify(consumeChannel).basicConsume(eq("raw"), eq(false), deliver.capture(), any(com.rabbitmq.client.CancelCallback.class));
+            ArgumentCaptor<ConfirmCallback> ack = ArgumentCaptor.forClass(ConfirmCallback.class);
+            verify(dlqChannel).addConfirmListener(ack.capture(), any(ConfirmCallback.class));
+
+            byte[] body = "[{\"product_id\":1,\"price\":\"10.00\"},{\"product_id\":2,\"manufacturer_name\":\"Acme\",\"price\":\"5.00\"}]"
+                    .getBytes(StandardCharsets.UTF_8);
+            deliver.getValue().handle("ctag", new Delivery(new Envelope(7L, false, "", "raw"),
+                    new AMQP.BasicProperties.Builder().contentType("application/json").build(), body));
+
+            ArgumentCaptor<byte[]> dlqBody = ArgumentCaptor.forClass(byte[].class);
+            verify(dlqChannel, timeout(5_000)).basicPublish(eq(""), eq("dlq"), any(AMQP.BasicProperties.class), dlqBody.capture());
+            assertEquals(List.of(new PriceUpdate(1L, null, 1_000L)), PriceUpdateBinaryCodec.decode(dlqBody.getValue(), null),
+                    "Элемент без имени производителя должен попасть в DLQ без изменений");
+            verify(priceCalculationService, timeout(5_000)).persistPriceUpdates(List.of(new PriceUpdate(2L, "Acme", 500L)));
+
+            ack.getValue().handle(1L, false);
+            verify(consumeChannel, timeout(5_000)).basicAck(7L, false);
+            verify(consumeChannel, never()).basicReject(anyLong(), anyBoolean());
+        } finally {
+            task.shutdown();
+            validationExecutor.shutdownNow();
+            dbExecutor.shutdownNow();
+        }
+    }
+}
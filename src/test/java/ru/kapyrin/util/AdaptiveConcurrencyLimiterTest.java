@@ -0,0 +1,93 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.DatabaseOverloadedException;
+import ru.kapyrin.exception.PriceUpdateException;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void callsOverTheLimitAreShedAndConnectionFailuresOpenTheCircuit() throws Exception {
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(eq("db.limiter.test.initial.limit"), anyInt())).thenReturn(2);
+        when(propertiesLoader.getLongProperty(eq("db.limiter.test.max.wait.ms"), anyLong())).thenReturn(0L);
+        when(propertiesLoader.getIntProperty(eq("db.limiter.failure.threshold"), anyInt())).thenReturn(2);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", propertiesLoader);
+
+        CountDownLatch holding = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 2; i++) {
+            executor.submit(() -> limiter.execute(() -> {
+                holding.countDown();
+                try {
+                    return release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        holding.await();
+        assertThrows(DatabaseOverloadedException.class, () -> limiter.execute(() -> 1), "Сверх лимита вызов отбрасывается");
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(1, limiter.execute(() -> 1), "После освобождения разрешения вызов проходит");
+
+        PriceUpdateException poolTimeout = new PriceUpdateException("Failed to get connection",
+                new SQLTransientConnectionException("Connection is not available, request timed out after 30000ms"));
+        for (int i = 0; i < 2; i++) {
+            assertThrows(PriceUpdateException.class, () -> limiter.execute(() -> {
+                throw poolTimeout;
+            }));
+        }
+        assertEquals(AdaptiveConcurrencyLimiter.CircuitState.OPEN, limiter.getState());
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(DatabaseOverloadedException.class, () -> limiter.execute(calls::incrementAndGet),
+                "При открытом автомате вызов не доходит до БД");
+        assertEquals(0, calls.get());
+        assertTrue(limiter.getLimit() >= 2, "Лимит не опускается ниже минимума");
+    }
+
+    @Test
+    void asyncCallsHoldThePermitUntilCompletionAndAreShedWithoutWaiting() {
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(eq("db.limiter.async.min.limit"), anyInt())).thenReturn(1);
+        when(propertiesLoader.getIntProperty(eq("db.limiter.async.initial.limit"), anyInt())).thenReturn(1);
+        when(propertiesLoader.getIntProperty(eq("db.limiter.failure.threshold"), anyInt())).thenReturn(1);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("async", propertiesLoader);
+
+        CompletableFuture<Integer> pending = new CompletableFuture<>();
+        CompletionStage<Integer> first = limiter.executeAsync(() -> pending, e -> true);
+        assertThrows(DatabaseOverloadedException.class, () -> limiter.executeAsync(() -> CompletableFuture.completedFuture(2), e -> true),
+                "Асинхронный вызов сверх лимита отбрасывается сразу");
+
+        pending.completeExceptionally(new IllegalStateException("connection closed"));
+        assertTrue(first.toCompletableFuture().isCompletedExceptionally(), "Ошибка передаётся вызывающему");
+        assertEquals(AdaptiveConcurrencyLimiter.CircuitState.OPEN, limiter.getState(), "Ошибка соединения открывает автомат");
+    }
+}
@@ -0,0 +1,59 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.repository.PriceRepository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AggregateStripingManagerTest {
+
+    @Test
+    void productOverLockWaitThresholdIsStripedByManufacturerAndCompacted() {
+        PriceRepository repository = mock(PriceRepository.class);
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getBooleanProperty(anyString(), anyBoolean())).thenReturn(true);
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(repository.getProductsWithStripes()).thenReturn(List.of(7L));
+        when(repository.compactAggregateStripes(7L)).thenReturn(true);
+
+        AggregateStripingManager manager = new AggregateStripingManager(repository, propertiesLoader);
+        for (int i = 0; i < 4; i++) {
+            manager.recordAggregateUpdate(7L, TimeUnit.MILLISECONDS.toNanos(300));
+        }
+        for (int i = 0; i < 2_000; i++) {
+            manager.recordAggregateUpdate(8L, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertEquals(-1, manager.stripeFor(7L, "Acme"), "До обнаружения конкуренции продукт не должен быть разбит на полосы");
+        manager.detectHotProducts();
+
+        verify(repository).markProductsStriped(eq(List.of(7L)), eq(8));
+        int stripe = manager.stripeFor(7L, "Acme");
+        assertTrue(stripe >= 0 && stripe < 8, "Полоса должна выбираться по хэшу производителя");
+        assertEquals(stripe, manager.stripeFor(7L, "Acme"), "Один производитель всегда пишет в одну полосу");
+        assertEquals(-1, manager.stripeFor(8L, "Acme"), "Быстрые обновления не должны учитываться как ожидание блокировки");
+
+        when(repository.getStripedProducts()).thenReturn(Map.of());
+        when(repository.expireStripedProducts(anyLong())).thenReturn(List.of(7L));
+        manager.refresh();
+        assertEquals(-1, manager.stripeFor(7L, "Acme"), "Остывший продукт возвращается к одной строке");
+
+        manager.compact();
+        verify(repository).compactAggregateStripes(7L);
+    }
+}
@@ -0,0 +1,113 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.exception.PriceUpdateException;
+import ru.kapyrin.model.AggregateDelta;
+import ru.kapyrin.repository.PriceRepository;
+import ru.kapyrin.service.PriceAverageCalculator;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AggregateWriteBehindBufferTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void deltasForOneProductAreFlushedAsOneRowAndKeptForTheNextFlushOnFailure() {
+        PriceRepository repository = mock(PriceRepository.class);
+        PriceAverageCalculator calculator = mock(PriceAverageCalculator.class);
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getBooleanProperty(anyString(), anyBoolean())).thenReturn(true);
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        List<List<AggregateDelta>> flushed = new ArrayList<>();
+        boolean[] failNext = {true};
+        when(repository.executeInTransaction(any())).thenAnswer(invocation ->
+                ((Function<Connection, Object>) invocation.getArgument(0)).apply(null));
+        when(repository.applyAggregateDeltas(any(), any())).thenAnswer(invocation -> {
+            if (failNext[0]) {
+                failNext[0] = false;
+                throw new PriceUpdateException("db down");
+            }
+            List<AggregateDelta> deltas = invocation.getArgument(1);
+            flushed.add(deltas);
+            return Map.of(7L, 1_500L, 8L, 300L);
+        });
+
+        AggregateWriteBehindBuffer buffer = new AggregateWriteBehindBuffer(repository, calculator, propertiesLoader);
+        CompletableFuture<Void> first = buffer.add(List.of(new AggregateDelta(7L, 1_000L, 1), new AggregateDelta(8L, 300L, 1)));
+        CompletableFuture<Void> second = buffer.add(List.of(new AggregateDelta(7L, 2_000L, 1), new AggregateDelta(7L, -500L, 0)));
+
+        assertThrows(PriceUpdateException.class, buffer::flush, "Ошибка БД должна пробрасываться");
+        assertTrue(first.isCompletedExceptionally(), "Неудачный сброс должен сразу отпускать доставку на повтор");
+        assertTrue(second.isCompletedExceptionally(), "Неудачный сброс должен сразу отпускать доставку на повтор");
+
+        CompletableFuture<Void> third = buffer.add(List.of(new AggregateDelta(8L, 0L, 0)));
+        assertFalse(third.isDone(), "Подтверждение не должно происходить до успешного сброса");
+        buffer.flush();
+        assertTrue(third.isDone() && !third.isCompletedExceptionally(), "Последующие доставки подтверждаются после сброса");
+        assertEquals(1, flushed.size(), "Должен быть один успешный сброс");
+        AggregateDelta product7 = flushed.get(0).stream().filter(delta -> delta.productId() == 7L).findFirst().orElseThrow();
+        assertEquals(2_500L, product7.deltaSumCents(), "Дельты суммы должны складываться");
+        assertEquals(2L, product7.deltaCount(), "Дельты количества должны складываться");
+        assertEquals(2, flushed.get(0).size(), "Одна строка на продукт");
+        verify(calculator).updateAveragePriceCaches(Map.of(7L, 1_500L, 8L, 300L));
+        buffer.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void dirtyMarksAreClearedOnlyByTheFlushThatAppliesTheirDeltas() {
+        PriceRepository repository = mock(PriceRepository.class);
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getBooleanProperty(anyString(), anyBoolean())).thenReturn(true);
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(repository.executeInTransaction(any())).thenAnswer(invocation ->
+                ((Function<Connection, Object>) invocation.getArgument(0)).apply(null));
+        List<List<Long>> cleared = new ArrayList<>();
+        boolean[] failNext = {true};
+        when(repository.applyAggregateDeltas(any(), any())).thenAnswer(invocation -> {
+            if (failNext[0]) {
+                failNext[0] = false;
+                throw new PriceUpdateException("db down");
+            }
+            return Map.of();
+        });
+        doAnswer(invocation -> cleared.add(new ArrayList<>((Collection<Long>) invocation.getArgument(1))))
+                .when(repository).clearAggregateDirtyMarks(any(), any());
+
+        AggregateWriteBehindBuffer buffer = new AggregateWriteBehindBuffer(repository, mock(PriceAverageCalculator.class), propertiesLoader);
+        buffer.add(List.of(new AggregateDelta(7L, 1_000L, 1), new AggregateDelta(7L, 500L, 0)), Map.of(7L, 101L));
+        buffer.add(List.of(new AggregateDelta(8L, 300L, 1)), Map.of(8L, 102L));
+
+        assertThrows(PriceUpdateException.class, buffer::flush, "Ошибка БД должна пробрасываться");
+        assertTrue(cleared.isEmpty(), "Метки не должны сниматься без применения дельт");
+
+        buffer.flush();
+        assertEquals(1, cleared.size(), "Метки снимаются в транзакции сброса");
+        assertEquals(Set.of(101L, 102L), Set.copyOf(cleared.get(0)), "Снимаются метки всех применённых продуктов по одному разу");
+        buffer.shutdown();
+    }
+}
@@ -0,0 +1,73 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class AveragePriceCacheLayoutTest {
+    private final AveragePriceCacheLayout buckets =
+            new AveragePriceCacheLayout(AveragePriceCacheLayout.Type.BUCKETS, "avg_price:", "avg:", 1000);
+
+    @Test
+    void productsAreGroupedIntoBucketsWithCentsAsIntegers() {
+        assertEquals("avg:12", buckets.key(12_345L));
+        assertEquals("345", buckets.field(12_345L));
+        assertEquals("10050", buckets.encode(10_050L), "В бакете хранится целое число центов");
+        assertEquals(10_050L, buckets.decode("10050"));
+        assertTrue(buckets.isNotFound(buckets.notFoundMarker()));
+
+        AveragePriceCacheLayout keys = new AveragePriceCacheLayout(AveragePriceCacheLayout.Type.KEYS, "avg_price:", "avg:", 1000);
+        assertEquals("avg_price:12345", keys.key(12_345L), "Прежняя раскладка не меняется");
+        assertEquals("100.50", keys.encode(10_050L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void batchLookupReadsEachBucketOnceAndKeepsRequestOrder() {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        Response<List<String>> firstBucket = mock(Response.class);
+        Response<List<String>> secondBucket = mock(Response.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.hmget("avg:1", "1", "2")).thenReturn(firstBucket);
+        when(pipeline.hmget("avg:7", "5")).thenReturn(secondBucket);
+        when(firstBucket.get()).thenReturn(Arrays.asList("100", null));
+        when(secondBucket.get()).thenReturn(List.of(""));
+
+        List<String> values = buckets.getAll(jedis, List.of(1_001L, 7_005L, 1_002L));
+
+        assertEquals(Arrays.asList("100", "", null), values, "Значения возвращаются в порядке запроса");
+        verify(pipeline).sync();
+    }
+
+    @Test
+    void bucketWriteSetsFieldsAndRenewsBucketTtl() {
+        Pipeline pipeline = mock(Pipeline.class);
+
+        buckets.put(pipeline, Map.of(1_001L, 500L), () -> 600);
+
+        verify(pipeline).hset("avg:1", Map.of("1", "500"));
+        verify(pipeline).expire("avg:1", 600L);
+    }
+
+    @Test
+    void bucketLayoutDoesNotWriteNotFoundMarkers() {
+        Pipeline pipeline = mock(Pipeline.class);
+
+        buckets.putNotFound(pipeline, List.of(1_001L, 2_002L), 60);
+
+        verifyNoInteractions(pipeline);
+    }
+}
@@ -0,0 +1,26 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AveragePriceChangeBroadcasterTest {
+
+    @Test
+    void changesSurviveEncodingIncludingRemovedAverages() {
+        Map<Long, Long> changes = new LinkedHashMap<>();
+        changes.put(42L, 10_050L);
+        changes.put(7L, null);
+        changes.put(9_000_000_000L, 0L);
+
+        String payload = AveragePriceChangeBroadcaster.encode(changes);
+
+        assertEquals("42:10050,7:,9000000000:0", payload);
+        assertEquals(changes, AveragePriceChangeBroadcaster.decode(payload), "Пустое значение декодируется как отсутствие средней цены");
+        assertTrue(AveragePriceChangeBroadcaster.decode("").isEmpty(), "Пустое сообщение не содержит изменений");
+    }
+}
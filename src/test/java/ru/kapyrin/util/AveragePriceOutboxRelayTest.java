@@ -0,0 +1,30 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.model.AveragePriceChangedEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AveragePriceOutboxRelayTest {
+
+    @Test
+    void batchIsCompactedToTheLatestAveragePerProduct() {
+        List<AveragePriceChangedEvent> claimed = List.of(
+                new AveragePriceChangedEvent(12L, 1L, 10_000L, 5L),
+                new AveragePriceChangedEvent(10L, 2L, 500L, 7L),
+                new AveragePriceChangedEvent(11L, 1L, 9_000L, 6L),
+                new AveragePriceChangedEvent(14L, 2L, 650L, 3L),
+                new AveragePriceChangedEvent(13L, 3L, 1L, 4L));
+
+        List<AveragePriceChangedEvent> events = AveragePriceOutboxRelay.compact(claimed);
+
+        assertEquals(List.of(12L, 13L, 14L), events.stream().map(AveragePriceChangedEvent::outboxId).toList(),
+                "Для каждого товара остаётся последнее изменение, порядок по id outbox");
+        assertEquals(10_000L, events.get(0).averagePriceCents(), "Берётся средняя из строки с наибольшим id, а не последней в выборке");
+        assertEquals("{\"product_id\":2,\"average_price\":\"6.50\",\"version\":14}",
+                new String(AveragePriceOutboxRelay.encode(events.get(2)), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,57 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BulkPriceImporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void chunksEndOnLineBoundariesAndCoverWholeFile() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 1; i <= 1000; i++) {
+            content.append(i).append(",Manufacturer").append(i % 13).append(',').append(i * 1.5).append('\n');
+        }
+        content.append("1001,NoTrailingNewline,1.0");
+        Path file = Files.writeString(tempDir.resolve("prices.csv"), content);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<BulkPriceImporter.FileChunk> chunks = BulkPriceImporter.splitOnLineBoundaries(channel, 700);
+            byte[] bytes = Files.readAllBytes(file);
+            assertEquals(0, chunks.get(0).start(), "Первый чанк должен начинаться с начала файла");
+            assertEquals(bytes.length, chunks.get(chunks.size() - 1).end(), "Последний чанк должен заканчиваться в конце файла");
+            for (int i = 0; i < chunks.size(); i++) {
+                BulkPriceImporter.FileChunk chunk = chunks.get(i);
+                if (i > 0) {
+                    assertEquals(chunks.get(i - 1).end(), chunk.start(), "Чанки должны идти без пропусков");
+                    assertEquals('\n', bytes[(int) chunk.start() - 1], "Чанк должен начинаться с новой строки");
+                }
+            }
+        }
+    }
+
+    @Test
+    void parsesQuotedCsvAndEscapesCopyRows() {
+        PriceUpdate update = BulkPriceImporter.parseCsvLine("42,\"Acme, \"\"Tools\"\"\\Inc\",19.99");
+        assertEquals(new PriceUpdate(42L, "Acme, \"Tools\"\\Inc", 1_999L), update, "Поля в кавычках должны разбираться корректно");
+
+        StringBuilder rows = new StringBuilder();
+        BulkPriceImporter.appendCopyRow(rows, new PriceUpdate(7L, "Tab\tName\\", 150L), 128L);
+        assertEquals("7\tTab\\tName\\\\\t1.50\t128\n", rows.toString(), "Спецсимволы должны экранироваться для COPY");
+
+        assertThrows(IllegalArgumentException.class, () -> BulkPriceImporter.parseCsvLine("1,OnlyTwo"),
+                "Строка с неверным числом колонок должна отклоняться");
+    }
+}
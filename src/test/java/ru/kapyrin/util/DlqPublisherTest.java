@@ -0,0 +1,73 @@
+package ru.kapyrin.util;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.config.RabbitMQConfig;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DlqPublisherTest {
+
+    @Test
+    void failuresOfOneDeliveryArePublishedAsEnvelopesAndCompleteOnConfirm() throws Exception {
+        RabbitMQConfig rabbitMQConfig = mock(RabbitMQConfig.class);
+        Connection connection = mock(Connection.class);
+        Channel channel = mock(Channel.class);
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(rabbitMQConfig.getConnection(RabbitMQConfig.Role.DLQ)).thenReturn(connection);
+        when(rabbitMQConfig.getDlqName()).thenReturn("dlq");
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.isOpen()).thenReturn(true);
+        when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L);
+
+        DlqPublisher publisher = new DlqPublisher(rabbitMQConfig, propertiesLoader);
+        publisher.open();
+        ArgumentCaptor<ConfirmCallback> ack = ArgumentCaptor.forClass(ConfirmCallback.class);
+        verify(channel).confirmSelect();
+        verify(channel).addConfirmListener(ack.capture(), any(ConfirmCallback.class));
+
+        Map<DlqPublisher.Failure, List<PriceUpdate>> failures = new LinkedHashMap<>();
+        failures.put(new DlqPublisher.Failure("validation", "Price cannot be negative", 1),
+                List.of(new PriceUpdate(1L, "Acme", -100L), new PriceUpdate(2L, "Acme", -1L)));
+        failures.put(new DlqPublisher.Failure("persistence", "SQLState 40P01", 3), List.of(new PriceUpdate(3L, "Acme", 500L)));
+        CompletableFuture<Void> written = publisher.publish(failures, "ctag", 42L, null);
+
+        ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        verify(channel, times(2)).basicPublish(eq(""), eq("dlq"), properties.capture(), any(byte[].class));
+        Map<String, Object> headers = properties.getAllValues().get(0).getHeaders();
+        assertEquals("validation", headers.get(DlqPublisher.REASON_HEADER), "Причина должна передаваться в заголовке");
+        assertEquals("Price cannot be negative", headers.get(DlqPublisher.RULE_HEADER));
+        assertEquals(2, headers.get(DlqPublisher.ITEM_COUNT_HEADER), "Все элементы одной причины идут одним сообщением");
+        assertEquals(42L, headers.get(DlqPublisher.ORIGINAL_DELIVERY_TAG_HEADER));
+        assertEquals(3, properties.getAllValues().get(1).getHeaders().get(DlqPublisher.ATTEMPTS_HEADER));
+
+        ack.getValue().handle(1L, false);
+        assertFalse(written.isDone(), "Доставка подтверждается только после подтверждения всех конвертов");
+        ack.getValue().handle(2L, true);
+        assertTrue(written.isDone() && !written.isCompletedExceptionally(), "Подтверждение брокера завершает публикацию");
+    }
+}
@@ -0,0 +1,38 @@
+package ru.kapyrin.util;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.PropertiesLoader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PrefetchTunerTest {
+
+    @Test
+    void targetFollowsLittlesLawAndGrowsOnlyWhenCreditIsTheBottleneck() throws Exception {
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getBooleanProperty(anyString(), anyBoolean())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        PrefetchTuner tuner = new PrefetchTuner(propertiesLoader);
+        Channel channel = mock(Channel.class);
+        tuner.apply(channel);
+        verify(channel).basicQos(50, true);
+
+        assertEquals(15, tuner.computeTarget(50, 300, 0.012, 0.050, 50),
+                "300 msg/s * (12 мс + 20 мс) * 1.5 = 14.4, очередь внутри потребителя не растёт от лишних сообщений");
+        assertEquals(75, tuner.computeTarget(50, 300, 0.012, 0.0001, 50),
+                "Кредит исчерпан при пустой внутренней очереди: брокер не успевает, лимит растёт");
+        assertEquals(218, tuner.computeTarget(50, 1000, 0.125, 0.001, 40), "Медленная БД требует больше сообщений в работе");
+        assertEquals(10, tuner.computeTarget(50, 1, 0.001, 0.0, 1), "Нижняя граница");
+        assertEquals(1000, tuner.computeTarget(900, 20_000, 0.5, 0.0, 900), "Верхняя граница ограничивает неподтверждённые сообщения");
+        tuner.close();
+    }
+}
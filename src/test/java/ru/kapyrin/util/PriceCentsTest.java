@@ -0,0 +1,44 @@
+package ru.kapyrin.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PriceCentsTest {
+
+    @Test
+    void parseRoundsHalfAwayFromZeroAndFormatIsExact() {
+        assertEquals(1999L, PriceCents.parse("19.99"));
+        assertEquals(1950L, PriceCents.parse("19.5"));
+        assertEquals(2000L, PriceCents.parse("19.995"), "Третий знак 5 округляется вверх");
+        assertEquals(1999L, PriceCents.parse("19.9949999"));
+        assertEquals(-2000L, PriceCents.parse("-19.995"), "Отрицательные значения округляются от нуля");
+        assertEquals(1_000_000_000L, PriceCents.parse("1.0E7"), "Экспоненциальная запись поддерживается");
+        assertEquals(7L, PriceCents.parse(" 0.07 "));
+        assertThrows(NumberFormatException.class, () -> PriceCents.parse("12,5"));
+        assertThrows(NumberFormatException.class, () -> PriceCents.parse("99999999999999999999"));
+
+        byte[] buffer = new byte[PriceCents.MAX_FORMATTED_LENGTH + 1];
+        int length = PriceCents.format(-5L, buffer, 1);
+        assertEquals("-0.05", new String(buffer, 1, length, StandardCharsets.US_ASCII));
+        assertEquals("0.00", PriceCents.format(0L));
+        assertEquals("92233720368547758.07", PriceCents.format(Long.MAX_VALUE));
+        assertEquals("12.30", PriceCents.append(new StringBuilder(), 1230L).toString());
+    }
+
+    @Test
+    void jsonPriceIsReadAsCentsWithoutGoingThroughDouble() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        PriceUpdate update = objectMapper.readValue(
+                "{\"product_id\":1,\"manufacturer_name\":\"Acme\",\"price\":0.285}", PriceUpdate.class);
+
+        assertEquals(29L, update.priceCents(), "0.285 в double меньше 0.285, но округляться должна десятичная запись");
+        assertEquals("{\"product_id\":1,\"manufacturer_name\":\"Acme\",\"price\":0.29}", objectMapper.writeValueAsString(update));
+    }
+}
@@ -0,0 +1,72 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceUpdateBinaryCodecTest {
+
+    @Test
+    void encodeDecode_shouldRoundTripWithDictionary() throws IOException {
+        List<PriceUpdate> updates = List.of(
+                new PriceUpdate(1L, "Производитель_A", 10_050L),
+                new PriceUpdate(2L, "Vendor B", 0L),
+                new PriceUpdate(Long.MAX_VALUE, "Производитель_A", 9_999_999L));
+
+        PriceUpdateBinaryCodec.Encoded encoded = PriceUpdateBinaryCodec.encode(updates, 0);
+
+        assertNull(encoded.contentEncoding(), "Без порога сжатие не должно применяться");
+        assertEquals(updates, PriceUpdateBinaryCodec.decode(encoded.body(), encoded.contentEncoding()));
+    }
+
+    @Test
+    void encodeDecode_shouldKeepMissingManufacturerName() throws IOException {
+        List<PriceUpdate> updates = Arrays.asList(
+                new PriceUpdate(1L, null, 100L),
+                new PriceUpdate(2L, "", 200L),
+                new PriceUpdate(3L, null, 300L));
+
+        assertEquals(updates, PriceUpdateBinaryCodec.decode(PriceUpdateBinaryCodec.encode(updates), null),
+                "Отсутствующее имя производителя должно передаваться как null, а не как пустая строка");
+    }
+
+    @Test
+    void encode_shouldDeflateLargeBatches() throws IOException {
+        List<PriceUpdate> updates = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            updates.add(new PriceUpdate(i + 1, "Vendor_" + (i % 300), (100 + (i % 50)) * 100L));
+        }
+
+        PriceUpdateBinaryCodec.Encoded encoded = PriceUpdateBinaryCodec.encode(updates, 1024);
+
+        assertEquals(PriceUpdateBinaryCodec.CONTENT_ENCODING_DEFLATE, encoded.contentEncoding(), "Большой батч должен сжиматься");
+        assertTrue(encoded.body().length < PriceUpdateBinaryCodec.encode(updates).length, "Сжатый батч должен быть меньше исходного");
+        assertEquals(updates, PriceUpdateBinaryCodec.decode(encoded.body(), encoded.contentEncoding()));
+    }
+
+    @Test
+    void decode_shouldConvertVersion1DoublePricesToCents() throws IOException {
+        byte[] name = "A".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer v1 = ByteBuffer.allocate(2 + 4 + 4 + 4 + name.length + 1 + 8 + 1 + 8);
+        v1.put((byte) 'P').put((byte) 1).putInt(1).putInt(1).putInt(name.length).put(name).put((byte) 1)
+                .putLong(5L).put((byte) 0).putDouble(19.995);
+
+        assertEquals(List.of(new PriceUpdate(5L, "A", 2_000L)), PriceUpdateBinaryCodec.decode(v1.array(), null),
+                "Сообщения первой версии с ценой в double должны округляться до копеек");
+    }
+
+    @Test
+    void decode_shouldRejectTruncatedMessage() {
+        byte[] body = PriceUpdateBinaryCodec.encode(List.of(new PriceUpdate(1L, "A", 100L)));
+
+        assertThrows(IOException.class, () -> PriceUpdateBinaryCodec.decode(Arrays.copyOf(body, body.length - 3), null));
+    }
+}
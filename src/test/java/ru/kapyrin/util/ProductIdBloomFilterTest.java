@@ -0,0 +1,66 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.repository.PriceRepository;
+
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ProductIdBloomFilterTest {
+
+    @Test
+    void rebuiltFilterHasNoFalseNegativesAndBoundedFalsePositives() throws Exception {
+        PriceRepository repository = mock(PriceRepository.class);
+        doAnswer(invocation -> {
+            LongConsumer consumer = invocation.getArgument(1);
+            for (long id = 1; id <= 100_000; id++) {
+                consumer.accept(id * 2);
+            }
+            return null;
+        }).when(repository).streamProductIds(anyInt(), any());
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getBooleanProperty(anyString(), eq(true))).thenReturn(true);
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(eq("bloom.expected.products"), anyLong())).thenReturn(100_000L);
+        when(propertiesLoader.getProperty(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+
+        ProductIdBloomFilter filter = new ProductIdBloomFilter(repository, null, propertiesLoader);
+        assertTrue(filter.mightContain(1L), "До первой сборки фильтр не должен отклонять id");
+        filter.rebuild();
+
+        for (long id = 1; id <= 100_000; id++) {
+            assertTrue(filter.mightContain(id * 2), "Известный id не должен отклоняться: " + id * 2);
+        }
+        int falsePositives = 0;
+        for (long id = 0; id < 100_000; id++) {
+            if (filter.mightContain(id * 2 + 1)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "Доля ложных срабатываний должна быть около 1%, получено " + falsePositives);
+
+        assertFalse(filter.mightContain(1_000_001L), "Неизвестный id должен отклоняться");
+        filter.add(1_000_001L);
+        assertTrue(filter.mightContain(1_000_001L), "Добавленный id должен находиться сразу");
+
+        assertFalse(filter.mightContain(2_000_001L) || filter.mightContain(2_000_003L));
+        filter.onAnnounced("2000001,2000003");
+        assertTrue(filter.mightContain(2_000_001L) && filter.mightContain(2_000_003L),
+                "Товары, созданные на другом экземпляре, должны находиться сразу после анонса");
+        filter.announce(List.of(2_000_005L));
+        assertTrue(filter.mightContain(2_000_005L), "Без Redis анонс добавляет id хотя бы в локальный фильтр");
+        filter.shutdown();
+    }
+}
@@ -0,0 +1,66 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductPartitionerTest {
+
+    private final PropertiesLoader propertiesLoader = new PropertiesLoader() {
+        private final Map<String, String> properties = Map.of("db.partition.count", "16", "db.batch.max.size", "2");
+
+        @Override
+        public String getProperty(String key) {
+            return properties.get(key);
+        }
+
+        @Override
+        public String getProperty(String key, String defaultValue) {
+            return properties.getOrDefault(key, defaultValue);
+        }
+    };
+
+    @Test
+    void postgresPartitionHash_shouldMatchPostgresPlacementForModulus16() {
+        Map<Long, Integer> expected = Map.of(
+                -7L, 10,
+                1L, 8,
+                2L, 10,
+                3L, 9,
+                42L, 2,
+                1000L, 4,
+                99999L, 4,
+                123456789L, 13,
+                4294967296L, 8,
+                Long.MAX_VALUE, 6);
+        expected.forEach((productId, partition) ->
+                assertEquals(partition, (int) Long.remainderUnsigned(ProductPartitioner.postgresPartitionHash(productId), 16),
+                        "Партиция для product_id=" + productId + " должна совпадать с PostgreSQL"));
+    }
+
+    @Test
+    void groupByPartition_shouldSortByLockOrderAndLimitBatchSize() {
+        ProductPartitioner partitioner = new ProductPartitioner(propertiesLoader);
+        List<PriceUpdate> updates = List.of(
+                new PriceUpdate(3L, "b", 100L),
+                new PriceUpdate(3L, "a", 200L),
+                new PriceUpdate(3L, "c", 300L),
+                new PriceUpdate(4L, "a", 400L));
+
+        List<List<PriceUpdate>> batches = partitioner.groupByPartition(updates);
+
+        assertEquals(4, batches.stream().mapToInt(List::size).sum(), "Все обновления должны попасть в батчи");
+        for (List<PriceUpdate> batch : batches) {
+            assertTrue(batch.size() <= 2, "Размер батча не должен превышать db.batch.max.size");
+            int partition = partitioner.partitionOf(batch.get(0).productId());
+            assertTrue(batch.stream().allMatch(u -> partitioner.partitionOf(u.productId()) == partition), "Батч должен содержать одну партицию");
+        }
+        List<PriceUpdate> product3 = batches.stream().flatMap(List::stream).filter(u -> u.productId() == 3L).toList();
+        assertEquals(List.of("a", "b", "c"), product3.stream().map(PriceUpdate::manufacturerName).toList(), "Обновления должны идти в порядке блокировок");
+    }
+}
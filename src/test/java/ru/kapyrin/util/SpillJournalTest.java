@@ -0,0 +1,119 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.kapyrin.config.PropertiesLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SpillJournalTest {
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void spilledMessagesAreReplayedInOrderAndSurviveRestart() throws IOException {
+        SpillJournal journal = new SpillJournal(properties(SEGMENT_BYTES * 4L));
+        List<byte[]> bodies = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] body = new byte[20_000];
+            body[0] = (byte) i;
+            bodies.add(body);
+            journal.append(List.of(new SpillJournal.Entry(i % 3 == 0, true, i % 2 == 0, body)));
+        }
+        assertEquals(4, segmentCount(), "Записи должны раскладываться по нескольким сегментам");
+
+        SpillJournal.Batch first = journal.readBatch(4);
+        assertEquals(4, first.entries().size());
+        assertArrayEquals(bodies.get(0), first.entries().get(0).body());
+        assertTrue(first.entries().get(0).deadLetter() && first.entries().get(0).deflated(), "Флаги должны сохраняться");
+        assertFalse(first.entries().get(1).deadLetter());
+        journal.commit(first);
+        assertEquals(3, segmentCount(), "Полностью выгруженные сегменты удаляются");
+        journal.close();
+
+        SpillJournal reopened = new SpillJournal(properties(SEGMENT_BYTES * 4L));
+        assertFalse(reopened.isEmpty(), "После перезапуска невыгруженные записи должны восстановиться");
+        SpillJournal.Batch rest = reopened.readBatch(100);
+        assertEquals(6, rest.entries().size(), "Выгрузка продолжается с сохранённой позиции");
+        for (int i = 0; i < 6; i++) {
+            assertEquals((byte) (i + 4), rest.entries().get(i).body()[0], "Порядок записей должен сохраняться");
+        }
+        reopened.commit(rest);
+        assertTrue(reopened.isEmpty());
+
+        byte[] tooMuch = new byte[SEGMENT_BYTES - 100];
+        reopened.append(List.of(new SpillJournal.Entry(false, false, false, tooMuch)));
+        reopened.append(List.of(new SpillJournal.Entry(false, false, false, tooMuch)));
+        reopened.append(List.of(new SpillJournal.Entry(false, false, false, tooMuch)));
+        reopened.append(List.of(new SpillJournal.Entry(false, false, false, tooMuch)));
+        assertThrows(IOException.class, () -> reopened.append(List.of(new SpillJournal.Entry(false, false, false, tooMuch))),
+                "При переполнении журнала запись должна отклоняться");
+        reopened.close();
+    }
+
+    @Test
+    void batchesCanBeReadAheadOfTheirCommit() throws IOException {
+        SpillJournal journal = new SpillJournal(properties(SEGMENT_BYTES * 4L));
+        for (int i = 0; i < 6; i++) {
+            byte[] body = new byte[20_000];
+            body[0] = (byte) i;
+            journal.append(List.of(new SpillJournal.Entry(false, true, false, body)));
+        }
+
+        SpillJournal.Batch first = journal.readBatch(2);
+        SpillJournal.Batch second = journal.readBatch(first, 2);
+        SpillJournal.Batch third = journal.readBatch(second, 10);
+        assertEquals(2, second.entries().size());
+        assertEquals((byte) 2, second.entries().get(0).body()[0], "Следующий пакет начинается после неподтверждённого");
+        assertEquals(2, third.entries().size(), "Чтение вперёд доходит до конца журнала");
+        assertTrue(journal.readBatch(third, 10).entries().isEmpty());
+
+        journal.commit(first);
+        journal.commit(second);
+        assertFalse(journal.isEmpty(), "Незафиксированный пакет остаётся в журнале");
+        journal.close();
+
+        SpillJournal reopened = new SpillJournal(properties(SEGMENT_BYTES * 4L));
+        SpillJournal.Batch replayed = reopened.readBatch(10);
+        assertEquals(2, replayed.entries().size(), "После перезапуска повторяются только незафиксированные записи");
+        assertEquals((byte) 4, replayed.entries().get(0).body()[0]);
+        reopened.close();
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private PropertiesLoader properties(long maxBytes) {
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getBooleanProperty(anyString(), anyBoolean())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getProperty(eq("ingest.spill.dir"), anyString())).thenReturn(directory.toString());
+        when(propertiesLoader.getLongProperty(eq("ingest.spill.segment.bytes"), anyLong())).thenReturn((long) SEGMENT_BYTES);
+        when(propertiesLoader.getLongProperty(eq("ingest.spill.max.bytes"), anyLong())).thenReturn(maxBytes);
+        return propertiesLoader;
+    }
+}
@@ -0,0 +1,36 @@
+package ru.kapyrin.util;
+
+import org.junit.jupiter.api.Test;
+import ru.kapyrin.config.PropertiesLoader;
+import ru.kapyrin.model.PriceUpdate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VendorPriceMemoTest {
+
+    @Test
+    void lastPersistedPriceIsKeyedByProductAndManufacturer() {
+        PropertiesLoader propertiesLoader = mock(PropertiesLoader.class);
+        when(propertiesLoader.getBooleanProperty(anyString(), anyBoolean())).thenReturn(true);
+        when(propertiesLoader.getLongProperty(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(propertiesLoader.getIntProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        VendorPriceMemo memo = new VendorPriceMemo(propertiesLoader);
+
+        assertNull(memo.lastPersistedPrice(1L, "Acme"), "Пустая память не должна возвращать цену");
+        memo.recordPersisted(List.of(new PriceUpdate(1L, "Acme", 1_000L), new PriceUpdate(2L, "Acme", 500L),
+                new PriceUpdate(2L, "Acme", 600L)));
+
+        assertEquals(1_000L, memo.lastPersistedPrice(1L, "Acme"), "Ключ учитывает производителя");
+        assertNull(memo.lastPersistedPrice(1L, "Globex"), "Цена другого производителя не подставляется");
+        assertEquals(600L, memo.lastPersistedPrice(2L, "Acme"), "Последняя цена в пакете побеждает");
+    }
+}
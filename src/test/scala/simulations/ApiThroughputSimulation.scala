@@ -0,0 +1,56 @@
+package simulations
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+import scala.concurrent.duration._
+import scala.util.Random
+
+class ApiThroughputSimulation extends Simulation {
+  val baseUrl = System.getProperty("baseUrl", "http://localhost:8080")
+  val concurrency = Integer.getInteger("concurrency", 256).intValue()
+  val durationSeconds = Integer.getInteger("durationSeconds", 60).intValue()
+  val productIds = Integer.getInteger("productIds", 100000).intValue()
+  val scenarios = System.getProperty("scenarios", "post,get").split(",").map(_.trim).toSet
+
+  val httpProtocol = http
+    .baseUrl(baseUrl)
+    .acceptHeader("application/json")
+    .contentTypeHeader("application/json")
+    .shareConnections
+
+  val updatesFeeder = Iterator.continually {
+    val updates = (1 to 10).map { _ =>
+      s"""{ "product_id": ${Random.nextInt(productIds) + 1}, "manufacturer_name": "Производитель_${Random.nextInt(50)}", "price": ${Random.nextInt(40000) / 100.0 + 100} }"""
+    }
+    Map("jsonArray" -> updates.mkString("[", ",", "]"))
+  }
+
+  val productFeeder = Iterator.continually(Map("productId" -> (Random.nextInt(productIds) + 1)))
+
+  val postUpdates = scenario("POST /price-updates throughput")
+    .during(durationSeconds.seconds) {
+      feed(updatesFeeder)
+        .exec(http("POST /price-updates")
+          .post("/price-updates")
+          .body(StringBody("#{jsonArray}")).asJson
+          .check(status.is(202)))
+    }
+
+  val getAveragePrice = scenario("GET /average-price throughput")
+    .during(durationSeconds.seconds) {
+      feed(productFeeder)
+        .exec(http("GET /average-price")
+          .get("/average-price/#{productId}")
+          .check(status.in(200, 404)))
+    }
+
+  val usersPerScenario = concurrency / scenarios.size
+
+  setUp(
+    List(
+      if (scenarios.contains("post")) Some(postUpdates.inject(atOnceUsers(usersPerScenario))) else None,
+      if (scenarios.contains("get")) Some(getAveragePrice.inject(atOnceUsers(usersPerScenario))) else None
+    ).flatten
+  ).protocols(httpProtocol)
+}